@@ -0,0 +1,244 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that drawing a frame doesn't make any garbage once everything has
+ * warmed up. It draws the same kind of frame as {@link GraphicsExample}, using
+ * the drawing functions that take plain numbers, and counts the bytes Java
+ * allocated while doing it. Run it like any other program:
+ *
+ * <pre>
+ * java AllocationCheck
+ * </pre>
+ *
+ * It prints the bytes allocated per frame for each way of setting up the
+ * canvas, and how many frames allocated anything at all. It quits with an
+ * error code if even one frame made garbage, so you can run it after changing
+ * a drawing function to make sure you didn't add a {@code new} by accident.
+ * Each frame is counted on its own, so something that only makes garbage
+ * once in a while (like a cache throwing things away) still gets caught.
+ *
+ * Java itself makes garbage (around a kilobyte a frame here) every time it
+ * works out the edges of a curved or slanted shape, and there's nothing we
+ * can do about that from outside. With a {@link ShapeCache} and a
+ * {@link TextCache} those shapes turn into picture copies instead, so every
+ * checked setup has both caches turned on and has to come out to nothing.
+ * The frame without caches, and the same frame drawn straight onto the
+ * Graphics2D, are printed too so you can compare.
+ *
+ * Recording into a {@link DisplayList} isn't checked, because the list has to
+ * keep its own copy of any text that changes from frame to frame.
+ */
+public class AllocationCheck {
+    static final int WARMUP_FRAMES = 2000;
+    static final int QUIET_FRAMES = 5000;
+    static final int MAX_WARMUP_FRAMES = 20000;
+    static final int MEASURED_FRAMES = 5000;
+
+    static com.sun.management.ThreadMXBean threads;
+    static CompilationMXBean compiler;
+
+    // Everything the frame needs, made once up front like in a real program.
+    static Font font = new Font("Serif", Font.PLAIN, 24);
+    static StringBuilder counterText = new StringBuilder();
+    static MouseHelper mouse;
+    static int frame = 0;
+    static int[] xs = new int[3];
+    static int[] ys = new int[3];
+
+    // How many of the frames measure looked at allocated something
+    static int garbageFrames = 0;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // no window needed
+
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        compiler = ManagementFactory.getCompilationMXBean();
+        mouse = new MouseHelper(new Canvas());
+
+        // Without the caches, Java makes garbage working out the edges of
+        // curved and slanted shapes, so these are just printed to compare.
+        System.out.printf("%-32s %12s %16s%n", "setup", "bytes/frame", "garbage frames");
+        GraphicsCanvas raw = makeCanvas();
+        print("Java by itself (not checked)", measure(() -> drawRawFrame(raw), false));
+        GraphicsCanvas plain = makeCanvas();
+        print("no caches (not checked)", measure(() -> drawFrame(plain), false));
+
+        boolean passed = true;
+        passed &= check("caches", makeCachedCanvas());
+
+        GraphicsCanvas dirty = makeCachedCanvas();
+        dirty.setDirtyTracking(true, 16);
+        passed &= check("caches + dirty tracking", dirty);
+
+        GraphicsCanvas layered = makeCachedCanvas();
+        layered.addLayer("background", -1, g -> {
+            GraphicsExample.drawRectangle(g, Color.ORANGE, 400, 200, 100, 50);
+            GraphicsExample.drawText(g, "Background", Color.BLACK, font, 20, 50);
+        });
+        passed &= check("caches + layers", layered);
+
+        if (!passed) {
+            System.out.println("Some frames made garbage!");
+            System.exit(1);
+        }
+        System.out.println("No garbage.");
+    }
+
+    static GraphicsCanvas makeCanvas() {
+        GraphicsCanvas canvas = new GraphicsCanvas(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB));
+        canvas.getGraphics2D().setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return canvas;
+    }
+
+    static GraphicsCanvas makeCachedCanvas() {
+        GraphicsCanvas canvas = makeCanvas();
+        canvas.setTextCache(new TextCache(1 << 20));
+        canvas.setShapeCache(new ShapeCache(256));
+        return canvas;
+    }
+
+    /**
+     * Draws a bunch of frames and prints how much they allocated. Returns
+     * true if none of them made any garbage.
+     */
+    static boolean check(String name, GraphicsCanvas canvas) {
+        print(name, measure(() -> drawFrame(canvas), true));
+        return garbageFrames == 0;
+    }
+
+    static void print(String name, double bytesPerFrame) {
+        System.out.printf("%-32s %12.2f %16d%n", name, bytesPerFrame, garbageFrames);
+    }
+
+    /**
+     * Gets the average number of bytes allocated per frame, after warming up,
+     * and counts how many frames allocated anything in garbageFrames.
+     *
+     * Java keeps compiling and recompiling the drawing code for a while after
+     * it starts, and every time it swaps in a new version, the frame that's
+     * running can make a little garbage that the finished code doesn't. So if
+     * untilQuiet is true, the warmup keeps going until a long run of frames
+     * in a row made nothing and Java didn't compile anything during them (or
+     * it's clear that isn't going to happen).
+     */
+    static double measure(Runnable drawFrame, boolean untilQuiet) {
+        int quietFrames = 0;
+        for (int i = 0; i < MAX_WARMUP_FRAMES; i++) {
+            if (i >= WARMUP_FRAMES && (!untilQuiet || quietFrames >= QUIET_FRAMES)) {
+                break;
+            }
+            long compileTime = compiler.getTotalCompilationTime();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            drawFrame.run();
+            if (threads.getCurrentThreadAllocatedBytes() == before && compiler.getTotalCompilationTime() == compileTime) {
+                quietFrames++;
+            } else {
+                quietFrames = 0;
+            }
+        }
+
+        long total = 0;
+        garbageFrames = 0;
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            drawFrame.run();
+            long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+            total += bytes;
+            if (bytes != 0) {
+                garbageFrames++;
+            }
+        }
+        return total / (double) MEASURED_FRAMES;
+    }
+
+    static void drawFrame(GraphicsCanvas canvas) {
+        frame++;
+        Graphics2D g = canvas.getGraphics2D();
+        canvas.clear();
+
+        // Things that move and change color every frame
+        int wobble = frame % 100;
+        int fancyColor = GraphicsExample.packColor(frame % 255, 0, 255, 255);
+        GraphicsExample.drawRectangle(g, fancyColor, 600, 400, wobble, -wobble);
+        GraphicsExample.drawCircle(g, Color.MAGENTA, 100 + wobble, 100, 10);
+        GraphicsExample.drawCircleOutline(g, 0xFF00FF00, 3, 200, 300 + wobble, 20);
+        GraphicsExample.drawEllipse(g, Color.GREEN, 200, 200, 30, 15);
+        GraphicsExample.drawRectangleOutline(g, Color.GRAY, 3, 450, 175, 100, 100);
+        GraphicsExample.drawLine(g, Color.CYAN, 2, 200, 200, 400 + wobble, 400);
+        GraphicsExample.drawTriangle(g, Color.BLUE, 50, 200, 150, 200, 100, 300 - wobble);
+        GraphicsExample.drawTriangleOutline(g, Color.RED, 2, 50, 400, 150, 400, 100, 500);
+
+        // Text that's the same every frame, and text that changes
+        GraphicsExample.drawText(g, "Hello!", Color.BLACK, font, 100, 100);
+        counterText.setLength(0);
+        counterText.append("Frame ").append(frame);
+        GraphicsExample.drawText(g, counterText, Color.BLACK, font, 360, 120);
+        GraphicsExample.drawMousePosition(g, mouse);
+
+        GraphicsExample.doButton(g, mouse, Color.BLUE, 300, 100, 50, 25);
+        mouse.isInRectangle(90, 90, 20, 20);
+
+        canvas.present();
+        mouse.resetForNextFrame();
+    }
+
+    /**
+     * Draws the same shapes as drawFrame, straight onto the Graphics2D, to see
+     * how much garbage Java makes on its own.
+     */
+    static void drawRawFrame(GraphicsCanvas canvas) {
+        frame++;
+        Graphics2D g = canvas.getGraphics2D();
+        g.clearRect(0, 0, 800, 600);
+
+        int wobble = frame % 100;
+        GraphicsState.applyColor(g, GraphicsExample.packColor(frame % 255, 0, 255, 255));
+        g.fillRect(600, 400 - wobble, wobble, wobble);
+        GraphicsState.applyColor(g, Color.MAGENTA);
+        g.fillOval(90 + wobble, 90, 20, 20);
+        GraphicsState.applyColor(g, 0xFF00FF00);
+        GraphicsState.applyStroke(g, 3);
+        g.drawOval(180, 280 + wobble, 39, 39);
+        GraphicsState.applyColor(g, Color.GREEN);
+        g.fillOval(170, 185, 60, 30);
+        GraphicsState.applyColor(g, Color.GRAY);
+        g.drawRect(450, 175, 100, 100);
+        GraphicsState.applyColor(g, Color.CYAN);
+        GraphicsState.applyStroke(g, 2);
+        g.drawLine(200, 200, 400 + wobble, 400);
+        GraphicsState.applyColor(g, Color.BLUE);
+        setTriangle(50, 200, 150, 200, 100, 300 - wobble);
+        g.fillPolygon(xs, ys, 3);
+        GraphicsState.applyColor(g, Color.RED);
+        setTriangle(50, 400, 150, 400, 100, 500);
+        g.drawPolygon(xs, ys, 3);
+
+        GraphicsState.applyColor(g, Color.BLACK);
+        GraphicsState.applyFont(g, font);
+        g.drawString("Hello!", 100, 100);
+        counterText.setLength(0);
+        counterText.append("Frame ").append(frame);
+        g.drawChars(GraphicsExample.getChars(counterText), 0, counterText.length(), 360, 120);
+        GraphicsState.applyFont(g, GraphicsExample.defaultFont);
+        g.drawChars(GraphicsExample.getChars(counterText), 0, counterText.length(), 0, 0);
+
+        GraphicsState.applyColor(g, Color.BLUE);
+        g.fillRect(300, 100, 50, 25);
+
+        canvas.present();
+        mouse.resetForNextFrame();
+    }
+
+    static void setTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+        xs[0] = x1;
+        ys[0] = y1;
+        xs[1] = x2;
+        ys[1] = y2;
+        xs[2] = x3;
+        ys[2] = y3;
+    }
+}
@@ -0,0 +1,153 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A CanvasLayer is a picture that stays on a {@link GraphicsCanvas} from
+ * frame to frame without being drawn again, like a background that never
+ * changes. Make one with {@link GraphicsCanvas#addLayer}.
+ *
+ * A layer is only drawn when it has to be: the first time it's shown, and
+ * after you call {@link #invalidate} because something on it changed. The
+ * rest of the time the canvas just copies the saved picture.
+ *
+ * Layers with a negative z go behind whatever you draw each frame, and
+ * layers with a positive z go in front of it. Layers with a bigger z go in
+ * front of layers with a smaller z.
+ */
+public class CanvasLayer {
+    /**
+     * Draws what's on a layer. It gets called with a graphics object for the
+     * layer's picture, already cleared to see-through.
+     */
+    public interface Painter {
+        void paint(Graphics2D g);
+    }
+
+    GraphicsCanvas canvas;
+    String name;
+    int z;
+    Painter painter;
+
+    BufferedImage image;
+    Graphics2D imageGraphics;
+    boolean valid = false;
+
+    boolean visible = true;
+    float opacity = 1;
+    AlphaComposite composite; // null when fully opaque
+
+    // True when the canvas has to show the whole frame again because of us.
+    boolean changed = true;
+
+    long repaints = 0;
+
+    CanvasLayer(GraphicsCanvas canvas, String name, int z, Painter painter) {
+        this.canvas = canvas;
+        this.name = name;
+        this.z = z;
+        this.painter = painter;
+    }
+
+    /**
+     * Tells the layer that what's on it has changed, so it gets drawn again
+     * the next time the canvas is cleared.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Shows or hides the layer. Hidden layers aren't drawn at all.
+     */
+    public void setVisible(boolean visible) {
+        if (visible != this.visible) {
+            this.visible = visible;
+            changed = true;
+        }
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Sets how see-through the whole layer is, from 0 (invisible) to 1 (solid).
+     */
+    public void setOpacity(float opacity) {
+        if (opacity < 0 || opacity > 1) {
+            throw new IllegalArgumentException("Opacity must be between 0 and 1, but was " + opacity);
+        }
+        if (opacity != this.opacity) {
+            this.opacity = opacity;
+            composite = opacity < 1 ? AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity) : null;
+            changed = true;
+        }
+    }
+
+    public float getOpacity() {
+        return opacity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Gets how many times the layer has been drawn. If this goes up every
+     * frame, something is invalidating it every frame and it isn't saving
+     * anything.
+     */
+    public long getRepaints() {
+        return repaints;
+    }
+
+    boolean isShown() {
+        return visible && opacity > 0;
+    }
+
+    /**
+     * Draws the layer's picture again if it needs it. Returns true if the
+     * canvas has to show the whole frame again because the layer changed.
+     */
+    boolean update(Graphics2D canvasGraphics) {
+        if (!valid && isShown()) {
+            if (image == null) {
+                image = SpriteCache.createCompatibleImage(canvas.width, canvas.height, Transparency.TRANSLUCENT);
+                imageGraphics = image.createGraphics();
+            }
+            imageGraphics.setRenderingHints(canvasGraphics.getRenderingHints()); // look the same as the rest of the frame
+            imageGraphics.setComposite(AlphaComposite.Clear);
+            imageGraphics.fillRect(0, 0, canvas.width, canvas.height);
+            imageGraphics.setComposite(AlphaComposite.SrcOver);
+            painter.paint(imageGraphics);
+            valid = true;
+            changed = true;
+            repaints++;
+        }
+        boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    /**
+     * Copies part of the layer's picture onto g.
+     */
+    void draw(Graphics2D g, int x, int y, int width, int height) {
+        if (!isShown() || image == null) {
+            return;
+        }
+        Composite oldComposite = null;
+        if (composite != null) {
+            oldComposite = g.getComposite();
+            g.setComposite(composite);
+        }
+        g.drawImage(image, x, y, x + width, y + height, x, y, x + width, y + height, null);
+        if (oldComposite != null) {
+            g.setComposite(oldComposite);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Keeps track of which parts of the screen have changed, as a small list of
+ * rectangles. Rectangles that overlap get merged together, and once the list
+ * is full, new rectangles get merged into whichever existing one grows the
+ * least. That way the list never gets too long to be worth using.
+ *
+ * Coordinates are stored in plain int arrays, so adding a region never
+ * creates any new objects.
+ */
+public class DirtyRegions {
+    // Each region goes from (left, top) up to but not including (right, bottom).
+    int[] left, top, right, bottom;
+    int count = 0;
+
+    int boundsWidth, boundsHeight;
+
+    /**
+     * Constructs a {@link DirtyRegions} for a screen of the given size that
+     * holds at most maxRegions rectangles.
+     */
+    public DirtyRegions(int boundsWidth, int boundsHeight, int maxRegions) {
+        if (maxRegions < 1) {
+            throw new IllegalArgumentException("maxRegions must be at least 1, but was " + maxRegions);
+        }
+        this.boundsWidth = boundsWidth;
+        this.boundsHeight = boundsHeight;
+        left = new int[maxRegions];
+        top = new int[maxRegions];
+        right = new int[maxRegions];
+        bottom = new int[maxRegions];
+    }
+
+    /**
+     * Marks a rectangle as changed. Negative widths and heights are fine.
+     * Anything outside the screen is ignored.
+     */
+    public void add(int x, int y, int width, int height) {
+        int l = Math.max(Math.min(x, x + width), 0);
+        int t = Math.max(Math.min(y, y + height), 0);
+        int r = Math.min(Math.max(x, x + width), boundsWidth);
+        int b = Math.min(Math.max(y, y + height), boundsHeight);
+        if (l >= r || t >= b) {
+            return;
+        }
+
+        // Keep merging with anything we touch until nothing overlaps anymore.
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < count; i++) {
+                if (l <= right[i] && left[i] <= r && t <= bottom[i] && top[i] <= b) {
+                    l = Math.min(l, left[i]);
+                    t = Math.min(t, top[i]);
+                    r = Math.max(r, right[i]);
+                    b = Math.max(b, bottom[i]);
+                    remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+
+        if (count == left.length) {
+            // Full! Merge into whichever region grows the least.
+            int best = 0;
+            long bestGrowth = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                long oldArea = (long) (right[i] - left[i]) * (bottom[i] - top[i]);
+                long newArea = (long) (Math.max(r, right[i]) - Math.min(l, left[i])) * (Math.max(b, bottom[i]) - Math.min(t, top[i]));
+                if (newArea - oldArea < bestGrowth) {
+                    bestGrowth = newArea - oldArea;
+                    best = i;
+                }
+            }
+            int bl = left[best], bt = top[best], br = right[best], bb = bottom[best];
+            remove(best);
+            add(Math.min(l, bl), Math.min(t, bt), Math.max(r, br) - Math.min(l, bl), Math.max(b, bb) - Math.min(t, bt));
+            return;
+        }
+
+        left[count] = l;
+        top[count] = t;
+        right[count] = r;
+        bottom[count] = b;
+        count++;
+    }
+
+    /**
+     * Marks everything in another {@link DirtyRegions} as changed too.
+     */
+    public void addAll(DirtyRegions other) {
+        for (int i = 0; i < other.count; i++) {
+            add(other.left[i], other.top[i], other.right[i] - other.left[i], other.bottom[i] - other.top[i]);
+        }
+    }
+
+    /**
+     * Marks the whole screen as changed.
+     */
+    public void addEverything() {
+        count = 0;
+        add(0, 0, boundsWidth, boundsHeight);
+    }
+
+    void remove(int i) {
+        count--;
+        left[i] = left[count];
+        top[i] = top[count];
+        right[i] = right[count];
+        bottom[i] = bottom[count];
+    }
+
+    /**
+     * Forgets about all changed regions.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Gets how many rectangles are being tracked right now.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getX(int i) {
+        return left[i];
+    }
+
+    public int getY(int i) {
+        return top[i];
+    }
+
+    public int getWidth(int i) {
+        return right[i] - left[i];
+    }
+
+    public int getHeight(int i) {
+        return bottom[i] - top[i];
+    }
+
+    /**
+     * Gets one of the changed regions as a {@link Rectangle}.
+     */
+    public Rectangle getRegion(int i) {
+        return new Rectangle(getX(i), getY(i), getWidth(i), getHeight(i));
+    }
+
+    /**
+     * Gets the total number of pixels covered by the changed regions.
+     */
+    public long getArea() {
+        long area = 0;
+        for (int i = 0; i < count; i++) {
+            area += (long) (right[i] - left[i]) * (bottom[i] - top[i]);
+        }
+        return area;
+    }
+}
@@ -0,0 +1,550 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * A DisplayList records drawing commands so they can be drawn later, drawn
+ * again, or compared against another frame's commands to see what changed.
+ *
+ * To record into one, call {@link GraphicsCanvas#startRecording} and then use
+ * the normal drawing functions from {@link GraphicsExample}. Instead of drawing
+ * right away, they will add commands to the list. Call {@link #replay} to
+ * actually draw them onto any Graphics2D.
+ *
+ * Commands are stored in a few big arrays of numbers instead of one object
+ * per command, so recording thousands of shapes stays cheap.
+ */
+public class DisplayList {
+    // Command types
+    static final int FILL_RECT = 1;
+    static final int DRAW_RECT = 2;
+    static final int FILL_OVAL = 3;
+    static final int DRAW_OVAL = 4;
+    static final int DRAW_LINE = 5;
+    static final int FILL_TRIANGLE = 6;
+    static final int DRAW_TRIANGLE = 7;
+    static final int DRAW_TEXT = 8;
+    static final int DRAW_IMAGE = 9;
+
+    int commandCount = 0;
+
+    // Where each command starts in each stream. Command i's numbers go from
+    // intStart[i] up to intStart[i + 1], and so on.
+    int[] intStart = new int[65];
+    int[] floatStart = new int[65];
+    int[] refStart = new int[65];
+
+    // The streams themselves. Every command's ints start with its type and its
+    // color (as ARGB). Stroke thicknesses go in floats, and things that can't be
+    // numbers (the Color object itself, fonts, strings) go in refs.
+    int[] ints = new int[512];
+    float[] floats = new float[64];
+    Object[] refs = new Object[128];
+    int intCount = 0, floatCount = 0, refCount = 0;
+
+    // The area each command draws in, as x, y, width, height.
+    int[] bounds = new int[256];
+
+    // Scratch space for replaying triangles
+    int[] triangleXs = new int[3];
+    int[] triangleYs = new int[3];
+    GraphicsState replayState;
+
+    // Scratch space for sorting commands into batches. See replaySorted.
+    int[] order = new int[64];
+    int[] nextInBatch = new int[64];
+    int[] batchFirst = new int[64];
+    int[] batchLast = new int[64];
+    int[] batchBounds = new int[256];
+
+    /**
+     * How many batches back replaySorted will look for one with the same
+     * color, stroke, and font. Looking further finds more batches to join,
+     * but takes longer.
+     */
+    public int maxBatchLookback = 64;
+
+    /**
+     * Throws away all recorded commands. The list keeps its memory so it can
+     * be reused for the next frame without allocating.
+     */
+    public void clear() {
+        commandCount = 0;
+        intCount = 0;
+        floatCount = 0;
+        Arrays.fill(refs, 0, refCount, null); // don't hang on to old strings
+        refCount = 0;
+    }
+
+    /**
+     * Gets the number of commands recorded so far.
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    // ----------------------------------------------------
+    // Recording
+    // ----------------------------------------------------
+
+    public void fillRect(Color color, int x, int y, int width, int height) {
+        beginCommand(FILL_RECT, color, x, y, width, height, 0);
+        addInts(x, y, width, height);
+        endCommand();
+    }
+
+    public void drawRect(Color color, float thickness, int x, int y, int width, int height) {
+        beginCommand(DRAW_RECT, color, x, y, width, height, thickness);
+        addInts(x, y, width, height);
+        addFloat(thickness);
+        endCommand();
+    }
+
+    public void fillOval(Color color, int x, int y, int width, int height) {
+        beginCommand(FILL_OVAL, color, x, y, width, height, 0);
+        addInts(x, y, width, height);
+        endCommand();
+    }
+
+    public void drawOval(Color color, float thickness, int x, int y, int width, int height) {
+        beginCommand(DRAW_OVAL, color, x, y, width, height, thickness);
+        addInts(x, y, width, height);
+        addFloat(thickness);
+        endCommand();
+    }
+
+    public void drawLine(Color color, float thickness, int x1, int y1, int x2, int y2) {
+        beginCommand(DRAW_LINE, color, Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1), thickness);
+        addInts(x1, y1, x2, y2);
+        addFloat(thickness);
+        endCommand();
+    }
+
+    public void fillTriangle(Color color, int x1, int y1, int x2, int y2, int x3, int y3) {
+        beginTriangle(FILL_TRIANGLE, color, x1, y1, x2, y2, x3, y3, 0);
+        endCommand();
+    }
+
+    public void drawTriangle(Color color, float thickness, int x1, int y1, int x2, int y2, int x3, int y3) {
+        beginTriangle(DRAW_TRIANGLE, color, x1, y1, x2, y2, x3, y3, thickness);
+        addFloat(thickness);
+        endCommand();
+    }
+
+    /**
+     * Records some text. The metrics are only used to figure out how much
+     * space the text takes up.
+     */
+    public void drawText(Color color, Font font, FontMetrics metrics, String text, int x, int y) {
+        int ascent = metrics.getMaxAscent();
+        beginCommand(DRAW_TEXT, color, x, y - ascent, metrics.stringWidth(text), ascent + metrics.getMaxDescent(), 0);
+        addInts(x, y, 0, 0);
+        addRef(font);
+        addRef(text);
+        endCommand();
+    }
+
+    /**
+     * Records part of an image: the width by height area starting at
+     * (sourceX, sourceY) in the image, drawn with its top left at (x, y).
+     */
+    public void drawImage(Image image, int sourceX, int sourceY, int width, int height, int x, int y) {
+        drawImage(image, sourceX, sourceY, width, height, x, y, 0);
+    }
+
+    /**
+     * Records part of an image, like the other drawImage, for an image whose
+     * pixels change over time. Pass a different version number whenever they
+     * change, so {@link #findChanges} knows it has to be drawn again.
+     */
+    public void drawImage(Image image, int sourceX, int sourceY, int width, int height, int x, int y, int version) {
+        beginCommand(DRAW_IMAGE, Color.WHITE, x, y, width, height, 0); // images don't have a color
+        addInts(x, y, width, height);
+        addInts(sourceX, sourceY, version, 0);
+        addRef(image);
+        endCommand();
+    }
+
+    void beginTriangle(int type, Color color, int x1, int y1, int x2, int y2, int x3, int y3, float thickness) {
+        int minX = Math.min(x1, Math.min(x2, x3));
+        int minY = Math.min(y1, Math.min(y2, y3));
+        int maxX = Math.max(x1, Math.max(x2, x3));
+        int maxY = Math.max(y1, Math.max(y2, y3));
+        beginCommand(type, color, minX, minY, maxX - minX, maxY - minY, thickness * 10); // room for sharp corners
+        addInts(x1, y1, x2, y2);
+        addInts(x3, y3, 0, 0);
+    }
+
+    void beginCommand(int type, Color color, int x, int y, int width, int height, float thickness) {
+        if (commandCount + 2 > intStart.length) {
+            int newLength = intStart.length * 2;
+            intStart = Arrays.copyOf(intStart, newLength);
+            floatStart = Arrays.copyOf(floatStart, newLength);
+            refStart = Arrays.copyOf(refStart, newLength);
+        }
+        if (commandCount * 4 + 4 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+
+        intStart[commandCount] = intCount;
+        floatStart[commandCount] = floatCount;
+        refStart[commandCount] = refCount;
+
+        // Grow the area a little for thick lines and antialiasing, just like
+        // the drawing functions do for dirty rectangles.
+        int padding = (int) (thickness / 2) + 2;
+        int b = commandCount * 4;
+        bounds[b] = x - padding;
+        bounds[b + 1] = y - padding;
+        bounds[b + 2] = width + padding * 2;
+        bounds[b + 3] = height + padding * 2;
+
+        if (intCount + 2 > ints.length) {
+            ints = Arrays.copyOf(ints, ints.length * 2);
+        }
+        ints[intCount++] = type;
+        ints[intCount++] = color.getRGB();
+        addRef(color);
+    }
+
+    void endCommand() {
+        commandCount++;
+        intStart[commandCount] = intCount;
+        floatStart[commandCount] = floatCount;
+        refStart[commandCount] = refCount;
+    }
+
+    void addInts(int a, int b, int c, int d) {
+        if (intCount + 4 > ints.length) {
+            ints = Arrays.copyOf(ints, ints.length * 2);
+        }
+        ints[intCount++] = a;
+        ints[intCount++] = b;
+        ints[intCount++] = c;
+        ints[intCount++] = d;
+    }
+
+    void addFloat(float f) {
+        if (floatCount + 1 > floats.length) {
+            floats = Arrays.copyOf(floats, floats.length * 2);
+        }
+        floats[floatCount++] = f;
+    }
+
+    void addRef(Object o) {
+        if (refCount + 1 > refs.length) {
+            refs = Arrays.copyOf(refs, refs.length * 2);
+        }
+        refs[refCount++] = o;
+    }
+
+    // ----------------------------------------------------
+    // Replaying
+    // ----------------------------------------------------
+
+    /**
+     * Draws every recorded command onto the given graphics object.
+     */
+    public void replay(Graphics2D g) {
+        replay(g, 0, commandCount);
+    }
+
+    /**
+     * Draws the commands from start up to (but not including) end.
+     */
+    public void replay(Graphics2D g, int start, int end) {
+        GraphicsState state = stateFor(g);
+        for (int i = start; i < end; i++) {
+            replayCommand(state, i);
+        }
+    }
+
+    /**
+     * Draws every recorded command, but first groups together commands that
+     * use the same color, stroke, and font so they can be drawn without
+     * changing settings in between. Commands only get moved earlier if they
+     * don't overlap anything they are moved past, so the picture comes out
+     * the same as drawing them in order.
+     */
+    public void replaySorted(GraphicsState state) {
+        int count = sortIntoBatches();
+        for (int k = 0; k < count; k++) {
+            replayCommand(state, order[k]);
+        }
+    }
+
+    /**
+     * Fills in order with the command indexes, grouped into batches. Returns
+     * the number of commands.
+     */
+    int sortIntoBatches() {
+        if (order.length < commandCount) {
+            int newLength = Math.max(commandCount, order.length * 2);
+            order = new int[newLength];
+            nextInBatch = new int[newLength];
+            batchFirst = new int[newLength];
+            batchLast = new int[newLength];
+            batchBounds = new int[newLength * 4];
+        }
+
+        int batchCount = 0;
+        for (int i = 0; i < commandCount; i++) {
+            nextInBatch[i] = -1;
+
+            // Look back through the batches for one we can join. We can't
+            // move past a batch that overlaps us, because that would change
+            // what ends up on top.
+            int joined = -1;
+            int stop = Math.max(0, batchCount - maxBatchLookback);
+            for (int k = batchCount - 1; k >= stop; k--) {
+                if (sameState(i, batchFirst[k])) {
+                    joined = k;
+                    break;
+                }
+                if (boundsOverlap(i, batchBounds, k)) {
+                    break;
+                }
+            }
+
+            int b = i * 4;
+            if (joined >= 0) {
+                nextInBatch[batchLast[joined]] = i;
+                batchLast[joined] = i;
+                int jb = joined * 4;
+                int right = Math.max(batchBounds[jb] + batchBounds[jb + 2], bounds[b] + bounds[b + 2]);
+                int bottom = Math.max(batchBounds[jb + 1] + batchBounds[jb + 3], bounds[b + 1] + bounds[b + 3]);
+                batchBounds[jb] = Math.min(batchBounds[jb], bounds[b]);
+                batchBounds[jb + 1] = Math.min(batchBounds[jb + 1], bounds[b + 1]);
+                batchBounds[jb + 2] = right - batchBounds[jb];
+                batchBounds[jb + 3] = bottom - batchBounds[jb + 1];
+            } else {
+                batchFirst[batchCount] = i;
+                batchLast[batchCount] = i;
+                System.arraycopy(bounds, b, batchBounds, batchCount * 4, 4);
+                batchCount++;
+            }
+        }
+
+        int n = 0;
+        for (int k = 0; k < batchCount; k++) {
+            for (int i = batchFirst[k]; i != -1; i = nextInBatch[i]) {
+                order[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns true if commands i and j need the same color, stroke, and font.
+     */
+    boolean sameState(int i, int j) {
+        if (ints[intStart[i] + 1] != ints[intStart[j] + 1]) {
+            return false; // different colors
+        }
+        if ((ints[intStart[i]] == DRAW_IMAGE) != (ints[intStart[j]] == DRAW_IMAGE)) {
+            return false; // images only go with other images
+        }
+        if (thicknessOf(i) != thicknessOf(j)) {
+            return false;
+        }
+        Object fontI = ints[intStart[i]] == DRAW_TEXT ? refs[refStart[i] + 1] : null;
+        Object fontJ = ints[intStart[j]] == DRAW_TEXT ? refs[refStart[j] + 1] : null;
+        return fontI == fontJ || (fontI != null && fontI.equals(fontJ));
+    }
+
+    float thicknessOf(int i) {
+        return floatStart[i + 1] > floatStart[i] ? floats[floatStart[i]] : 0;
+    }
+
+    boolean boundsOverlap(int i, int[] otherBounds, int k) {
+        int b = i * 4;
+        int o = k * 4;
+        return bounds[b] < otherBounds[o] + otherBounds[o + 2] && otherBounds[o] < bounds[b] + bounds[b + 2]
+            && bounds[b + 1] < otherBounds[o + 1] + otherBounds[o + 3] && otherBounds[o + 1] < bounds[b + 1] + bounds[b + 3];
+    }
+
+    GraphicsState stateFor(Graphics2D g) {
+        if (replayState == null || replayState.getGraphics() != g) {
+            replayState = new GraphicsState(g);
+        }
+        return replayState;
+    }
+
+    /**
+     * Draws only the commands that touch the given area.
+     */
+    public void replayIntersecting(Graphics2D g, int x, int y, int width, int height) {
+        GraphicsState state = stateFor(g);
+        for (int i = 0; i < commandCount; i++) {
+            if (intersects(i, x, y, width, height)) {
+                replayCommand(state, i);
+            }
+        }
+    }
+
+    void replayCommand(GraphicsState state, int i) {
+        Graphics2D g = state.getGraphics();
+        int n = intStart[i];
+        int type = ints[n];
+        int r = refStart[i];
+
+        if (type != DRAW_IMAGE) {
+            state.setColor((Color) refs[r]);
+        }
+
+        switch (type) {
+            case FILL_RECT:
+                g.fillRect(ints[n + 2], ints[n + 3], ints[n + 4], ints[n + 5]);
+                break;
+            case DRAW_RECT:
+                state.setStroke(floats[floatStart[i]]);
+                g.drawRect(ints[n + 2], ints[n + 3], ints[n + 4], ints[n + 5]);
+                break;
+            case FILL_OVAL:
+                g.fillOval(ints[n + 2], ints[n + 3], ints[n + 4], ints[n + 5]);
+                break;
+            case DRAW_OVAL:
+                state.setStroke(floats[floatStart[i]]);
+                g.drawOval(ints[n + 2], ints[n + 3], ints[n + 4], ints[n + 5]);
+                break;
+            case DRAW_LINE:
+                state.setStroke(floats[floatStart[i]]);
+                g.drawLine(ints[n + 2], ints[n + 3], ints[n + 4], ints[n + 5]);
+                break;
+            case FILL_TRIANGLE:
+            case DRAW_TRIANGLE:
+                triangleXs[0] = ints[n + 2];
+                triangleYs[0] = ints[n + 3];
+                triangleXs[1] = ints[n + 4];
+                triangleYs[1] = ints[n + 5];
+                triangleXs[2] = ints[n + 6];
+                triangleYs[2] = ints[n + 7];
+                if (type == FILL_TRIANGLE) {
+                    g.fillPolygon(triangleXs, triangleYs, 3);
+                } else {
+                    state.setStroke(floats[floatStart[i]]);
+                    g.drawPolygon(triangleXs, triangleYs, 3);
+                }
+                break;
+            case DRAW_TEXT:
+                state.setFont((Font) refs[r + 1]);
+                g.drawString((String) refs[r + 2], ints[n + 2], ints[n + 3]);
+                break;
+            case DRAW_IMAGE: {
+                int x = ints[n + 2], y = ints[n + 3];
+                int sourceX = ints[n + 6], sourceY = ints[n + 7];
+                int width = ints[n + 4], height = ints[n + 5];
+                g.drawImage((Image) refs[r + 1], x, y, x + width, y + height, sourceX, sourceY, sourceX + width, sourceY + height, null);
+                break;
+            }
+        }
+
+        int b = i * 4;
+        GraphicsCanvas.markDirty(g, bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+    }
+
+    // ----------------------------------------------------
+    // Comparing frames
+    // ----------------------------------------------------
+
+    /**
+     * Returns true if command i in this list would draw exactly the same thing
+     * as command j in the other list.
+     */
+    public boolean sameCommand(int i, DisplayList other, int j) {
+        int intLength = intStart[i + 1] - intStart[i];
+        int floatLength = floatStart[i + 1] - floatStart[i];
+        int refLength = refStart[i + 1] - refStart[i];
+        if (intLength != other.intStart[j + 1] - other.intStart[j]
+                || floatLength != other.floatStart[j + 1] - other.floatStart[j]
+                || refLength != other.refStart[j + 1] - other.refStart[j]) {
+            return false;
+        }
+
+        if (!Arrays.equals(ints, intStart[i], intStart[i + 1], other.ints, other.intStart[j], other.intStart[j + 1])) {
+            return false;
+        }
+        if (!Arrays.equals(floats, floatStart[i], floatStart[i + 1], other.floats, other.floatStart[j], other.floatStart[j + 1])) {
+            return false;
+        }
+        // The color is already compared as a number, so skip its ref.
+        for (int k = 1; k < refLength; k++) {
+            Object a = refs[refStart[i] + k];
+            Object b = other.refs[other.refStart[j] + k];
+            if (a != b && !a.equals(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if this list would draw exactly the same thing as the other one.
+     */
+    public boolean contentEquals(DisplayList other) {
+        return commandCount == other.commandCount && countSameAtStart(other) == commandCount;
+    }
+
+    /**
+     * Counts how many commands at the start of this list are the same as in the other.
+     */
+    public int countSameAtStart(DisplayList other) {
+        int max = Math.min(commandCount, other.commandCount);
+        int i = 0;
+        while (i < max && sameCommand(i, other, i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Counts how many commands at the end of this list are the same as in the
+     * other, not counting the first skip commands.
+     */
+    public int countSameAtEnd(DisplayList other, int skip) {
+        int max = Math.min(commandCount, other.commandCount) - skip;
+        int i = 0;
+        while (i < max && sameCommand(commandCount - 1 - i, other, other.commandCount - 1 - i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Adds the areas of every command that differs between this list and the
+     * other one to the given regions. Commands that are the same at the start
+     * and end of both lists are skipped; everything in between counts as changed.
+     * Returns false if nothing changed at all.
+     */
+    public boolean findChanges(DisplayList previous, DirtyRegions changed) {
+        int same = countSameAtStart(previous);
+        if (same == commandCount && same == previous.commandCount) {
+            return false;
+        }
+        int sameAtEnd = countSameAtEnd(previous, same);
+
+        for (int i = same; i < commandCount - sameAtEnd; i++) {
+            changed.add(bounds[i * 4], bounds[i * 4 + 1], bounds[i * 4 + 2], bounds[i * 4 + 3]);
+        }
+        for (int i = same; i < previous.commandCount - sameAtEnd; i++) {
+            changed.add(previous.bounds[i * 4], previous.bounds[i * 4 + 1], previous.bounds[i * 4 + 2], previous.bounds[i * 4 + 3]);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if command i draws anywhere in the given area.
+     */
+    boolean intersects(int i, int x, int y, int width, int height) {
+        int b = i * 4;
+        return bounds[b] < x + width && x < bounds[b] + bounds[b + 2]
+            && bounds[b + 1] < y + height && y < bounds[b + 1] + bounds[b + 3];
+    }
+
+    /**
+     * Gets the area that command i draws in, as a {@link Rectangle}.
+     */
+    public Rectangle getBounds(int i) {
+        int b = i * 4;
+        return new Rectangle(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+    }
+}
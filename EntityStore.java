@@ -0,0 +1,537 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An EntityStore keeps track of lots of things moving around on screen (the
+ * "entities"), like bullets, particles, or enemies. Each entity has a
+ * position, a velocity, a size, and a color.
+ *
+ * Instead of one object per entity, every value is kept in its own array:
+ * all the x positions together, all the y positions together, and so on.
+ * Entities are packed at the front of the arrays with no gaps, so looping
+ * over all of them is as fast as it can be, and the loops can be split up
+ * across all your cores with {@link #runInParallel}.
+ *
+ * When you create an entity you get back an id. Ids stay the same even when
+ * other entities are removed, and removed ids get reused.
+ *
+ * <pre>
+ * EntityStore entities = new EntityStore();
+ * int id = entities.create(100, 100, 10, 10, Color.RED);
+ * entities.setVelocity(id, 50, 0); // 50 pixels per second to the right
+ * while (true) {
+ *     entities.move(1 / 60.0f);
+ *     entities.draw(g);
+ * }
+ * </pre>
+ */
+public class EntityStore {
+    /**
+     * Something that updates a range of entities. The range is by position
+     * in the packed arrays (from start up to but not including end), not by
+     * id. See {@link #runInParallel}.
+     */
+    public interface EntitySystem {
+        void update(EntityStore store, int start, int end);
+    }
+
+    // The entities, packed with no gaps. Entity number i (not id!) is at index i.
+    float[] xs, ys;
+    float[] velocityXs, velocityYs;
+    int[] widths, heights;
+    Color[] colors;
+    int[] ids; // the id of the entity at each index
+    int size = 0;
+
+    // Where each id's entity is in the packed arrays, or -1 if the id isn't in use.
+    int[] indexes;
+    int[] freeIds = new int[16];
+    int freeCount = 0;
+    int idCount = 0;
+
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * How many entities each task handles when running in parallel. Smaller
+     * chunks share the work more evenly, but each one has some overhead.
+     */
+    public int chunkSize = 4096;
+
+    // Scratch space for findCollisions. Each strip's entities are together in
+    // the sweep arrays, starting at sweepStarts[strip].
+    long[] sweepOrder = new long[0];
+    float[] sweepLefts, sweepRights, sweepTops, sweepBottoms;
+    int[] sweepStarts = new int[0];
+    int[] sweepFill = new int[0];
+    IntList[] sweepResults = new IntList[0];
+    float sweepMinY, sweepStripHeight;
+    int sweepStripCount;
+
+    public EntityStore() {
+        this(64);
+    }
+
+    public EntityStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        xs = new float[capacity];
+        ys = new float[capacity];
+        velocityXs = new float[capacity];
+        velocityYs = new float[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        colors = new Color[capacity];
+        ids = new int[capacity];
+        indexes = new int[capacity];
+    }
+
+    /**
+     * Makes a new entity that isn't moving, and returns its id.
+     */
+    public int create(float x, float y, int width, int height, Color color) {
+        if (size == xs.length) {
+            int newLength = xs.length * 2;
+            xs = Arrays.copyOf(xs, newLength);
+            ys = Arrays.copyOf(ys, newLength);
+            velocityXs = Arrays.copyOf(velocityXs, newLength);
+            velocityYs = Arrays.copyOf(velocityYs, newLength);
+            widths = Arrays.copyOf(widths, newLength);
+            heights = Arrays.copyOf(heights, newLength);
+            colors = Arrays.copyOf(colors, newLength);
+            ids = Arrays.copyOf(ids, newLength);
+        }
+
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = idCount++;
+            if (id == indexes.length) {
+                indexes = Arrays.copyOf(indexes, indexes.length * 2);
+            }
+        }
+
+        int i = size++;
+        xs[i] = x;
+        ys[i] = y;
+        velocityXs[i] = 0;
+        velocityYs[i] = 0;
+        widths[i] = width;
+        heights[i] = height;
+        colors[i] = color;
+        ids[i] = id;
+        indexes[id] = i;
+        return id;
+    }
+
+    /**
+     * Removes the entity with the given id. The last entity gets moved into
+     * its place, so the arrays stay packed.
+     */
+    public void remove(int id) {
+        int i = indexOf(id);
+        int last = --size;
+        if (i != last) {
+            xs[i] = xs[last];
+            ys[i] = ys[last];
+            velocityXs[i] = velocityXs[last];
+            velocityYs[i] = velocityYs[last];
+            widths[i] = widths[last];
+            heights[i] = heights[last];
+            colors[i] = colors[last];
+            ids[i] = ids[last];
+            indexes[ids[i]] = i;
+        }
+        colors[last] = null; // don't hang on to it
+        indexes[id] = -1;
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Removes every entity.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            indexes[ids[i]] = -1;
+            colors[i] = null;
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+            }
+            freeIds[freeCount++] = ids[i];
+        }
+        size = 0;
+    }
+
+    int indexOf(int id) {
+        if (id < 0 || id >= idCount || indexes[id] < 0) {
+            throw new IllegalArgumentException("There is no entity with id " + id);
+        }
+        return indexes[id];
+    }
+
+    /**
+     * Returns true if there is an entity with the given id.
+     */
+    public boolean exists(int id) {
+        return id >= 0 && id < idCount && indexes[id] >= 0;
+    }
+
+    /**
+     * Gets the number of entities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the id of the entity at the given index in the packed arrays.
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public float getX(int id) {
+        return xs[indexOf(id)];
+    }
+
+    public float getY(int id) {
+        return ys[indexOf(id)];
+    }
+
+    public void setPosition(int id, float x, float y) {
+        int i = indexOf(id);
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    public float getVelocityX(int id) {
+        return velocityXs[indexOf(id)];
+    }
+
+    public float getVelocityY(int id) {
+        return velocityYs[indexOf(id)];
+    }
+
+    /**
+     * Sets how fast the entity moves, in pixels per second.
+     */
+    public void setVelocity(int id, float velocityX, float velocityY) {
+        int i = indexOf(id);
+        velocityXs[i] = velocityX;
+        velocityYs[i] = velocityY;
+    }
+
+    public int getWidth(int id) {
+        return widths[indexOf(id)];
+    }
+
+    public int getHeight(int id) {
+        return heights[indexOf(id)];
+    }
+
+    public void setSize(int id, int width, int height) {
+        int i = indexOf(id);
+        widths[i] = width;
+        heights[i] = height;
+    }
+
+    public Color getColor(int id) {
+        return colors[indexOf(id)];
+    }
+
+    public void setColor(int id, Color color) {
+        colors[indexOf(id)] = color;
+    }
+
+    // ----------------------------------------------------
+    // Systems
+    // ----------------------------------------------------
+
+    /**
+     * Runs a system over every entity, split into chunks that run on
+     * different cores at the same time. The system must only change the
+     * entities in the range it's given, and must not create or remove
+     * entities.
+     */
+    public void runInParallel(EntitySystem system) {
+        if (size <= chunkSize) {
+            system.update(this, 0, size); // not worth splitting up
+            return;
+        }
+        pool.invoke(new Chunk(system, 0, size));
+    }
+
+    class Chunk extends RecursiveAction {
+        final EntitySystem system;
+        final int start, end;
+
+        Chunk(EntitySystem system, int start, int end) {
+            this.system = system;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= chunkSize) {
+                system.update(EntityStore.this, start, end);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new Chunk(system, start, middle), new Chunk(system, middle, end));
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Moves every entity by its velocity times the given number of seconds,
+     * in parallel.
+     */
+    public void move(float seconds) {
+        runInParallel((store, start, end) -> {
+            float[] xs = store.xs, ys = store.ys, velocityXs = store.velocityXs, velocityYs = store.velocityYs;
+            for (int i = start; i < end; i++) {
+                xs[i] += velocityXs[i] * seconds;
+                ys[i] += velocityYs[i] * seconds;
+            }
+        });
+    }
+
+    /**
+     * Makes every entity that has gone past an edge of the given area bounce
+     * back inside it, in parallel.
+     */
+    public void bounceInside(int left, int top, int right, int bottom) {
+        runInParallel((store, start, end) -> {
+            for (int i = start; i < end; i++) {
+                if (xs[i] < left) {
+                    xs[i] = left;
+                    velocityXs[i] = Math.abs(velocityXs[i]);
+                } else if (xs[i] + widths[i] > right) {
+                    xs[i] = right - widths[i];
+                    velocityXs[i] = -Math.abs(velocityXs[i]);
+                }
+                if (ys[i] < top) {
+                    ys[i] = top;
+                    velocityYs[i] = Math.abs(velocityYs[i]);
+                } else if (ys[i] + heights[i] > bottom) {
+                    ys[i] = bottom - heights[i];
+                    velocityYs[i] = -Math.abs(velocityYs[i]);
+                }
+            }
+        });
+    }
+
+    // ----------------------------------------------------
+    // Collision and drawing
+    // ----------------------------------------------------
+
+    /**
+     * Finds every pair of entities that overlap, the same way
+     * {@link Rectangle#checkOverlap} does (touching edges don't count). Each
+     * pair is added to results as two ids in a row.
+     *
+     * Works by cutting the area into horizontal strips, and putting each
+     * entity in every strip it touches. Within a strip, the entities are
+     * sorted by their left edge, and each one is only compared with the ones
+     * that start before it ends. The strips don't depend on each other, so
+     * they're swept on different cores at the same time.
+     */
+    public void findCollisions(IntList results) {
+        if (size < 2) {
+            return;
+        }
+
+        // Make the strips about twice as tall as an average entity, so most
+        // entities only land in one strip, but never so many strips that
+        // they'd be mostly empty.
+        float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        long totalHeight = 0;
+        for (int i = 0; i < size; i++) {
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i] + heights[i]);
+            totalHeight += heights[i];
+        }
+        float stripHeight = Math.max(2f * totalHeight / size, 1);
+        int strips = (int) Math.min((maxY - minY) / stripHeight + 1, Math.max(size / 8, 1));
+        stripHeight = Math.max((maxY - minY) / strips, Float.MIN_NORMAL);
+        sweepMinY = minY;
+        sweepStripHeight = stripHeight;
+        sweepStripCount = strips;
+
+        // Count how many entities go in each strip, then work out where each
+        // strip's entities start.
+        if (sweepStarts.length < strips + 1) {
+            sweepStarts = new int[strips + 1];
+            sweepFill = new int[strips];
+            IntList[] grown = Arrays.copyOf(sweepResults, strips);
+            for (int s = sweepResults.length; s < strips; s++) {
+                grown[s] = new IntList();
+            }
+            sweepResults = grown;
+        }
+        Arrays.fill(sweepStarts, 0, strips + 1, 0);
+        for (int i = 0; i < size; i++) {
+            int first = strip(ys[i]);
+            int last = strip(ys[i] + heights[i]);
+            for (int s = first; s <= last; s++) {
+                sweepStarts[s + 1]++;
+            }
+        }
+        for (int s = 0; s < strips; s++) {
+            sweepStarts[s + 1] += sweepStarts[s];
+        }
+        int entries = sweepStarts[strips];
+        if (sweepOrder.length < entries) {
+            int newLength = Math.max(entries, sweepOrder.length * 2);
+            sweepOrder = new long[newLength];
+            sweepLefts = new float[newLength];
+            sweepRights = new float[newLength];
+            sweepTops = new float[newLength];
+            sweepBottoms = new float[newLength];
+        }
+
+        // Pack each entity's left edge and index into one number, so sorting
+        // the numbers sorts the entities without needing any objects.
+        System.arraycopy(sweepStarts, 0, sweepFill, 0, strips);
+        for (int i = 0; i < size; i++) {
+            long packed = ((long) sortableBits(xs[i]) << 32) | i;
+            int first = strip(ys[i]);
+            int last = strip(ys[i] + heights[i]);
+            for (int s = first; s <= last; s++) {
+                sweepOrder[sweepFill[s]++] = packed;
+            }
+        }
+
+        if (entries <= chunkSize) {
+            sweepStrips(0, strips);
+        } else {
+            pool.invoke(new StripChunk(0, strips));
+        }
+
+        // Put the strips' results together in order, so the answer is the
+        // same no matter how the work got split up.
+        for (int s = 0; s < strips; s++) {
+            IntList pairs = sweepResults[s];
+            for (int k = 0; k < pairs.size(); k++) {
+                results.add(pairs.get(k));
+            }
+        }
+    }
+
+    /**
+     * Gets the strip a y position falls in, during findCollisions.
+     */
+    int strip(float y) {
+        int s = (int) ((y - sweepMinY) / sweepStripHeight);
+        return Math.max(0, Math.min(sweepStripCount - 1, s));
+    }
+
+    /**
+     * Sorts and sweeps strips from firstStrip up to but not including
+     * endStrip. Each strip only touches its own part of the scratch arrays
+     * and its own results, so different strips can be done at the same time.
+     */
+    void sweepStrips(int firstStrip, int endStrip) {
+        for (int s = firstStrip; s < endStrip; s++) {
+            IntList pairs = sweepResults[s];
+            pairs.clear();
+            int start = sweepStarts[s];
+            int end = sweepStarts[s + 1];
+            Arrays.sort(sweepOrder, start, end);
+
+            // Copy the edges out in sorted order, so the loop below reads
+            // memory straight through instead of jumping all over the place.
+            for (int k = start; k < end; k++) {
+                int i = (int) sweepOrder[k];
+                sweepLefts[k] = xs[i];
+                sweepRights[k] = xs[i] + widths[i];
+                sweepTops[k] = ys[i];
+                sweepBottoms[k] = ys[i] + heights[i];
+            }
+
+            for (int a = start; a < end; a++) {
+                float left = sweepLefts[a], right = sweepRights[a];
+                float top = sweepTops[a], bottom = sweepBottoms[a];
+                for (int b = a + 1; b < end && sweepLefts[b] < right; b++) {
+                    // Everything after b starts even further right, so once one
+                    // starts past our right edge we can stop.
+                    if (left < sweepRights[b] && sweepTops[b] < bottom && top < sweepBottoms[b]
+                            && strip(Math.max(top, sweepTops[b])) == s) {
+                        // A pair that shares more than one strip is only
+                        // counted in the strip where their overlap starts.
+                        pairs.add(ids[(int) sweepOrder[a]]);
+                        pairs.add(ids[(int) sweepOrder[b]]);
+                    }
+                }
+            }
+        }
+    }
+
+    class StripChunk extends RecursiveAction {
+        final int firstStrip, endStrip;
+
+        StripChunk(int firstStrip, int endStrip) {
+            this.firstStrip = firstStrip;
+            this.endStrip = endStrip;
+        }
+
+        @Override
+        protected void compute() {
+            if (endStrip - firstStrip == 1 || sweepStarts[endStrip] - sweepStarts[firstStrip] <= chunkSize) {
+                sweepStrips(firstStrip, endStrip);
+                return;
+            }
+            int middle = (firstStrip + endStrip) >>> 1;
+            invokeAll(new StripChunk(firstStrip, middle), new StripChunk(middle, endStrip));
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Turns a float into an int that sorts in the same order.
+     */
+    static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    /**
+     * Copies every entity's bounds (rounded down to whole pixels) into the
+     * given buffer, in packed order, replacing whatever was in it. Handy for
+     * checking them all against something with {@link RectangleBuffer#checkOverlap}.
+     */
+    public void copyBoundsTo(RectangleBuffer buffer) {
+        buffer.clear();
+        for (int i = 0; i < size; i++) {
+            buffer.add((int) Math.floor(xs[i]), (int) Math.floor(ys[i]), widths[i], heights[i]);
+        }
+    }
+
+    /**
+     * Draws every entity as a filled rectangle, the same way
+     * {@link GraphicsExample#drawRectangle} would, but without making a
+     * {@link Rectangle} for each one.
+     */
+    public void draw(Graphics2D g) {
+        DisplayList recording = GraphicsCanvas.getRecording(g);
+        for (int i = 0; i < size; i++) {
+            int x = (int) Math.floor(xs[i]);
+            int y = (int) Math.floor(ys[i]);
+            if (recording != null) {
+                recording.fillRect(colors[i], x, y, widths[i], heights[i]);
+            } else {
+                GraphicsState.applyColor(g, colors[i]);
+                g.fillRect(x, y, widths[i], heights[i]);
+                GraphicsExample.markDirty(g, x, y, widths[i], heights[i], 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * A FrameClient connects to a {@link FrameServer} and rebuilds its frames, so
+ * another program (like a test) can look at what the canvas is showing.
+ *
+ * <pre>
+ * FrameClient client = new FrameClient(5000);
+ * while (client.readFrame()) {
+ *     BufferedImage frame = client.getImage();
+ *     // look at the frame
+ * }
+ * </pre>
+ *
+ * It can also be run by itself, to see how fast frames are coming in:
+ *
+ * <pre>
+ * java FrameClient 5000 10 last.png
+ * </pre>
+ *
+ * connects to port 5000, prints how many frames, bytes, and how much delay
+ * it got every second for 10 seconds, then saves the last frame it got to
+ * last.png (the last two are optional).
+ *
+ * The delay is measured with System.nanoTime, which lines up between
+ * programs on the same computer on the usual operating systems, but Java
+ * doesn't promise that.
+ */
+public class FrameClient implements Closeable {
+    SocketChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    int width, height;
+    int[] pixels;
+    BufferedImage image;
+
+    long frameNumber = -1;
+    long lastLatencyNanos = 0;
+    long totalLatencyNanos = 0;
+    long framesReceived = 0;
+    long keyframesReceived = 0;
+    long framesMissed = 0;
+    long bytesReceived = 0;
+
+    /**
+     * Connects to a {@link FrameServer} on this computer.
+     */
+    public FrameClient(int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Waits for the next frame and puts it together. Returns false if the
+     * server went away.
+     */
+    public boolean readFrame() throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Can't read a frame after the client has been closed!");
+        }
+        buffer.clear().limit(4);
+        if (!readFully()) {
+            return false;
+        }
+        int length = buffer.getInt(0);
+        if (length < FrameServer.HEADER_BYTES - 4) {
+            throw new IOException("Got a frame that's too small to be real (" + length + " bytes)");
+        }
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear().limit(length);
+        if (!readFully()) {
+            throw new EOFException("The server went away in the middle of a frame");
+        }
+        buffer.flip();
+        bytesReceived += 4 + length;
+
+        byte type = buffer.get();
+        long number = buffer.getLong();
+        long sentTime = buffer.getLong();
+        int frameWidth = buffer.getInt();
+        int frameHeight = buffer.getInt();
+        int tileSize = buffer.getInt();
+        int tiles = buffer.getInt();
+
+        if (type == FrameServer.KEYFRAME) {
+            if (pixels == null || frameWidth != width || frameHeight != height) {
+                makeImage(frameWidth, frameHeight);
+            }
+            Arrays.fill(pixels, 0); // a keyframe's pixels are XORed with black, which leaves them as they are
+            keyframesReceived++;
+        } else if (type != FrameServer.DELTA) {
+            throw new IOException("Got a frame of an unknown type (" + type + ")");
+        } else if (pixels == null || frameWidth != width || frameHeight != height) {
+            throw new IOException("Got the changes to a frame we don't have");
+        }
+
+        for (int i = 0; i < tiles; i++) {
+            int x0 = buffer.getShort() * tileSize;
+            int y0 = buffer.getShort() * tileSize;
+            int runs = buffer.getShort();
+            int x1 = Math.min(x0 + tileSize, width);
+            int x = x0;
+            int y = y0;
+            for (int r = 0; r < runs; r++) {
+                int count = buffer.getShort();
+                int value = buffer.getInt();
+                for (int p = 0; p < count; p++) {
+                    pixels[y * width + x] ^= value;
+                    if (++x == x1) {
+                        x = x0;
+                        y++;
+                    }
+                }
+            }
+        }
+
+        if (frameNumber >= 0 && number > frameNumber + 1) {
+            framesMissed += number - frameNumber - 1;
+        }
+        frameNumber = number;
+        lastLatencyNanos = System.nanoTime() - sentTime;
+        totalLatencyNanos += lastLatencyNanos;
+        framesReceived++;
+        return true;
+    }
+
+    /**
+     * Reads until the buffer is full. Returns false if the server closed the
+     * connection before sending anything.
+     */
+    boolean readFully() throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("The server went away in the middle of a frame");
+            }
+        }
+        return true;
+    }
+
+    void makeImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        pixels = new int[width * height];
+
+        // The image uses our pixel array directly, so it's always up to date.
+        DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        DataBufferInt data = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(data, width, height, width, colorModel.getMasks(), null);
+        image = new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Gets the last frame that was read. It's the same image every time, and
+     * it changes when the next frame is read, so copy it if you want to keep
+     * it. Returns null until the first frame has been read.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Gets the server's number for the last frame that was read.
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Gets the number of whole frames received. There's one at the start, and
+     * one more every time we fell behind.
+     */
+    public long getKeyframesReceived() {
+        return keyframesReceived;
+    }
+
+    /**
+     * Gets the number of frames the server skipped because we weren't
+     * keeping up.
+     */
+    public long getFramesMissed() {
+        return framesMissed;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Gets how long the last frame took from being sent to being put
+     * together, in seconds.
+     */
+    public double getLastLatencySeconds() {
+        return lastLatencyNanos / 1e9;
+    }
+
+    /**
+     * Gets the average time from a frame being sent to being put together, in
+     * seconds.
+     */
+    public double getAverageLatencySeconds() {
+        return framesReceived == 0 ? 0 : totalLatencyNanos / 1e9 / framesReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java FrameClient <port> [seconds] [last-frame.png]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+
+        try (FrameClient client = new FrameClient(port)) {
+            long start = System.nanoTime();
+            long end = start + (long) (seconds * 1e9);
+            long nextReport = start + 1_000_000_000L;
+            long lastFrames = 0, lastBytes = 0, lastLatency = 0;
+            while (System.nanoTime() < end && client.readFrame()) {
+                long now = System.nanoTime();
+                if (now >= nextReport) {
+                    long frames = client.framesReceived - lastFrames;
+                    System.out.printf("%d frames/s  %.1f KB/s  %.2f ms delay  %d keyframes  %d missed%n",
+                        frames, (client.bytesReceived - lastBytes) / 1024.0,
+                        frames == 0 ? 0 : (client.totalLatencyNanos - lastLatency) / 1e6 / frames,
+                        client.keyframesReceived, client.framesMissed);
+                    lastFrames = client.framesReceived;
+                    lastBytes = client.bytesReceived;
+                    lastLatency = client.totalLatencyNanos;
+                    nextReport += 1_000_000_000L;
+                }
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Got %d frames in %.1f seconds, %.1f KB each on average, %.2f ms average delay%n",
+                client.framesReceived, elapsed,
+                client.framesReceived == 0 ? 0 : client.bytesReceived / 1024.0 / client.framesReceived,
+                client.getAverageLatencySeconds() * 1000);
+            if (args.length > 2 && client.getImage() != null) {
+                ImageIO.write(client.getImage(), "png", new File(args[2]));
+            }
+        }
+    }
+}
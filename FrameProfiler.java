@@ -0,0 +1,382 @@
+import java.awt.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A FrameProfiler measures how long each part of your frame takes, so when a
+ * frame is slow you can see whether it was clearing, drawing, presenting, or
+ * the garbage collector.
+ *
+ * Give each part of your frame a name with {@link #addPhase}, then wrap it
+ * with {@link #begin} and {@link #end}. It keeps a {@link Histogram} for each
+ * phase, plus the whole frame, the bytes allocated each frame, and the time
+ * spent collecting garbage.
+ *
+ * <pre>
+ * FrameProfiler profiler = new FrameProfiler();
+ * int drawPhase = profiler.addPhase("draw");
+ * while (true) {
+ *     profiler.beginFrame();
+ *     profiler.begin(drawPhase);
+ *     // draw things
+ *     profiler.end(drawPhase);
+ *     profiler.endFrame();
+ * }
+ * </pre>
+ *
+ * When it's turned off (see {@link #setEnabled}), every method returns right
+ * away, so it's fine to leave the calls in your code.
+ */
+public class FrameProfiler {
+    boolean enabled = true;
+
+    String[] phaseNames = new String[8];
+    Histogram[] phaseTimes = new Histogram[8];
+    long[] phaseStarts = new long[8];
+    // Time spent in each phase so far this frame, or -1 if it hasn't run yet.
+    long[] phaseTotals = new long[8];
+    int phaseCount = 0;
+
+    Histogram frameTimes = new Histogram();
+    Histogram allocatedBytes = new Histogram();
+    Histogram gcTimes = new Histogram();
+    long frameStart = -1;
+    long bytesAtFrameStart;
+    long gcNanosAtFrameStart;
+    long gcCountAtFrameStart;
+    long gcCount = 0;
+
+    // Allocation counting only works on JVMs that support it.
+    com.sun.management.ThreadMXBean threads;
+    List<GarbageCollectorMXBean> collectors;
+
+    /**
+     * Whether {@link #drawOverlay} draws anything. Handy to hook up to a key.
+     */
+    public boolean overlayVisible = false;
+
+    // Exporting. See setExportFile.
+    Path exportFile;
+    long exportIntervalNanos;
+    long lastExportTime;
+
+    public FrameProfiler() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                threads = null;
+            }
+        }
+        collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    }
+
+    /**
+     * Turns the profiler on or off. While it's off, nothing gets measured.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        frameStart = -1; // don't count the time we were off as one long frame
+        for (int i = 0; i < phaseCount; i++) {
+            // Forget anything half measured, so it can't leak into the next frame.
+            phaseStarts[i] = -1;
+            phaseTotals[i] = -1;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds a phase with the given name and returns its number, to pass to
+     * {@link #begin} and {@link #end}.
+     */
+    public int addPhase(String name) {
+        if (phaseCount == phaseNames.length) {
+            int newLength = phaseNames.length * 2;
+            phaseNames = Arrays.copyOf(phaseNames, newLength);
+            phaseTimes = Arrays.copyOf(phaseTimes, newLength);
+            phaseStarts = Arrays.copyOf(phaseStarts, newLength);
+            phaseTotals = Arrays.copyOf(phaseTotals, newLength);
+        }
+        phaseNames[phaseCount] = name;
+        phaseTimes[phaseCount] = new Histogram();
+        phaseStarts[phaseCount] = -1;
+        phaseTotals[phaseCount] = -1;
+        return phaseCount++;
+    }
+
+    /**
+     * Call this at the very start of every frame.
+     */
+    public void beginFrame() {
+        if (!enabled) {
+            return;
+        }
+        frameStart = System.nanoTime();
+        bytesAtFrameStart = allocatedBytes();
+        gcCountAtFrameStart = gcCount();
+        gcNanosAtFrameStart = gcNanos();
+    }
+
+    /**
+     * Starts timing the given phase.
+     */
+    public void begin(int phase) {
+        if (!enabled) {
+            return;
+        }
+        phaseStarts[phase] = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the given phase. If a phase runs more than once in a
+     * frame, the times are added up and recorded as one.
+     */
+    public void end(int phase) {
+        if (!enabled || phaseStarts[phase] < 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - phaseStarts[phase];
+        phaseTotals[phase] = Math.max(phaseTotals[phase], 0) + elapsed;
+        phaseStarts[phase] = -1;
+    }
+
+    /**
+     * Call this at the very end of every frame. Also writes the export file
+     * when it's time. See {@link #setExportFile}.
+     */
+    public void endFrame() {
+        if (!enabled || frameStart < 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        frameTimes.record(now - frameStart);
+        for (int i = 0; i < phaseCount; i++) {
+            if (phaseTotals[i] >= 0) {
+                phaseTimes[i].record(phaseTotals[i]);
+                phaseTotals[i] = -1;
+            }
+        }
+        if (threads != null) {
+            allocatedBytes.record(allocatedBytes() - bytesAtFrameStart);
+        }
+        gcTimes.record(gcNanos() - gcNanosAtFrameStart);
+        gcCount += gcCount() - gcCountAtFrameStart;
+
+        if (exportFile != null && now - lastExportTime >= exportIntervalNanos) {
+            lastExportTime = now;
+            try {
+                export(exportFile);
+            } catch (IOException e) {
+                System.err.println("Could not write profile to " + exportFile + ": " + e.getMessage());
+                exportFile = null; // don't keep trying every frame
+            }
+        }
+    }
+
+    long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    long gcCount() {
+        long total = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            total += Math.max(collectors.get(i).getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+    long gcNanos() {
+        long total = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            total += Math.max(collectors.get(i).getCollectionTime(), 0);
+        }
+        return total * 1_000_000; // the beans only count milliseconds
+    }
+
+    /**
+     * Gets the times (in nanoseconds) recorded for the given phase, one per
+     * frame that it ran in.
+     */
+    public Histogram getPhaseTimes(int phase) {
+        return phaseTimes[phase];
+    }
+
+    public String getPhaseName(int phase) {
+        return phaseNames[phase];
+    }
+
+    public int getPhaseCount() {
+        return phaseCount;
+    }
+
+    /**
+     * Gets the times (in nanoseconds) of whole frames, from
+     * {@link #beginFrame} to {@link #endFrame}. This doesn't include time
+     * spent waiting for the next frame, as long as you call endFrame first.
+     */
+    public Histogram getFrameTimes() {
+        return frameTimes;
+    }
+
+    /**
+     * Gets the number of bytes allocated on this thread each frame. Always
+     * zero if the JVM can't count allocations.
+     */
+    public Histogram getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the time (in nanoseconds, but only as precise as a millisecond)
+     * spent collecting garbage during each frame.
+     */
+    public Histogram getGcTimes() {
+        return gcTimes;
+    }
+
+    /**
+     * Gets the number of garbage collections that happened during frames.
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * Forgets everything measured so far.
+     */
+    public void reset() {
+        for (int i = 0; i < phaseCount; i++) {
+            phaseTimes[i].reset();
+        }
+        frameTimes.reset();
+        allocatedBytes.reset();
+        gcTimes.reset();
+        gcCount = 0;
+    }
+
+    // ----------------------------------------------------
+    // Overlay
+    // ----------------------------------------------------
+
+    /**
+     * Draws a table of timings in the corner of the screen, if
+     * {@link #overlayVisible} is true. Times are in milliseconds.
+     */
+    public void drawOverlay(Graphics2D g, Font font, Point position) {
+        if (!overlayVisible) {
+            return;
+        }
+
+        String header = String.format(Locale.ROOT, "%-10s %7s %7s %7s %7s", "ms", "p50", "p99", "p99.9", "max");
+        int rowHeight = font.getSize() + 4;
+        int rows = phaseCount + 4;
+        int width = g.getFontMetrics(font).stringWidth(header) + 8;
+        GraphicsExample.drawRectangle(g, 0xB4000000, position.x, position.y, width, rowHeight * rows + 8);
+
+        int y = position.y + rowHeight;
+        drawRow(g, font, position.x, y, header);
+        for (int i = 0; i < phaseCount; i++) {
+            y += rowHeight;
+            drawRow(g, font, position.x, y, timingRow(phaseNames[i], phaseTimes[i]));
+        }
+        y += rowHeight;
+        drawRow(g, font, position.x, y, timingRow("frame", frameTimes));
+        y += rowHeight;
+        drawRow(g, font, position.x, y, timingRow("gc", gcTimes));
+        y += rowHeight;
+        drawRow(g, font, position.x, y, String.format(Locale.ROOT, "%-10s %7.1f %7.1f %7s %7.1f", "alloc kB",
+            allocatedBytes.getPercentile(50) / 1024.0, allocatedBytes.getPercentile(99) / 1024.0, "", allocatedBytes.getMax() / 1024.0));
+    }
+
+    void drawRow(Graphics2D g, Font font, int x, int y, String text) {
+        GraphicsExample.drawText(g, text, Color.WHITE, font, x + 4, y);
+    }
+
+    static String timingRow(String name, Histogram times) {
+        return String.format(Locale.ROOT, "%-10s %7.2f %7.2f %7.2f %7.2f", name,
+            times.getPercentile(50) / 1e6, times.getPercentile(99) / 1e6, times.getPercentile(99.9) / 1e6, times.getMax() / 1e6);
+    }
+
+    // ----------------------------------------------------
+    // Exporting
+    // ----------------------------------------------------
+
+    /**
+     * Makes {@link #endFrame} write a summary to the given file every so
+     * often. If the file name ends in ".json" it's written as JSON, and
+     * otherwise as CSV. Pass null to stop.
+     */
+    public void setExportFile(String fileName, double intervalSeconds) {
+        exportFile = fileName == null ? null : Paths.get(fileName);
+        exportIntervalNanos = (long) (intervalSeconds * 1e9);
+        lastExportTime = System.nanoTime();
+    }
+
+    /**
+     * Writes a summary to the given file right now. See {@link #setExportFile}.
+     */
+    public void export(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (file.toString().endsWith(".json")) {
+                writeJson(writer);
+            } else {
+                writeCsv(writer);
+            }
+        }
+    }
+
+    /**
+     * Writes one line per phase, with times in nanoseconds (bytes for "allocated").
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("name,count,mean,p50,p99,p99.9,max\n");
+        for (int i = 0; i < phaseCount; i++) {
+            writeCsvRow(writer, phaseNames[i], phaseTimes[i]);
+        }
+        writeCsvRow(writer, "frame", frameTimes);
+        writeCsvRow(writer, "gc", gcTimes);
+        writeCsvRow(writer, "allocated", allocatedBytes);
+    }
+
+    static void writeCsvRow(Writer writer, String name, Histogram h) throws IOException {
+        writer.write(String.format(Locale.ROOT, "%s,%d,%.0f,%d,%d,%d,%d\n", name, h.getCount(), h.getMean(),
+            h.getPercentile(50), h.getPercentile(99), h.getPercentile(99.9), h.getMax()));
+    }
+
+    /**
+     * Writes everything as one JSON object, with times in nanoseconds (bytes for "allocated").
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"gcCount\": " + gcCount + ",\n  \"phases\": {\n");
+        for (int i = 0; i < phaseCount; i++) {
+            writeJsonEntry(writer, phaseNames[i], phaseTimes[i]);
+            writer.write(",\n");
+        }
+        writeJsonEntry(writer, "frame", frameTimes);
+        writer.write(",\n");
+        writeJsonEntry(writer, "gc", gcTimes);
+        writer.write(",\n");
+        writeJsonEntry(writer, "allocated", allocatedBytes);
+        writer.write("\n  }\n}\n");
+    }
+
+    static void writeJsonEntry(Writer writer, String name, Histogram h) throws IOException {
+        writer.write(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"mean\": %.0f, \"p50\": %d, \"p99\": %d, \"p99.9\": %d, \"max\": %d}",
+            name.replace("\\", "\\\\").replace("\"", "\\\""), h.getCount(), h.getMean(),
+            h.getPercentile(50), h.getPercentile(99), h.getPercentile(99.9), h.getMax()));
+    }
+}
@@ -0,0 +1,274 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * A FrameRecorder saves what your canvas shows, frame by frame, so you can
+ * look back at it later. Saving an image takes a long time, so the recorder
+ * just copies the pixels and lets other threads do the saving while your
+ * program keeps running.
+ *
+ * <pre>
+ * FrameRecorder recorder = new FrameRecorder(canvas, "frames", FrameRecorder.Format.PngSequence);
+ * while (true) {
+ *     // draw things
+ *     canvas.present();
+ *     recorder.capture();
+ * }
+ * // when you're done:
+ * recorder.close();
+ * </pre>
+ *
+ * The recorder only has so many buffers to copy frames into. If the saving
+ * threads fall behind and all the buffers are full, it either skips frames
+ * or waits, depending on {@link #whenFull}.
+ */
+public class FrameRecorder implements Closeable {
+    /**
+     * The ways a {@link FrameRecorder} can save frames.
+     */
+    public static enum Format {
+        /**
+         * One PNG file per frame, named frame-000000.png, frame-000001.png and
+         * so on, in a folder. Small files that anything can open, but slow to write.
+         */
+        PngSequence,
+        /**
+         * One big {@link RawFrameFile} with every frame's pixels as they are.
+         * Much faster to write, but takes a lot more space.
+         */
+        RawFile,
+    }
+
+    /**
+     * What a {@link FrameRecorder} does when it has no free buffer for a new frame.
+     */
+    public static enum WhenFull {
+        /**
+         * Skip the frame, so the program never slows down.
+         */
+        DropFrame,
+        /**
+         * Wait for a buffer to free up, so every frame gets saved.
+         */
+        Wait,
+    }
+
+    /**
+     * What to do when the saving threads fall behind. See {@link WhenFull}.
+     */
+    public WhenFull whenFull = WhenFull.DropFrame;
+
+    GraphicsCanvas canvas;
+    Path path;
+    Format format;
+    int width, height;
+    int imageType;
+
+    // Buffers ready to copy a frame into.
+    ArrayBlockingQueue<int[]> freeBuffers;
+    ExecutorService savers;
+    RawFrameFile rawFile;
+
+    long frameNumber = 0;
+    int slotCount = 0;
+    long capturedFrames = 0;
+    long droppedFrames = 0;
+    AtomicLong savedFrames = new AtomicLong(); // counted by several saving threads at once
+    volatile IOException saveError;
+
+    /**
+     * Constructs a {@link FrameRecorder} for the given canvas, with 4 buffers
+     * and 2 threads to save frames. For {@link Format#PngSequence} the path is
+     * a folder, and for {@link Format#RawFile} it's a file.
+     */
+    public FrameRecorder(GraphicsCanvas canvas, String path, Format format) throws IOException {
+        this(canvas, path, format, 4, 2);
+    }
+
+    /**
+     * Constructs a {@link FrameRecorder} with the given number of buffers to
+     * copy frames into and threads to save them. More buffers can smooth
+     * over a few slow saves, and more threads help if the computer has cores
+     * to spare.
+     */
+    public FrameRecorder(GraphicsCanvas canvas, String path, Format format, int bufferCount, int threadCount) throws IOException {
+        if (bufferCount < 1 || threadCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 buffer and 1 thread!");
+        }
+        BufferedImage image = canvas.getBufferedImage();
+        if (image == null) {
+            throw new IllegalStateException("Can't record a page flipping canvas, since its frames live on the video card. Use initializeBuffer instead.");
+        }
+
+        this.canvas = canvas;
+        this.path = Paths.get(path);
+        this.format = format;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.imageType = isIntImage(image) ? image.getType() : BufferedImage.TYPE_INT_ARGB;
+
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(new int[width * height]);
+        }
+        // Every job holds a buffer, so the queue can never hold more than bufferCount jobs.
+        savers = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(bufferCount), runnable -> {
+                Thread thread = new Thread(runnable, "FrameRecorder");
+                thread.setDaemon(true); // don't keep the program running just to save frames
+                return thread;
+            });
+
+        if (format == Format.PngSequence) {
+            Files.createDirectories(this.path);
+        } else {
+            rawFile = RawFrameFile.create(this.path, width, height, imageType);
+        }
+    }
+
+    static boolean isIntImage(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+    }
+
+    /**
+     * Copies the canvas's current frame and sends it off to be saved. Call
+     * this right after {@link GraphicsCanvas#present}. Returns false if the
+     * frame was skipped because every buffer was busy.
+     */
+    public boolean capture() {
+        if (saveError != null) {
+            throw new IllegalStateException("A frame could not be saved", saveError);
+        }
+
+        long number = frameNumber++;
+        int[] buffer = freeBuffers.poll();
+        if (buffer == null) {
+            if (whenFull == WhenFull.DropFrame) {
+                droppedFrames++;
+                return false;
+            }
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedFrames++;
+                return false;
+            }
+        }
+
+        long time = System.nanoTime();
+        BufferedImage image = canvas.getBufferedImage();
+        if (isIntImage(image)) {
+            // One quick copy per row, without making Java give up on
+            // keeping the image on the video card.
+            image.getRaster().getDataElements(0, 0, width, height, buffer);
+        } else {
+            image.getRGB(0, 0, width, height, buffer, 0, width);
+        }
+        capturedFrames++;
+
+        int[] pixels = buffer;
+        if (format == Format.PngSequence) {
+            savers.execute(() -> savePng(number, pixels));
+        } else {
+            int slot = slotCount++;
+            savers.execute(() -> saveRaw(slot, number, time, pixels));
+        }
+        return true;
+    }
+
+    void savePng(long number, int[] pixels) {
+        try {
+            ImageIO.write(wrap(pixels), "png", path.resolve(String.format("frame-%06d.png", number)).toFile());
+            savedFrames.incrementAndGet();
+        } catch (IOException e) {
+            saveError = e;
+        } finally {
+            freeBuffers.add(pixels);
+        }
+    }
+
+    void saveRaw(int slot, long number, long time, int[] pixels) {
+        try {
+            rawFile.writeFrame(slot, number, time, pixels);
+            savedFrames.incrementAndGet();
+        } catch (IOException e) {
+            saveError = e;
+        } finally {
+            freeBuffers.add(pixels);
+        }
+    }
+
+    /**
+     * Makes an image that uses the given pixels directly, without copying them.
+     */
+    BufferedImage wrap(int[] pixels) {
+        boolean alpha = imageType != BufferedImage.TYPE_INT_RGB;
+        DirectColorModel colors = alpha
+            ? new DirectColorModel(java.awt.color.ColorSpace.getInstance(java.awt.color.ColorSpace.CS_sRGB), 32,
+                0xFF0000, 0xFF00, 0xFF, 0xFF000000, imageType == BufferedImage.TYPE_INT_ARGB_PRE, java.awt.image.DataBuffer.TYPE_INT)
+            : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height, width,
+            colors.getMasks(), null);
+        return new BufferedImage(colors, raster, colors.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Gets the number of frames copied so far.
+     */
+    public long getCapturedFrames() {
+        return capturedFrames;
+    }
+
+    /**
+     * Gets the number of frames skipped because every buffer was busy.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Gets the number of frames that have finished saving.
+     */
+    public long getSavedFrames() {
+        return savedFrames.get();
+    }
+
+    /**
+     * Waits for every captured frame to finish saving, then stops the saving
+     * threads. Throws an IOException if any frame couldn't be saved.
+     */
+    @Override
+    public void close() throws IOException {
+        savers.shutdown();
+        try {
+            while (!savers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; big PNGs can take a while
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (rawFile != null) {
+            rawFile.close();
+        }
+        if (saveError != null) {
+            throw saveError;
+        }
+    }
+}
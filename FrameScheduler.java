@@ -0,0 +1,301 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A FrameScheduler keeps your program running at a steady frame rate, and
+ * tells you how many times to update your game logic each frame.
+ *
+ * Game logic runs on a fixed timestep (for example, exactly 60 times per
+ * second) no matter how fast or slow drawing is. If a frame takes too long,
+ * the scheduler asks you to run a few extra updates to catch up, but never
+ * more than {@link #maxCatchUpSteps} in one frame so a slow frame can't snowball.
+ *
+ * To use it, call {@link #beginFrame} at the start of your loop, run your
+ * update code as many times as it returns, draw, and then call {@link #endFrame}
+ * to wait until it's time for the next frame.
+ *
+ * <pre>
+ * FrameScheduler scheduler = new FrameScheduler(60);
+ * while (true) {
+ *     int updates = scheduler.beginFrame();
+ *     for (int i = 0; i &lt; updates; i++) {
+ *         // move things around
+ *     }
+ *     // draw things
+ *     scheduler.endFrame();
+ * }
+ * </pre>
+ */
+public class FrameScheduler {
+    long updateNanos;
+    long frameNanos;
+
+    /**
+     * The most updates {@link #beginFrame} will ask for in one frame. If we fall
+     * further behind than this, the extra time is thrown away.
+     */
+    public int maxCatchUpSteps = 5;
+
+    /**
+     * How long before the deadline we stop sleeping and start spinning. Sleeping
+     * is not very precise (it often oversleeps by a millisecond or more), so we
+     * sleep for most of the wait and then spin for the last little bit.
+     */
+    public long spinNanos = 1_500_000;
+
+    /**
+     * Whether {@link #endFrame} waits for the next frame. Turn this off to run
+     * as fast as possible, for example when replaying a recording to see how
+     * fast your program really is.
+     */
+    public boolean waitForNextFrame = true;
+
+    long lastBeginTime = -1;
+    long accumulatedNanos = 0;
+    long nextFrameDeadline = -1;
+    long workStartTime = -1;
+    long lastElapsedNanos = 0;
+    long totalElapsedNanos = 0;
+    int lastUpdates = 0;
+
+    // Stats
+    long frameCount = 0;
+    long lastFrameNanos = 0;
+    long lastWorkNanos = 0;
+    long worstFrameNanos = 0;
+    double averageFrameNanos = 0;
+    long droppedUpdates = 0;
+
+    /**
+     * Constructs a {@link FrameScheduler} that updates and draws the given number
+     * of times per second.
+     */
+    public FrameScheduler(double framesPerSecond) {
+        this(framesPerSecond, framesPerSecond);
+    }
+
+    /**
+     * Constructs a {@link FrameScheduler} with separate rates for updating
+     * your logic and drawing. For example, you could update 60 times per second
+     * but draw at 144 frames per second, and use {@link #getAlpha} to smooth out
+     * the in-between frames.
+     */
+    public FrameScheduler(double updatesPerSecond, double framesPerSecond) {
+        if (updatesPerSecond <= 0 || framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Updates and frames per second must be greater than zero!");
+        }
+        this.updateNanos = (long) (1_000_000_000L / updatesPerSecond);
+        this.frameNanos = (long) (1_000_000_000L / framesPerSecond);
+    }
+
+    /**
+     * Call this at the start of every frame. Returns how many times you should
+     * run your update logic this frame (usually 0 or 1, sometimes more if the
+     * last frame was slow).
+     */
+    public int beginFrame() {
+        long now = System.nanoTime();
+        if (lastBeginTime < 0) {
+            lastBeginTime = now;
+            nextFrameDeadline = now + frameNanos;
+        }
+
+        long elapsed = now - lastBeginTime;
+        lastBeginTime = now;
+        return beginFrame(elapsed);
+    }
+
+    /**
+     * Starts a frame as if the given number of nanoseconds had passed since
+     * the last one, without looking at the clock. Replaying the times from a
+     * recording this way gives exactly the same updates as the first time,
+     * no matter how fast the computer is. See {@link InputReplayer}.
+     */
+    public int beginFrame(long elapsed) {
+        if (frameCount == 0) {
+            // First frame: do one update so there's something to draw.
+            accumulatedNanos = updateNanos;
+            elapsed = 0;
+        }
+        workStartTime = System.nanoTime(); // so endFrame can tell how long we worked
+        lastElapsedNanos = elapsed;
+        totalElapsedNanos += elapsed;
+        if (frameCount > 0) {
+            recordFrameTime(elapsed);
+        }
+        frameCount++;
+
+        accumulatedNanos += elapsed;
+        int steps = (int) Math.min(accumulatedNanos / updateNanos, Integer.MAX_VALUE);
+        if (steps > maxCatchUpSteps) {
+            // We're too far behind to ever catch up. Forget about the missing time.
+            droppedUpdates += steps - maxCatchUpSteps;
+            steps = maxCatchUpSteps;
+            accumulatedNanos = 0;
+        } else {
+            accumulatedNanos -= steps * updateNanos;
+        }
+
+        lastUpdates = steps;
+        return steps;
+    }
+
+    /**
+     * Call this at the end of every frame. Waits until it's time to start the
+     * next frame.
+     */
+    public void endFrame() {
+        long now = System.nanoTime();
+        lastWorkNanos = now - workStartTime;
+        if (!waitForNextFrame) {
+            return;
+        }
+
+        if (now - nextFrameDeadline > frameNanos) {
+            // We missed the deadline by more than a whole frame. Start fresh
+            // instead of racing through a bunch of frames to catch up.
+            nextFrameDeadline = now;
+        }
+
+        waitUntil(nextFrameDeadline);
+
+        // Schedule from the deadline, not from "now", so small errors don't add up.
+        nextFrameDeadline += frameNanos;
+    }
+
+    void waitUntil(long deadline) {
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            if (remaining > spinNanos) {
+                LockSupport.parkNanos(remaining - spinNanos);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    void recordFrameTime(long nanos) {
+        lastFrameNanos = nanos;
+        worstFrameNanos = Math.max(worstFrameNanos, nanos);
+        if (averageFrameNanos == 0) {
+            averageFrameNanos = nanos;
+        } else {
+            averageFrameNanos += (nanos - averageFrameNanos) * 0.05; // smooth out the average over the last few dozen frames
+        }
+    }
+
+    /**
+     * Gets how far we are between the last update and the next one, from 0 to 1.
+     * Useful for drawing things smoothly when you draw more often than you update:
+     * draw at {@code previous + (current - previous) * alpha}.
+     */
+    public double getAlpha() {
+        return Math.min(accumulatedNanos / (double) updateNanos, 1.0);
+    }
+
+    /**
+     * Blends between an old value and a new value using {@link #getAlpha}.
+     */
+    public double interpolate(double previous, double current) {
+        return previous + (current - previous) * getAlpha();
+    }
+
+    /**
+     * Gets how much of this frame's time is left, in nanoseconds: the length
+     * of one frame minus how long we've been working since
+     * {@link #beginFrame}. Negative once the frame is running late.
+     */
+    public long getNanosLeftInFrame() {
+        return frameNanos - (System.nanoTime() - workStartTime);
+    }
+
+    /**
+     * Gets how much time has passed since the first frame, in seconds, by
+     * adding up the time between frames. This is the same on a replay as it
+     * was when the recording was made.
+     */
+    public double getElapsedSeconds() {
+        return totalElapsedNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets the time between the start of the last frame and the one before
+     * it, in nanoseconds, exactly as it was given to the update logic.
+     */
+    public long getLastElapsedNanos() {
+        return lastElapsedNanos;
+    }
+
+    /**
+     * Gets how many updates {@link #beginFrame} asked for this frame.
+     */
+    public int getUpdatesThisFrame() {
+        return lastUpdates;
+    }
+
+    /**
+     * Gets the length of one update step in seconds.
+     */
+    public double getTimestep() {
+        return updateNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets how long the previous frame took from start to start, in seconds.
+     */
+    public double getLastFrameSeconds() {
+        return lastFrameNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets how long the previous frame spent actually working (not waiting), in seconds.
+     */
+    public double getLastWorkSeconds() {
+        return lastWorkNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets the slowest frame so far, in seconds.
+     */
+    public double getWorstFrameSeconds() {
+        return worstFrameNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets the average time per frame over the last few dozen frames, in seconds.
+     */
+    public double getAverageFrameSeconds() {
+        return averageFrameNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Gets the average frames per second over the last few dozen frames.
+     */
+    public double getFramesPerSecond() {
+        return averageFrameNanos == 0 ? 0 : 1_000_000_000.0 / averageFrameNanos;
+    }
+
+    /**
+     * Gets the number of frames started so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets the number of updates that were skipped because we fell too far behind.
+     */
+    public long getDroppedUpdates() {
+        return droppedUpdates;
+    }
+
+    /**
+     * Resets the worst frame time, for example after loading something slow.
+     */
+    public void resetStats() {
+        worstFrameNanos = 0;
+        droppedUpdates = 0;
+    }
+}
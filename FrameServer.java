@@ -0,0 +1,447 @@
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * A FrameServer sends what your canvas shows to other programs on the same
+ * computer, like a test that wants to look at your frames or a viewer
+ * ({@link FrameClient} is a simple one). It doesn't need a window.
+ *
+ * <pre>
+ * FrameServer server = new FrameServer(canvas, 5000);
+ * while (true) {
+ *     // draw things
+ *     canvas.present();
+ *     server.sendFrame();
+ * }
+ * </pre>
+ *
+ * Sending every pixel of every frame would be a lot, so it only sends what
+ * changed. The screen is split into square tiles, and for each tile that
+ * changed it sends the new pixels XORed with the old ones. Everything that
+ * didn't change XORs to zero, so the tile squashes down to a few long runs
+ * of the same number.
+ *
+ * Each frame is packed up once and the same bytes go to every client. It
+ * never waits for a client: if one hasn't finished taking the last frame
+ * yet, it just skips frames for that client, and sends it a whole frame (a
+ * "keyframe") once it catches up, since the changes it missed are gone.
+ *
+ * Only programs on the same computer can connect.
+ *
+ * Every message is in little-endian order:
+ *
+ * <pre>
+ * int    number of bytes in the rest of the message
+ * byte   KEYFRAME (start from black) or DELTA (start from the last frame)
+ * long   frame number
+ * long   System.nanoTime when it was sent
+ * int    width, int height, int tile size
+ * int    number of tiles
+ * then for each tile:
+ * short  tile x, short tile y (in tiles, not pixels)
+ * short  number of runs
+ * then for each run, going left to right and top to bottom in the tile:
+ * short  how many pixels, int the value to XOR them with
+ * </pre>
+ */
+public class FrameServer implements Closeable {
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+    static final int HEADER_BYTES = 4 + 1 + 8 + 8 + 4 + 4 + 4 + 4;
+    static final int TILE_HEADER_BYTES = 2 + 2 + 2;
+    static final int RUN_BYTES = 2 + 4;
+
+    /**
+     * A frame packed up for sending. Several clients can be partway through
+     * sending the same one, so it's only reused once none of them are.
+     */
+    static class Message {
+        ByteBuffer bytes;
+        int users = 0;
+    }
+
+    /**
+     * Someone who connected to us.
+     */
+    static class Client {
+        SocketChannel channel;
+        ByteBuffer sending; // our own view of the message, so clients don't move each other's positions
+        Message message;
+        boolean needsKeyframe = true;
+        long framesSent = 0;
+        long framesSkipped = 0;
+        long bytesSent = 0;
+    }
+
+    GraphicsCanvas canvas;
+    ServerSocketChannel server;
+    ArrayList<Client> clients = new ArrayList<>();
+    ArrayList<Message> messages = new ArrayList<>();
+
+    int width, height;
+    int tileSize;
+    int tilesX, tilesY;
+    int[] pixels;
+    int[] previous;
+    boolean hasPrevious = false;
+
+    long frameNumber = 0;
+    long framesSent = 0, keyframesSent = 0, bytesSent = 0, disconnects = 0;
+    long lastMessageBytes = 0;
+
+    /**
+     * Constructs a {@link FrameServer} that sends the canvas's frames to
+     * anyone who connects to the given port, using 32 by 32 tiles.
+     */
+    public FrameServer(GraphicsCanvas canvas, int port) throws IOException {
+        this(canvas, port, 32);
+    }
+
+    /**
+     * Constructs a {@link FrameServer} with the given tile size. Smaller
+     * tiles send less when only little bits change, but take more bytes to
+     * describe.
+     */
+    public FrameServer(GraphicsCanvas canvas, int port, int tileSize) throws IOException {
+        if (tileSize < 1 || tileSize > 128) {
+            throw new IllegalArgumentException("The tile size must be between 1 and 128, but was " + tileSize);
+        }
+        BufferedImage image = canvas.getBufferedImage();
+        if (image == null) {
+            throw new IllegalStateException("Can't send a page flipping canvas, since its frames live on the video card. Use initializeBuffer instead.");
+        }
+        this.canvas = canvas;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        if (tilesX > Short.MAX_VALUE || tilesY > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The canvas is too big for tiles this small!");
+        }
+        pixels = new int[width * height];
+        previous = new int[width * height];
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+    }
+
+    /**
+     * Sends the canvas's current frame to everyone who's connected. Call it
+     * right after {@link GraphicsCanvas#present}. It never waits on a client.
+     */
+    public void sendFrame() throws IOException {
+        if (server == null) {
+            throw new IllegalStateException("Can't send a frame after the server has been closed!");
+        }
+        acceptClients();
+        continueSending();
+
+        long number = frameNumber++;
+        BufferedImage image = canvas.getBufferedImage();
+        if (FrameRecorder.isIntImage(image)) {
+            image.getRaster().getDataElements(0, 0, width, height, pixels);
+        } else {
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+
+        // Only pack up what somebody is going to get.
+        Message delta = null;
+        Message keyframe = null;
+        for (int i = 0; i < clients.size(); i++) {
+            Client client = clients.get(i);
+            if (client.sending != null) {
+                // Still busy with an older frame. It'll miss this one, so the
+                // changes it gets next wouldn't line up.
+                client.framesSkipped++;
+                client.needsKeyframe = true;
+                continue;
+            }
+            Message message;
+            if (client.needsKeyframe || !hasPrevious) {
+                if (keyframe == null) {
+                    keyframe = encode(KEYFRAME, number);
+                    keyframesSent++;
+                }
+                message = keyframe;
+            } else {
+                if (delta == null) {
+                    delta = encode(DELTA, number);
+                }
+                message = delta;
+            }
+            client.needsKeyframe = false;
+            client.message = message;
+            client.sending = message.bytes.duplicate();
+            message.users++;
+            client.framesSent++;
+            framesSent++;
+            if (!send(client)) {
+                i--; // it disconnected and got taken out of the list
+            }
+        }
+
+        // Let go of this frame's messages. Any client still sending one keeps
+        // it from being reused.
+        if (keyframe != null) {
+            keyframe.users--;
+        }
+        if (delta != null) {
+            delta.users--;
+        }
+
+        int[] temp = previous;
+        previous = pixels;
+        pixels = temp;
+        hasPrevious = true;
+    }
+
+    void acceptClients() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Client client = new Client();
+            client.channel = channel;
+            clients.add(client);
+        }
+    }
+
+    void continueSending() {
+        for (int i = 0; i < clients.size(); i++) {
+            if (clients.get(i).sending != null && !send(clients.get(i))) {
+                i--;
+            }
+        }
+    }
+
+    /**
+     * Sends as much of the client's message as it will take right now.
+     * Returns false if the client disconnected.
+     */
+    boolean send(Client client) {
+        try {
+            int written = client.channel.write(client.sending);
+            client.bytesSent += written;
+            bytesSent += written;
+        } catch (IOException e) {
+            disconnect(client);
+            return false;
+        }
+        if (!client.sending.hasRemaining()) {
+            client.sending = null;
+            client.message.users--;
+            client.message = null;
+        }
+        return true;
+    }
+
+    void disconnect(Client client) {
+        if (client.message != null) {
+            client.message.users--;
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // it's gone either way
+        }
+        clients.remove(client);
+        disconnects++;
+    }
+
+    /**
+     * Packs up the current frame, either all of it or just what changed
+     * since the last one. The message comes back already held once, so it
+     * can't be reused for the other kind of message this frame even after
+     * every client has finished sending it. sendFrame lets go of it at the end.
+     */
+    Message encode(byte type, long number) {
+        Message message = freeMessage();
+        message.users++;
+        ByteBuffer out = message.bytes;
+        out.clear();
+        out.position(HEADER_BYTES);
+
+        int tiles = 0;
+        boolean key = type == KEYFRAME;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (encodeTile(out, tx, ty, key)) {
+                    tiles++;
+                }
+            }
+        }
+
+        int length = out.position();
+        out.putInt(0, length - 4);
+        out.put(4, type);
+        out.putLong(5, number);
+        out.putLong(13, System.nanoTime());
+        out.putInt(21, width);
+        out.putInt(25, height);
+        out.putInt(29, tileSize);
+        out.putInt(33, tiles);
+        out.flip();
+        lastMessageBytes = length;
+        return message;
+    }
+
+    /**
+     * Writes one tile if anything in it changed (or always, for a keyframe).
+     * Returns true if it wrote the tile.
+     */
+    boolean encodeTile(ByteBuffer out, int tx, int ty, boolean key) {
+        int x0 = tx * tileSize;
+        int y0 = ty * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+
+        if (!key) {
+            boolean changed = false;
+            for (int y = y0; y < y1 && !changed; y++) {
+                int row = y * width;
+                for (int x = x0; x < x1; x++) {
+                    if (pixels[row + x] != previous[row + x]) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            if (!changed) {
+                return false;
+            }
+        }
+
+        int start = out.position();
+        out.putShort((short) tx).putShort((short) ty).putShort((short) 0);
+        int runs = 0;
+        int runValue = 0;
+        int runLength = 0;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                int value = key ? pixels[row + x] : pixels[row + x] ^ previous[row + x];
+                if (runLength > 0 && value == runValue && runLength < Short.MAX_VALUE) {
+                    runLength++;
+                } else {
+                    if (runLength > 0) {
+                        out.putShort((short) runLength).putInt(runValue);
+                        runs++;
+                    }
+                    runValue = value;
+                    runLength = 1;
+                }
+            }
+        }
+        out.putShort((short) runLength).putInt(runValue);
+        runs++;
+        out.putShort(start + 4, (short) runs);
+        return true;
+    }
+
+    /**
+     * Finds a message nobody is sending, or makes a new one big enough for
+     * the worst case (every pixel its own run).
+     */
+    Message freeMessage() {
+        for (Message message : messages) {
+            if (message.users == 0) {
+                return message;
+            }
+        }
+        Message message = new Message();
+        int worst = HEADER_BYTES + tilesX * tilesY * TILE_HEADER_BYTES + width * height * RUN_BYTES;
+        message.bytes = ByteBuffer.allocateDirect(worst).order(ByteOrder.LITTLE_ENDIAN);
+        messages.add(message);
+        return message;
+    }
+
+    /**
+     * Gets the port the server is listening on, which is handy if you asked
+     * for port 0 (any free port).
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Gets the number of clients connected right now.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Gets the number of frames sent, counting each client separately.
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Gets the number of frames skipped because a client wasn't keeping up,
+     * counting each client separately.
+     */
+    public long getFramesSkipped() {
+        long skipped = 0;
+        for (Client client : clients) {
+            skipped += client.framesSkipped;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the number of times a whole frame had to be packed up, for new
+     * clients or clients that fell behind.
+     */
+    public long getKeyframes() {
+        return keyframesSent;
+    }
+
+    /**
+     * Gets the total number of bytes sent to all clients.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets the size of the last frame that was packed up, in bytes.
+     */
+    public long getLastMessageBytes() {
+        return lastMessageBytes;
+    }
+
+    /**
+     * Gets the number of clients that went away, or that we dropped because
+     * sending to them failed.
+     */
+    public long getDisconnects() {
+        return disconnects;
+    }
+
+    /**
+     * Disconnects everyone and stops listening.
+     */
+    @Override
+    public void close() throws IOException {
+        if (server == null) {
+            return;
+        }
+        while (!clients.isEmpty()) {
+            disconnect(clients.get(0));
+        }
+        server.close();
+        server = null;
+    }
+}
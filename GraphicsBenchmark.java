@@ -0,0 +1,323 @@
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures how fast the drawing functions and helpers are, without needing a
+ * window. Run it like any other program:
+ *
+ * <pre>
+ * java GraphicsBenchmark           (run everything)
+ * java GraphicsBenchmark quick     (shorter runs, less accurate)
+ * java GraphicsBenchmark Circle    (only benchmarks with "Circle" in the name)
+ * </pre>
+ *
+ * For each benchmark it prints the time per operation, the bytes allocated
+ * per operation, and how much garbage collection happened while it ran. The
+ * drawing benchmarks run with small and large shapes and with antialiasing
+ * off and on, and one "operation" is a whole batch of shapes.
+ *
+ * Everything a benchmark draws with is made before it starts, so the bytes
+ * per operation are only what the code being measured allocates. Some of
+ * Java's own drawing (like polygons and thick outlines) makes a little
+ * garbage for every shape, and that shows up here too.
+ */
+public class GraphicsBenchmark {
+    static final int[] SHAPE_COUNTS = { 100, 1000 };
+    static final int[] SHAPE_SIZES = { 10, 100 };
+    static final boolean[] ANTIALIASING = { false, true };
+
+    static long warmupNanos = 500_000_000L;
+    static long measureNanos = 1_000_000_000L;
+    static String filter = null;
+
+    // Results go here so Java can't decide our work is useless and skip it.
+    // Objects go in objectSink, which also stops Java from noticing they never
+    // leave the loop and skipping making them.
+    static volatile int sink;
+    static volatile Object objectSink;
+
+    static com.sun.management.ThreadMXBean threads;
+    static List<GarbageCollectorMXBean> collectors;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // no window needed
+
+        for (String arg : args) {
+            if (arg.equals("quick")) {
+                warmupNanos = 100_000_000L;
+                measureNanos = 200_000_000L;
+            } else {
+                filter = arg;
+            }
+        }
+
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        System.out.printf("%-44s %14s %12s %6s %8s%n", "benchmark", "ns/op", "bytes/op", "gcs", "gc ms");
+
+        GraphicsCanvas canvas = new GraphicsCanvas(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB));
+        Graphics2D g = canvas.getGraphics2D();
+        Font font = new Font("Serif", Font.PLAIN, 24);
+        Canvas component = new Canvas();
+        MouseHelper mouse = new MouseHelper(component);
+        ShapeCache shapeCache = new ShapeCache(256);
+
+        for (boolean antialiasing : ANTIALIASING) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                antialiasing ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+            String aa = antialiasing ? "aa" : "noaa";
+
+            for (int count : SHAPE_COUNTS) {
+                for (int size : SHAPE_SIZES) {
+                    Point[] points = makePoints(count, 800 - size, 600 - size);
+                    Rectangle[] rects = makeRectangles(points, size);
+                    // Made up front so the triangle benchmarks only measure drawing.
+                    Point[] rightCorners = offsetPoints(points, size, 0);
+                    Point[] bottomCorners = offsetPoints(points, 0, size);
+                    String params = "[" + count + "x" + size + "px," + aa + "]";
+
+                    run("drawLine" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawLine(g, Color.CYAN, 2, points[i], points[(i + 1) % count]);
+                        }
+                    });
+                    run("drawEllipse" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawEllipse(g, Color.GREEN, points[i], size, size / 2);
+                        }
+                    });
+                    run("drawEllipseOutline" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawEllipseOutline(g, Color.GREEN, 3, points[i], size, size / 2);
+                        }
+                    });
+                    run("drawCircle" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawCircle(g, Color.RED, points[i], size / 2);
+                        }
+                    });
+                    run("drawCircleOutline" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawCircleOutline(g, Color.RED, 3, points[i], size / 2);
+                        }
+                    });
+                    run("drawRectangle" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawRectangle(g, Color.ORANGE, rects[i]);
+                        }
+                    });
+                    run("drawRectangleOutline" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawRectangleOutline(g, Color.GRAY, 3, rects[i]);
+                        }
+                    });
+                    run("drawTriangle" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawTriangle(g, Color.BLUE, points[i], rightCorners[i], bottomCorners[i]);
+                        }
+                    });
+                    run("drawTriangleOutline" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawTriangleOutline(g, Color.BLUE, 3, points[i], rightCorners[i], bottomCorners[i]);
+                        }
+                    });
+
+                    // The same outlines again, saved in a ShapeCache.
+                    canvas.setShapeCache(shapeCache);
+                    run("drawEllipseOutline+ShapeCache" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawEllipseOutline(g, Color.GREEN, 3, points[i], size, size / 2);
+                        }
+                    });
+                    run("drawTriangleOutline+ShapeCache" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawTriangleOutline(g, Color.BLUE, 3, points[i], rightCorners[i], bottomCorners[i]);
+                        }
+                    });
+                    canvas.setShapeCache(null);
+
+                    run("drawText" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawText(g, "Hello, this is a graphics example!", Color.BLACK, font, points[i]);
+                        }
+                    });
+                    run("drawMousePosition" + params, () -> {
+                        for (int i = 0; i < count; i++) {
+                            GraphicsExample.drawMousePosition(g, mouse);
+                        }
+                    });
+                    run("doButton" + params, () -> {
+                        int clicks = 0;
+                        for (int i = 0; i < count; i++) {
+                            if (GraphicsExample.doButton(g, mouse, Color.BLUE, rects[i])) {
+                                clicks++;
+                            }
+                        }
+                        sink = clicks;
+                    });
+                }
+            }
+        }
+
+        // Non-drawing helpers
+        for (int count : SHAPE_COUNTS) {
+            Rectangle[] rects = makeRectangles(makePoints(count, 800, 600), -20);
+            String params = "[" + count + "]";
+
+            run("Rectangle.normalize" + params, () -> {
+                int total = 0;
+                for (int i = 0; i < count; i++) {
+                    Rectangle normalized = Rectangle.normalize(rects[i]);
+                    total += normalized.x + normalized.y + normalized.width + normalized.height;
+                    objectSink = normalized;
+                }
+                sink = total;
+            });
+            run("Rectangle.checkOverlap" + params, () -> {
+                int overlaps = 0;
+                for (int i = 0; i < count; i++) {
+                    if (Rectangle.checkOverlap(rects[i], rects[(i * 7 + 1) % count])) {
+                        overlaps++;
+                    }
+                }
+                sink = overlaps;
+            });
+        }
+
+        // Filled shapes drawn by Java versus the software rasterizer
+        for (int count : SHAPE_COUNTS) {
+            DisplayList shapes = new DisplayList();
+            Point[] points = makePoints(count, 780, 580);
+            for (int i = 0; i < count; i++) {
+                Point p = points[i];
+                shapes.fillRect(Color.ORANGE, p.x, p.y, 20, 20);
+                shapes.fillOval(Color.GREEN, p.x, p.y, 20, 10);
+                shapes.fillTriangle(Color.BLUE, p.x, p.y, p.x + 20, p.y, p.x, p.y + 20);
+            }
+            SoftwareRasterizer rasterizer = new SoftwareRasterizer(800, 600);
+            Graphics2D rasterizerGraphics = rasterizer.getImage().createGraphics();
+            String params = "[" + count * 3 + "]";
+
+            run("DisplayList.replay" + params, () -> shapes.replay(g));
+            run("SoftwareRasterizer.render" + params, () -> rasterizer.render(shapes, rasterizerGraphics));
+        }
+
+        // Lots of moving, colliding entities
+        EntityStore entities = new EntityStore();
+        java.util.Random random = new java.util.Random(2175);
+        for (int i = 0; i < 50_000; i++) {
+            int id = entities.create(random.nextInt(790), random.nextInt(590), 2, 2, Color.RED);
+            entities.setVelocity(id, random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100);
+        }
+        IntList collisions = new IntList();
+        run("EntityStore.move+bounce[50000]", () -> {
+            entities.move(1 / 60.0f);
+            entities.bounceInside(0, 0, 800, 600);
+        });
+        run("EntityStore.findCollisions[50000]", () -> {
+            collisions.clear();
+            entities.findCollisions(collisions);
+            sink = collisions.size();
+        });
+        run("EntityStore.draw[50000]", () -> entities.draw(g));
+
+        KeyboardHelper keyboard = new KeyboardHelper(component);
+        keyboard.keyPressed(new KeyEvent(component, KeyEvent.KEY_PRESSED, 0, 0, KeyEvent.VK_LEFT, KeyEvent.CHAR_UNDEFINED));
+        keyboard.resetForNextFrame();
+        run("KeyboardHelper.lookups[4 keys x 3 kinds]", () -> {
+            int down = 0;
+            for (int key = KeyEvent.VK_LEFT; key <= KeyEvent.VK_DOWN; key++) {
+                if (keyboard.isKeyDown(key)) down++;
+                if (keyboard.isKeyDownThisFrame(key)) down++;
+                if (keyboard.isKeyUpThisFrame(key)) down++;
+            }
+            sink = down;
+        });
+    }
+
+    /**
+     * Runs one benchmark: warms it up, then runs it as many times as fits in
+     * the measuring time and prints the results.
+     */
+    static void run(String name, Runnable body) {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        // Warm up, so Java has a chance to compile the code before we measure it.
+        long warmupEnd = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < warmupEnd) {
+            body.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long end = start + measureNanos;
+        long ops = 0;
+        long now;
+        do {
+            body.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        System.out.printf("%-44s %14.1f %12.1f %6d %8d%n",
+            name,
+            (now - start) / (double) ops,
+            bytes / (double) ops,
+            gcCount() - gcCountBefore,
+            gcTime() - gcTimeBefore);
+    }
+
+    static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(collector.getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+    static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(collector.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    static Point[] makePoints(int count, int maxX, int maxY) {
+        // The same "random" points every run, so results can be compared.
+        java.util.Random random = new java.util.Random(2175);
+        Point[] points = new Point[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = new Point(random.nextInt(Math.max(maxX, 1)), random.nextInt(Math.max(maxY, 1)));
+        }
+        return points;
+    }
+
+    static Point[] offsetPoints(Point[] points, int dx, int dy) {
+        Point[] moved = new Point[points.length];
+        for (int i = 0; i < points.length; i++) {
+            moved[i] = new Point(points[i].x + dx, points[i].y + dy);
+        }
+        return moved;
+    }
+
+    static Rectangle[] makeRectangles(Point[] points, int size) {
+        Rectangle[] rects = new Rectangle[points.length];
+        for (int i = 0; i < points.length; i++) {
+            rects[i] = new Rectangle(points[i].x, points[i].y, size, size);
+        }
+        return rects;
+    }
+}
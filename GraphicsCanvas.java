@@ -1,59 +1,780 @@
 import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
 //alayna wuz here
 /**
  * GraphicsCanvas does some helpful stuff with buffered images
  * to eliminate flickering in a Java AWT canvas. Other than that
- * it's just a normal panel.
- * 
+ * it's just a normal canvas.
+ *
  * To use it, construct it with your desired width and height,
- * add it to your window, call initializeBuffer, and then call
- * getGraphics2D to get the Graphics2D object that lets you
- * draw things.
+ * add it to your window, call initializeBuffer (or
+ * initializeBufferStrategy), and then call getGraphics2D to get
+ * the Graphics2D object that lets you draw things. When you are
+ * done drawing a frame, call present to show it.
  */
-public class GraphicsCanvas extends Panel {
+public class GraphicsCanvas extends Canvas {
+    /**
+     * The different ways a {@link GraphicsCanvas} can get its pictures onto the screen.
+     */
+    public static enum PresentMode {
+        /**
+         * Draw into an offscreen image, then ask AWT to copy it to the screen
+         * with {@link Canvas#repaint()}. The copy happens later, on AWT's own thread.
+         */
+        Repaint,
+        /**
+         * Draw straight into the back buffer of a {@link BufferStrategy} (which
+         * lives in video memory when possible) and flip it onto the screen
+         * right away when {@link #present} is called.
+         */
+        PageFlip,
+        /**
+         * Draw into a plain {@link BufferedImage} that never gets shown. This is
+         * what you get when there is no screen at all, like on a build server.
+         */
+        Offscreen,
+    }
+
     int width, height;
+    PresentMode presentMode;
     Image bufferImage;
+    BufferStrategy bufferStrategy;
     Graphics2D graphics;
 
+    // Page flipping hands us a new Graphics2D every frame, so we remember the
+    // settings from the last one and copy them over.
+    RenderingHints savedHints;
+    Color savedBackground;
+
+    long lostFrames = 0;
+
+    // Canvases that want to hear about what the drawing functions are doing,
+    // because they are tracking dirty rectangles or recording.
+    static GraphicsCanvas[] hookedCanvases = new GraphicsCanvas[0];
+
+    // Another graphics object that draws for this canvas, like the smaller one
+    // QualityGovernor draws into at low resolution tiers. The drawing
+    // functions treat it the same as the canvas's own.
+    Graphics2D scaledGraphics;
+
+    // Dirty rectangle tracking. See setDirtyTracking.
+    DirtyRegions drawnThisFrame;
+    DirtyRegions drawnLastFrame;
+    DirtyRegions presentRegions;
+    boolean fullFrameNeeded = true;
+
+    // Recording. See startRecording.
+    DisplayList recording;
+    DirtyRegions changedRegions;
+
+    // Text drawing. See setTextCache.
+    TextCache textCache;
+
+    // Outline drawing. See setShapeCache.
+    ShapeCache shapeCache;
+
+    // Batching. See startBatch.
+    DisplayList batch;
+    GraphicsState batchState;
+
+    // Layers, sorted by z. See addLayer.
+    ArrayList<CanvasLayer> layers = new ArrayList<>();
+
+    // Software rasterizing. See setSoftwareRasterizer.
+    SoftwareRasterizer rasterizer;
+    DisplayList deferred;
+    Graphics2D deferredGraphics; // draws what was saved up, with the settings it was saved with
+    Image imageBeforeRasterizer;
+
     public GraphicsCanvas(int width, int height) {
         this.width = width;
         this.height = height;
     }
 
+    /**
+     * Constructs a canvas that draws into the given image instead of a window.
+     * It's ready to use right away, and works even when there is no screen at
+     * all, which makes it handy for tests and benchmarks.
+     */
+    public GraphicsCanvas(BufferedImage image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        bufferImage = image;
+        presentMode = PresentMode.Offscreen;
+        savedBackground = Color.WHITE; // match what a window would give us
+    }
+
     /**
      * Sets up the canvas's buffer. Must be called after it has
      * been added to a window.
+     *
+     * If there is no screen (java.awt.headless is set), this falls back to
+     * drawing into an offscreen image instead.
      */
     public void initializeBuffer() {
+        if (GraphicsEnvironment.isHeadless()) {
+            initializeOffscreenBuffer();
+            return;
+        }
+
         bufferImage = this.createImage(width, height);
         if (bufferImage == null) {
             throw new IllegalStateException("Could not initialize buffer! Make sure you have added the panel to a window first.");
         }
+        presentMode = PresentMode.Repaint;
+    }
+
+    /**
+     * Sets up the canvas to draw with page flipping, using the given number
+     * of buffers (2 or 3). This avoids an extra copy every frame, and the
+     * frame shows up as soon as you call {@link #present}. Must be called after
+     * the canvas has been added to a visible window.
+     *
+     * If there is no screen (java.awt.headless is set), this falls back to
+     * drawing into an offscreen image instead.
+     */
+    public void initializeBufferStrategy(int numBuffers) {
+        if (numBuffers < 2 || numBuffers > 3) {
+            throw new IllegalArgumentException("numBuffers must be 2 or 3, but was " + numBuffers);
+        }
+
+        if (GraphicsEnvironment.isHeadless()) {
+            initializeOffscreenBuffer();
+            return;
+        }
+
+        if (!isDisplayable()) {
+            throw new IllegalStateException("Could not initialize buffer strategy! Make sure you have added the canvas to a visible window first.");
+        }
+
+        setIgnoreRepaint(true); // we'll show frames ourselves, thanks
+        createBufferStrategy(numBuffers);
+        bufferStrategy = getBufferStrategy();
+        presentMode = PresentMode.PageFlip;
+    }
+
+    void initializeOffscreenBuffer() {
+        bufferImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        presentMode = PresentMode.Offscreen;
+        savedBackground = Color.WHITE; // match what a window would give us
     }
 
     /**
      * Gets the buffer's graphics object. Drawing into this will
-     * not show up onscreen right away; make sure to update or
-     * repaint your window after you are done drawing.
+     * not show up onscreen right away; make sure to call present
+     * after you are done drawing.
+     *
+     * When page flipping, you get a different object every frame, so
+     * call this again after each call to present.
      */
     public Graphics2D getGraphics2D() {
-        if (bufferImage == null) {
+        if (presentMode == null) {
             throw new IllegalStateException("Could not getGraphics2D because you need to call initializeBuffer first!");
         }
 
         if (graphics == null) {
-            graphics = (Graphics2D) bufferImage.getGraphics();
+            if (presentMode == PresentMode.PageFlip) {
+                graphics = (Graphics2D) bufferStrategy.getDrawGraphics();
+            } else {
+                graphics = (Graphics2D) bufferImage.getGraphics();
+            }
+
+            if (savedHints != null) {
+                graphics.setRenderingHints(savedHints);
+            }
+            if (savedBackground != null) {
+                graphics.setBackground(savedBackground);
+            }
         }
 
         return graphics;
     }
 
     /**
-     * Clears the contents of the buffer.
+     * Gets the image this canvas draws into, so you can look at the pixels.
+     * Returns null when page flipping, since then the picture lives on the
+     * video card instead.
+     */
+    public BufferedImage getBufferedImage() {
+        return bufferImage instanceof BufferedImage ? (BufferedImage) bufferImage : null;
+    }
+
+    /**
+     * Gets the way this canvas shows its frames. See {@link PresentMode}.
+     */
+    public PresentMode getPresentMode() {
+        return presentMode;
+    }
+
+    /**
+     * Gets the number of frames that were thrown away because the video card
+     * lost the contents of the back buffer (this can happen when the screen
+     * locks, the display settings change, and so on).
+     */
+    public long getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * Turns dirty rectangle tracking on or off. When it's on, the canvas
+     * remembers where the drawing functions in {@link GraphicsExample} drew
+     * things, and only clears and shows those parts of the screen instead of
+     * the whole thing. This makes mostly-empty scenes a lot cheaper.
+     *
+     * If you draw with the Graphics2D object directly, call {@link #markDirty}
+     * with the area you drew in, or it might not get cleared or shown.
+     *
+     * @param maxRegions The most rectangles to keep track of. More rectangles
+     * means less wasted drawing, but more bookkeeping.
+     */
+    public void setDirtyTracking(boolean enabled, int maxRegions) {
+        if (enabled) {
+            drawnThisFrame = new DirtyRegions(width, height, maxRegions);
+            drawnLastFrame = new DirtyRegions(width, height, maxRegions);
+            presentRegions = new DirtyRegions(width, height, maxRegions);
+            fullFrameNeeded = true;
+        } else {
+            drawnThisFrame = null;
+            drawnLastFrame = null;
+            presentRegions = null;
+        }
+        updateHook();
+    }
+
+    /**
+     * Returns true if dirty rectangle tracking is turned on.
+     */
+    public boolean isDirtyTracking() {
+        return drawnThisFrame != null;
+    }
+
+    /**
+     * Tells the canvas that something was drawn in the given area this frame.
+     * Only matters if dirty rectangle tracking is turned on.
+     */
+    public void markDirty(int x, int y, int width, int height) {
+        if (drawnThisFrame != null) {
+            drawnThisFrame.add(x, y, width, height);
+        }
+    }
+
+    /**
+     * Tells the canvas that something was drawn in the given area this frame.
+     * (See the {@link Rectangle} class.)
+     */
+    public void markDirty(Rectangle rect) {
+        markDirty(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Makes the next frame clear and show the whole canvas, for example after
+     * drawing something without telling the canvas where.
+     */
+    public void markEverythingDirty() {
+        fullFrameNeeded = true;
+    }
+
+    /**
+     * Used by the drawing functions to tell whichever canvas owns the given
+     * graphics object that something was drawn. Does nothing if no canvas
+     * is tracking dirty rectangles.
+     */
+    static void markDirty(Graphics2D g, int x, int y, int width, int height) {
+        GraphicsCanvas canvas = findHooked(g);
+        if (canvas != null) {
+            canvas.markDirty(x, y, width, height);
+        }
+    }
+
+    /**
+     * Finds the canvas that owns the given graphics object, if that canvas
+     * is tracking dirty rectangles, recording, or caching text or shapes. Otherwise
+     * returns null.
+     */
+    static GraphicsCanvas findHooked(Graphics2D g) {
+        GraphicsCanvas[] canvases = hookedCanvases;
+        for (int i = 0; i < canvases.length; i++) {
+            if (canvases[i].graphics == g || canvases[i].scaledGraphics == g || canvases[i].deferredGraphics == g) {
+                return canvases[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Used by the drawing functions to find out if they should record into
+     * a {@link DisplayList} instead of drawing. Returns null if not.
+     */
+    static DisplayList getRecording(Graphics2D g) {
+        GraphicsCanvas canvas = findHooked(g);
+        return canvas == null ? null : canvas.recordingFor(g);
+    }
+
+    /**
+     * Gets the list the drawing functions should add to when drawing on this
+     * canvas with g, or null if they should draw right away.
+     *
+     * Things only get saved up for the software rasterizer if they're drawn
+     * with the canvas's own graphics object, and it isn't moved, scaled,
+     * clipped, or blending some other way, since the rasterizer can't do any
+     * of that. Anything else gets drawn by Java right away, after whatever was
+     * saved up so far, so everything still stacks up in the right order.
+     */
+    DisplayList recordingFor(Graphics2D g) {
+        if (recording == null || recording != deferred) {
+            return recording;
+        }
+        if (g != graphics || !SoftwareRasterizer.canDraw(g)) {
+            drawDeferred();
+            return null;
+        }
+        if (!hasSameHints(g, deferredGraphics)) {
+            // What's saved up so far gets drawn with the settings it was drawn with.
+            drawDeferred();
+            deferredGraphics.setRenderingHints(g.getRenderingHints());
+        }
+        return deferred;
+    }
+
+    // The settings that change how saved up drawing comes out.
+    static final RenderingHints.Key[] drawingHints = {
+        RenderingHints.KEY_ANTIALIASING, RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.KEY_RENDERING,
+        RenderingHints.KEY_STROKE_CONTROL, RenderingHints.KEY_INTERPOLATION, RenderingHints.KEY_FRACTIONALMETRICS
+    };
+
+    static boolean hasSameHints(Graphics2D a, Graphics2D b) {
+        for (RenderingHints.Key key : drawingHints) {
+            if (a.getRenderingHint(key) != b.getRenderingHint(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds or removes this canvas from the list of hooked canvases depending
+     * on whether it needs to hear from the drawing functions.
+     */
+    void updateHook() {
+        boolean wantsHook = drawnThisFrame != null || recording != null || textCache != null || shapeCache != null;
+        synchronized (GraphicsCanvas.class) {
+            GraphicsCanvas[] canvases = new GraphicsCanvas[hookedCanvases.length + 1];
+            int n = 0;
+            for (GraphicsCanvas c : hookedCanvases) {
+                if (c != this) {
+                    canvases[n++] = c;
+                }
+            }
+            if (wantsHook) {
+                canvases[n++] = this;
+            }
+            hookedCanvases = Arrays.copyOf(canvases, n);
+        }
+    }
+
+    /**
+     * Starts recording. Until you call {@link #stopRecording}, the drawing
+     * functions in {@link GraphicsExample} will add commands to the given
+     * {@link DisplayList} instead of drawing on this canvas. Then you can
+     * draw the list with {@link DisplayList#replay} or {@link #drawChanges}.
+     */
+    public void startRecording(DisplayList list) {
+        getGraphics2D(); // the drawing functions find us by our graphics object
+        recording = list;
+        updateHook();
+    }
+
+    /**
+     * Stops recording. See {@link #startRecording}.
+     */
+    public void stopRecording() {
+        recording = deferred; // go back to saving things up for the rasterizer, if there is one
+        updateHook();
+    }
+
+    /**
+     * Makes {@link GraphicsExample#drawText} draw text on this canvas using the
+     * given {@link TextCache}, so text that gets drawn over and over is just
+     * a quick image copy. Pass null to go back to drawing text normally.
+     */
+    public void setTextCache(TextCache cache) {
+        getGraphics2D(); // the drawing functions find us by our graphics object
+        textCache = cache;
+        updateHook();
+    }
+
+    /**
+     * Gets the {@link TextCache} this canvas is using, or null if it isn't using one.
+     */
+    public TextCache getTextCache() {
+        return textCache;
+    }
+
+    /**
+     * Makes the outline and triangle drawing functions in {@link GraphicsExample}
+     * use the given {@link ShapeCache} on this canvas, so shapes that get
+     * drawn over and over don't have to be worked out again every time. Pass
+     * null to go back to drawing them normally.
+     */
+    public void setShapeCache(ShapeCache cache) {
+        getGraphics2D(); // the drawing functions find us by our graphics object
+        shapeCache = cache;
+        updateHook();
+    }
+
+    /**
+     * Gets the {@link ShapeCache} this canvas is using, or null if it isn't using one.
+     */
+    public ShapeCache getShapeCache() {
+        return shapeCache;
+    }
+
+    /**
+     * Starts a batch. Until you call {@link #flushBatch}, the drawing functions
+     * in {@link GraphicsExample} will save up what they draw instead of drawing
+     * it right away. Then flushBatch draws it all at once, grouped by color,
+     * line thickness, and font, so there are fewer changes in between.
+     */
+    public void startBatch() {
+        if (batch == null) {
+            batch = new DisplayList();
+        }
+        batch.clear();
+        startRecording(batch);
+    }
+
+    /**
+     * Draws everything saved up since {@link #startBatch}. Shapes that overlap
+     * still come out in the order you drew them.
+     */
+    public void flushBatch() {
+        stopRecording();
+        drawDeferred(); // anything from before the batch goes underneath it
+        Graphics2D g = getGraphics2D();
+        if (batchState == null || batchState.getGraphics() != g) {
+            batchState = new GraphicsState(g);
+        }
+        batch.replaySorted(batchState);
+        batch.clear();
+    }
+
+    /**
+     * Gets the {@link GraphicsState} used to draw batches, so you can see how
+     * many color and stroke changes were skipped. Null until the first batch.
+     */
+    public GraphicsState getBatchState() {
+        return batchState;
+    }
+
+    /**
+     * Draws a recorded frame, but only redraws what changed since the previous
+     * recorded frame. If nothing changed at all, nothing gets drawn and this
+     * returns false, so you can skip presenting entirely. Don't call
+     * {@link #clear} first; this clears just the parts that need it.
+     *
+     * <pre>
+     * canvas.startRecording(frame);
+     * // draw things
+     * canvas.stopRecording();
+     * if (canvas.drawChanges(frame, previousFrame)) {
+     *     canvas.present();
+     * }
+     * // swap frame and previousFrame, then clear frame for next time
+     * </pre>
+     */
+    public boolean drawChanges(DisplayList frame, DisplayList previousFrame) {
+        drawDeferred();
+        Graphics2D g = getGraphics2D();
+        updateLayers(g);
+        if (fullFrameNeeded || !keepsContentsBetweenFrames()) {
+            g.clearRect(0, 0, width, height);
+            drawLayers(g, true, 0, 0, width, height);
+            frame.replay(g);
+            markDirty(0, 0, width, height);
+            return true;
+        }
+
+        if (changedRegions == null) {
+            changedRegions = new DirtyRegions(width, height, 16);
+        }
+        changedRegions.clear();
+        if (!frame.findChanges(previousFrame, changedRegions)) {
+            return false;
+        }
+
+        // Clear each changed area and redraw everything that touches it.
+        Shape oldClip = g.getClip();
+        for (int i = 0; i < changedRegions.getCount(); i++) {
+            int x = changedRegions.getX(i);
+            int y = changedRegions.getY(i);
+            int w = changedRegions.getWidth(i);
+            int h = changedRegions.getHeight(i);
+            g.setClip(x, y, w, h);
+            g.clearRect(x, y, w, h);
+            drawLayers(g, true, x, y, w, h);
+            frame.replayIntersecting(g, x, y, w, h);
+            markDirty(x, y, w, h);
+        }
+        g.setClip(oldClip);
+        return true;
+    }
+
+    /**
+     * Makes this canvas draw filled shapes with the given
+     * {@link SoftwareRasterizer}, which draws them on all your cores at once.
+     * The canvas draws into the rasterizer's image from now on, and the
+     * drawing functions in {@link GraphicsExample} save up what they draw
+     * until {@link #present}, then hand it all to the rasterizer. Pass null to
+     * go back to drawing normally.
+     *
+     * Only works without page flipping, since the rasterizer needs an image it
+     * can write pixels into. Anything you draw with the Graphics2D object
+     * directly is drawn right away, so it ends up underneath whatever the
+     * drawing functions drew that frame. The drawing functions draw right
+     * away too while the Graphics2D is clipped, moved, scaled, or blending
+     * some other way, since the rasterizer can't do those.
+     */
+    public void setSoftwareRasterizer(SoftwareRasterizer rasterizer) {
+        if (presentMode == null) {
+            throw new IllegalStateException("Could not setSoftwareRasterizer because you need to call initializeBuffer first!");
+        }
+        if (presentMode == PresentMode.PageFlip) {
+            throw new IllegalStateException("The software rasterizer can't draw into a page flipping buffer. Use initializeBuffer instead.");
+        }
+        if (rasterizer != null && (rasterizer.getWidth() != width || rasterizer.getHeight() != height)) {
+            throw new IllegalArgumentException("The rasterizer must be the same size as the canvas!");
+        }
+
+        drawDeferred();
+        boolean wasDeferring = recording == null || recording == deferred;
+        if (graphics != null) {
+            savedHints = (RenderingHints) graphics.getRenderingHints().clone();
+            savedBackground = graphics.getBackground();
+            graphics.dispose();
+            graphics = null;
+        }
+
+        if (deferredGraphics != null) {
+            deferredGraphics.dispose();
+            deferredGraphics = null;
+        }
+        if (rasterizer != null) {
+            if (this.rasterizer == null) {
+                imageBeforeRasterizer = bufferImage;
+            }
+            bufferImage = rasterizer.getImage();
+            if (deferred == null) {
+                deferred = new DisplayList();
+            }
+            deferredGraphics = rasterizer.getImage().createGraphics();
+        } else if (this.rasterizer != null) {
+            bufferImage = imageBeforeRasterizer;
+            imageBeforeRasterizer = null;
+            deferred = null;
+        }
+        this.rasterizer = rasterizer;
+        markEverythingDirty();
+
+        getGraphics2D(); // the drawing functions find us by our graphics object
+        if (wasDeferring) {
+            recording = deferred; // unless someone is recording into their own list
+        }
+        updateHook();
+    }
+
+    /**
+     * Gets the {@link SoftwareRasterizer} this canvas is using, or null if it isn't using one.
+     */
+    public SoftwareRasterizer getSoftwareRasterizer() {
+        return rasterizer;
+    }
+
+    /**
+     * Adds a layer to the canvas: a picture that gets drawn once by the
+     * painter and then reused every frame, until you call
+     * {@link CanvasLayer#invalidate}. Good for backgrounds and other things
+     * that hardly ever change.
+     *
+     * Layers with a negative z go behind what you draw each frame (they get
+     * put down by {@link #clear}), and layers with a positive z go in front
+     * of it (they get put on top by {@link #present}). Layers in front make
+     * dirty rectangle tracking clear the whole canvas every frame, so put
+     * things behind when you can.
+     */
+    public CanvasLayer addLayer(String name, int z, CanvasLayer.Painter painter) {
+        if (z == 0) {
+            throw new IllegalArgumentException("A layer's z can't be 0, since that's where the frame itself goes. Use a negative z for behind or a positive z for in front.");
+        }
+        if (getLayer(name) != null) {
+            throw new IllegalArgumentException("There is already a layer named \"" + name + "\"!");
+        }
+        CanvasLayer layer = new CanvasLayer(this, name, z, painter);
+        int i = 0;
+        while (i < layers.size() && layers.get(i).z <= z) {
+            i++;
+        }
+        layers.add(i, layer);
+        return layer;
+    }
+
+    /**
+     * Gets the layer with the given name, or null if there isn't one.
+     */
+    public CanvasLayer getLayer(String name) {
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).name.equals(name)) {
+                return layers.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the layer with the given name, if there is one.
+     */
+    public void removeLayer(String name) {
+        CanvasLayer layer = getLayer(name);
+        if (layer != null) {
+            layers.remove(layer);
+            markEverythingDirty();
+        }
+    }
+
+    /**
+     * Draws any layers that need it. If any of them changed, or there are
+     * layers in front (which can't be put back on just part of the frame),
+     * the whole frame has to be cleared and shown again.
+     */
+    void updateLayers(Graphics2D g) {
+        for (int i = 0; i < layers.size(); i++) {
+            CanvasLayer layer = layers.get(i);
+            if (layer.update(g) || (layer.z > 0 && layer.isShown())) {
+                fullFrameNeeded = true;
+            }
+        }
+    }
+
+    /**
+     * Copies part of every layer behind (or in front of) the frame onto g.
+     */
+    void drawLayers(Graphics2D g, boolean behind, int x, int y, int width, int height) {
+        for (int i = 0; i < layers.size(); i++) {
+            CanvasLayer layer = layers.get(i);
+            if ((layer.z < 0) == behind) {
+                layer.draw(g, x, y, width, height);
+            }
+        }
+    }
+
+    /**
+     * Hands everything saved up for the rasterizer over to it.
+     */
+    void drawDeferred() {
+        if (deferred != null && deferred.getCommandCount() > 0) {
+            rasterizer.render(deferred, deferredGraphics);
+            deferred.clear();
+        }
+    }
+
+    /**
+     * Returns true if whatever we drew last frame is still in the buffer when
+     * the next frame starts. True page flipping swaps in a different buffer,
+     * so we have to clear everything in that case.
+     */
+    boolean keepsContentsBetweenFrames() {
+        if (presentMode == PresentMode.PageFlip) {
+            return !bufferStrategy.getCapabilities().isPageFlipping();
+        }
+        return true;
+    }
+
+    /**
+     * Clears the contents of the buffer, and puts down any layers that go
+     * behind the frame. With dirty rectangle tracking, only clears the parts
+     * that were drawn on last frame.
      */
     public void clear() {
+        if (deferred != null) {
+            deferred.clear(); // it would just get cleared anyway
+        }
         Graphics2D bufferGraphics = getGraphics2D();
-        bufferGraphics.clearRect(0, 0, width, height);
+        updateLayers(bufferGraphics);
+        if (drawnThisFrame == null || fullFrameNeeded || !keepsContentsBetweenFrames()) {
+            bufferGraphics.clearRect(0, 0, width, height);
+            drawLayers(bufferGraphics, true, 0, 0, width, height);
+            return;
+        }
+
+        for (int i = 0; i < drawnLastFrame.getCount(); i++) {
+            int x = drawnLastFrame.getX(i);
+            int y = drawnLastFrame.getY(i);
+            int w = drawnLastFrame.getWidth(i);
+            int h = drawnLastFrame.getHeight(i);
+            bufferGraphics.clearRect(x, y, w, h);
+            drawLayers(bufferGraphics, true, x, y, w, h);
+        }
+    }
+
+    /**
+     * Puts any layers that go in front of the frame on top, then shows
+     * everything that has been drawn since the last call to present.
+     */
+    public void present() {
+        drawDeferred();
+        if (!layers.isEmpty()) {
+            drawLayers(getGraphics2D(), false, 0, 0, width, height);
+        }
+        boolean wiped = false;
+        switch (presentMode) {
+            case Repaint:
+                if (drawnThisFrame == null || fullFrameNeeded) {
+                    repaint();
+                } else {
+                    // Show what we erased from last frame plus what we drew this frame.
+                    presentRegions.clear();
+                    presentRegions.addAll(drawnLastFrame);
+                    presentRegions.addAll(drawnThisFrame);
+                    for (int i = 0; i < presentRegions.getCount(); i++) {
+                        repaint(presentRegions.getX(i), presentRegions.getY(i), presentRegions.getWidth(i), presentRegions.getHeight(i));
+                    }
+                }
+                break;
+            case PageFlip:
+                if (graphics != null) {
+                    savedHints = (RenderingHints) graphics.getRenderingHints().clone();
+                    savedBackground = graphics.getBackground();
+                    graphics.dispose();
+                    graphics = null;
+                }
+
+                if (bufferStrategy.contentsLost()) {
+                    // The back buffer got wiped while we were drawing. We can't
+                    // draw the frame again from here, so skip it; the next frame
+                    // will draw into a fresh buffer.
+                    lostFrames++;
+                    wiped = true;
+                } else {
+                    bufferStrategy.show();
+                    // If a buffer got wiped or put back while showing, whatever is
+                    // in it now is garbage, so only clearing part of it won't do.
+                    wiped = bufferStrategy.contentsRestored() || bufferStrategy.contentsLost();
+                }
+                Toolkit.getDefaultToolkit().sync(); // make sure the frame actually goes out on Linux
+                break;
+            case Offscreen:
+                break;
+        }
+
+        if (drawnThisFrame != null) {
+            DirtyRegions temp = drawnLastFrame;
+            drawnLastFrame = drawnThisFrame;
+            drawnThisFrame = temp;
+            drawnThisFrame.clear();
+        }
+        fullFrameNeeded = wiped;
     }
 
     @Override
@@ -64,10 +785,21 @@ public class GraphicsCanvas extends Panel {
         */
         paint(g);
     }
-    
+
     @Override
     public void paint(Graphics g) {
-        g.drawImage(bufferImage, 0, 0, this);
+        if (presentMode == PresentMode.Repaint) {
+            // Only copy the part of the buffer that actually needs to be shown.
+            java.awt.Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                g.drawImage(bufferImage, 0, 0, this);
+            } else {
+                int x2 = clip.x + clip.width;
+                int y2 = clip.y + clip.height;
+                g.drawImage(bufferImage, clip.x, clip.y, x2, y2, clip.x, clip.y, x2, y2, this);
+            }
+        }
+        // When page flipping, the next call to present will put a new frame up.
     }
 
     // ignore. stupid warnings!
@@ -1,95 +1,205 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class GraphicsExample {
-    public static void main(String[] args) throws InterruptedException {
-        Frame window = createWindow();
-        GraphicsCanvas canvas = createCanvas(window);
+    public static void main(String[] args) throws IOException {
+        // Run with "--record session.bin" to save everything you do with the
+        // mouse and keyboard, or "--replay session.bin" to play it back without
+        // a window, as fast as possible. See InputRecorder and InputReplayer.
+        String recordFile = args.length == 2 && args[0].equals("--record") ? args[1] : null;
+        String replayFile = args.length == 2 && args[0].equals("--replay") ? args[1] : null;
+
+        Frame window = null;
+        GraphicsCanvas canvas;
+        if (replayFile == null) {
+            window = createWindow();
+            canvas = createCanvas(window);
+        } else {
+            System.setProperty("java.awt.headless", "true"); // no window needed
+            canvas = createOffscreenCanvas(800, 600);
+        }
         MouseHelper mouse = new MouseHelper(canvas);
         KeyboardHelper keyboard = new KeyboardHelper(canvas);
-
-        Graphics2D g = canvas.getGraphics2D(); // a short name is ok because we will be using it a lot!
+        InputRecorder recorder = recordFile == null ? null : new InputRecorder(Paths.get(recordFile), mouse, keyboard);
+        InputReplayer replayer = replayFile == null ? null : new InputReplayer(Paths.get(replayFile), mouse, keyboard);
+        if (recorder != null) {
+            // Closing the window quits right away, so save the recording on the way out.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
 
         // This is where our real program starts!
 
-        double startTime = getCurrentTime();
+        // The scheduler keeps us at a steady 60 frames per second, and tells us
+        // how many times to move things each frame.
+        FrameScheduler scheduler = new FrameScheduler(60);
+        if (replayer != null) {
+            scheduler.waitForNextFrame = false; // go as fast as we can
+        }
 
         int characterX = 100;
         int characterY = 100;
         int characterSize = 10;
         int characterSpeed = 2;
+        int previousCharacterX = characterX;
+        int previousCharacterY = characterY;
 
         int numButtonClicks = 0;
-
-        while (true) {
-            canvas.clear(); // clear everything we drew on the last frame
-
-            // Get how long it has been since the program started
-            double timeSinceStart = getCurrentTime() - startTime;
-
-            // Draw some example stuff
-            Font plainFont = new Font("Serif", Font.PLAIN, 24);
+        StringBuilder buttonText = new StringBuilder(); // reused every frame, so we don't make a new String each time
+
+        Font plainFont = new Font("Serif", Font.PLAIN, 24); // make fonts once, not every frame
+        Font profilerFont = new Font("Monospaced", Font.PLAIN, 14);
+        Point profilerPosition = new Point(440, 10);
+
+        // The profiler times each part of the frame. Press F3 to see the results.
+        // It's off until then, so it doesn't cost anything while nobody's looking.
+        FrameProfiler profiler = new FrameProfiler();
+        profiler.setEnabled(false);
+        int clearPhase = profiler.addPhase("clear");
+        int updatePhase = profiler.addPhase("update");
+        int drawPhase = profiler.addPhase("draw");
+        int presentPhase = profiler.addPhase("present");
+        int inputPhase = profiler.addPhase("input");
+        // profiler.setExportFile("profile.csv", 5); // uncomment (along with setEnabled(true)) to save the timings every 5 seconds
+
+        // If frames start taking too long, this turns down the quality to keep up.
+        QualityGovernor quality = new QualityGovernor(60);
+
+        // Draw some example stuff. None of this ever moves, so it goes on a
+        // layer behind everything else. It only gets drawn once, and after
+        // that the canvas just copies the picture every frame.
+        canvas.addLayer("background", -1, g -> {
             drawText(g, "Hello, this is a graphics example!", Color.BLACK, plainFont, new Point(20, 20));
             drawText(g, "Press the arrow keys and move the mouse.", Color.BLACK, plainFont, new Point(20, 50));
-            
+
             drawRectangle(g, Color.ORANGE, new Rectangle(400, 200, 100, 50));
             drawRectangleOutline(g, Color.GRAY, 3, new Rectangle(450, 175, 100, 100));
             drawEllipse(g, Color.GREEN, new Point(200, 200), 30, 15);
             drawCircle(g, Color.RED, new Point(400, 400), 40);
             drawLine(g, Color.CYAN, 2, new Point(200, 200), new Point(400, 400));
             drawTriangle(g, Color.BLUE, new Point(50, 200), new Point(150, 200), new Point(100, 300));
+        });
+
+        while (replayer == null || replayer.nextFrame()) {
+            // When replaying, the scheduler uses the recorded time between
+            // frames instead of the clock, so everything moves the same way.
+            int updates = replayer == null ? scheduler.beginFrame() : scheduler.beginFrame(replayer.getElapsedNanos());
+            profiler.beginFrame();
+
+            Graphics2D g = quality.beginFrame(canvas); // a short name is ok because we will be using it a lot!
+            profiler.begin(clearPhase);
+            canvas.clear(); // clear everything we drew on the last frame, and put the background back
+            profiler.end(clearPhase);
+            profiler.begin(drawPhase);
+
+            // Get how long it has been since the program started. This comes
+            // from the scheduler instead of the clock so replays come out the same.
+            double timeSinceStart = scheduler.getElapsedSeconds();
 
             // Custom colors can be done by doing `new Color()` with four numbers
             // ranging from 0 to 255. Google "color picker" to make it easier to find
             // the color you want! In this example I'm just doing a thing that cycles
-            // through colors.
-            Color fancyColor = new Color(
+            // through colors, so instead of making a new Color every frame it packs
+            // the four numbers into one int, like 0xAARRGGBB.
+            int fancyColor = packColor(
                 (int) (timeSinceStart * 100) % 255, // red
                 0, // green
                 255, // blue
                 255 // "alpha" (0 is transparent, 255 is opaque)
             );
-            drawRectangle(g, fancyColor, new Rectangle(
+            drawRectangle(g, fancyColor,
                 600,
                 400,
                 (int)(Math.cos(timeSinceStart) * 100),
                 (int)(Math.sin(timeSinceStart) * 100)
-            ));
+            );
 
-            // Move and draw our little character
-            if (keyboard.isKeyDown(KeyEvent.VK_LEFT)) {
-                characterX -= characterSpeed;
-            }
-            if (keyboard.isKeyDown(KeyEvent.VK_RIGHT)) {
-                characterX += characterSpeed;
-            }
-            if (keyboard.isKeyDown(KeyEvent.VK_UP)) {
-                characterY -= characterSpeed;
+            // Move our little character. This runs once per update, so the
+            // character moves at the same speed even if drawing is slow.
+            profiler.end(drawPhase);
+            profiler.begin(updatePhase);
+            for (int i = 0; i < updates; i++) {
+                previousCharacterX = characterX;
+                previousCharacterY = characterY;
+
+                if (keyboard.isKeyDown(KeyEvent.VK_LEFT)) {
+                    characterX -= characterSpeed;
+                }
+                if (keyboard.isKeyDown(KeyEvent.VK_RIGHT)) {
+                    characterX += characterSpeed;
+                }
+                if (keyboard.isKeyDown(KeyEvent.VK_UP)) {
+                    characterY -= characterSpeed;
+                }
+                if (keyboard.isKeyDown(KeyEvent.VK_DOWN)) {
+                    characterY += characterSpeed;
+                }
             }
-            if (keyboard.isKeyDown(KeyEvent.VK_DOWN)) {
-                characterY += characterSpeed;
+            if (keyboard.isKeyDownThisFrame(KeyEvent.VK_F3)) {
+                profiler.overlayVisible = !profiler.overlayVisible;
+                profiler.setEnabled(profiler.overlayVisible);
             }
-
-            Point characterPosition = new Point(characterX, characterY);
-            drawCircle(g, Color.MAGENTA, characterPosition, characterSize);
-            if (mouse.isInRectangle(getCircleBoundingBox(characterPosition, characterSize))) {
-                drawText(g, "Hello!", Color.BLACK, plainFont, new Point(characterX, characterY));
+            profiler.end(updatePhase);
+            profiler.begin(drawPhase);
+
+            // Draw the character smoothly between where it was and where it is now
+            int characterDrawX = (int) scheduler.interpolate(previousCharacterX, characterX);
+            int characterDrawY = (int) scheduler.interpolate(previousCharacterY, characterY);
+            drawCircle(g, Color.MAGENTA, characterDrawX, characterDrawY, characterSize);
+            if (mouse.isInRectangle(characterDrawX - characterSize, characterDrawY - characterSize, characterSize * 2, characterSize * 2)) {
+                drawText(g, "Hello!", Color.BLACK, plainFont, characterDrawX, characterDrawY);
             }
 
-            if (doButton(g, mouse, Color.BLUE, new Rectangle(300, 100, 50, 25))) {
+            if (doButton(g, mouse, Color.BLUE, 300, 100, 50, 25)) {
                 numButtonClicks += 1;
             }
-            drawText(g, "Button clicked " + numButtonClicks + " times", Color.BLACK, plainFont, new Point(360, 120));
+            buttonText.setLength(0);
+            buttonText.append("Button clicked ").append(numButtonClicks).append(" times");
+            drawText(g, buttonText, Color.BLACK, plainFont, 360, 120);
 
             // Draw a little mouse cursor
-            drawCircle(g, mouse.isPrimaryButtonDown() ? Color.YELLOW : Color.BLUE, mouse.getXY(), 5);
+            drawCircle(g, mouse.isPrimaryButtonDown() ? Color.YELLOW : Color.BLUE, mouse.getX(), mouse.getY(), 5);
             drawMousePosition(g, mouse);
-
-            canvas.repaint(); // tell the canvas to actually show all the stuff we just did
+            profiler.drawOverlay(g, profilerFont, profilerPosition);
+            profiler.end(drawPhase);
+
+            profiler.begin(presentPhase);
+            quality.endFrame(canvas);
+            canvas.present(); // tell the canvas to actually show all the stuff we just did
+            profiler.end(presentPhase);
+            profiler.begin(inputPhase);
+            if (replayer != null) {
+                replayer.applyInput(); // pretend the recorded input just happened
+            }
             mouse.resetForNextFrame();
             keyboard.resetForNextFrame();
-            Thread.sleep(1000 / 60); // pause for the number of milliseconds that gives us 60 frames per second
+            if (recorder != null) {
+                recorder.endFrame(scheduler);
+            }
+            profiler.end(inputPhase);
+            profiler.endFrame();
+            scheduler.endFrame(); // wait until it's time for the next frame
+            if (replayer == null) {
+                // A replay runs flat out, so its frame times don't mean anything
+                // here, and changing quality would make replays come out different.
+                quality.addFrameTime(scheduler.getLastWorkSeconds());
+            }
         }
+
+        // Only replays get here, once the recording runs out. (The F3 overlay
+        // shows real timings, so a replay that turns it on won't come out the
+        // same twice.)
+        System.out.printf("Replayed %d frames at %.1f frames per second%n", replayer.getFrameCount(), replayer.getFramesPerSecond());
+        System.out.printf("Final frame checksum: %08x%n", InputReplayer.checksum(canvas.getBufferedImage()));
+        replayer.close();
     }
 
     // ----------------------------------------------------
@@ -114,6 +224,17 @@ public class GraphicsExample {
         return window;
     }
 
+    /**
+     * Creates a {@link GraphicsCanvas} that draws into an image instead of a
+     * window, for when there's no screen.
+     */
+    public static GraphicsCanvas createOffscreenCanvas(int width, int height) {
+        GraphicsCanvas canvas = new GraphicsCanvas(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        Graphics2D g = canvas.getGraphics2D();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); // same as createCanvas
+        return canvas;
+    }
+
     /**
      * Creates a {@link GraphicsCanvas} to fit inside the provided window.
      */
@@ -122,7 +243,7 @@ public class GraphicsExample {
         window.add(canvas);
         window.validate();
 
-        canvas.initializeBuffer();
+        canvas.initializeBufferStrategy(2); // flip between two buffers so we never show a half-drawn frame
         
         Graphics2D g = canvas.getGraphics2D();
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON); // draw everything with antialiasing (smoother edges)
@@ -136,21 +257,92 @@ public class GraphicsExample {
 
     static Font defaultFont = new Font("Serif", Font.PLAIN, 18);
 
+    /**
+     * Scratch space for the drawing functions, so they don't have to make new
+     * arrays every time.
+     */
+    static class Scratch {
+        int[] triangleXs = new int[3];
+        int[] triangleYs = new int[3];
+        char[] textChars = new char[64];
+        StringBuilder mousePositionText = new StringBuilder();
+    }
+
+    // Each thread gets its own scratch space, so two threads drawing into
+    // different images at the same time don't mess up each other's shapes.
+    static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // Every drawing function also comes in a version that takes plain numbers
+    // instead of Points and Rectangles, and a version that takes the color as
+    // one packed number like 0xFF0000FF (alpha, red, green, blue). Those
+    // versions don't make any new objects, which helps if you draw thousands
+    // of things every frame.
+
     /**
      * Draws a line from the start point to the end point. You can set the line's color and thickness.
      */
     public static void drawLine(Graphics2D g, Color color, int thickness, Point start, Point end) {
-        g.setColor(color);
-        g.setStroke(new BasicStroke(thickness));
-        g.drawLine(start.x, start.y, end.x, end.y);
+        drawLine(g, color, thickness, start.x, start.y, end.x, end.y);
+    }
+
+    /**
+     * Draws a line from (x1, y1) to (x2, y2). You can set the line's color and thickness.
+     */
+    public static void drawLine(Graphics2D g, Color color, int thickness, int x1, int y1, int x2, int y2) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.drawLine(color, thickness, x1, y1, x2, y2);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        GraphicsState.applyStroke(g, thickness);
+        g.drawLine(x1, y1, x2, y2);
+        markDirty(g, Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1), thickness);
+    }
+
+    /**
+     * Draws a line from (x1, y1) to (x2, y2), with the color packed into one
+     * number like 0xFF0000FF (alpha, red, green, blue). See {@link #packColor}.
+     */
+    public static void drawLine(Graphics2D g, int argb, int thickness, int x1, int y1, int x2, int y2) {
+        drawLine(g, GraphicsState.getColor(argb), thickness, x1, y1, x2, y2);
     }
 
     /**
      * Draws an ellipse, centered at a point, with an x radius and a y radius. You can set the ellipse's color.
      */
     public static void drawEllipse(Graphics2D g, Color color, Point center, int radiusX, int radiusY) {
-        g.setColor(color);
-        g.fillOval(center.x - radiusX, center.y - radiusY, radiusX * 2, radiusY * 2);
+        drawEllipse(g, color, center.x, center.y, radiusX, radiusY);
+    }
+
+    /**
+     * Draws an ellipse, centered at (centerX, centerY), with an x radius and a y radius.
+     */
+    public static void drawEllipse(Graphics2D g, Color color, int centerX, int centerY, int radiusX, int radiusY) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.fillOval(color, centerX - radiusX, centerY - radiusY, radiusX * 2, radiusY * 2);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        if (canvas != null && canvas.shapeCache != null) {
+            canvas.shapeCache.fillOval(g, centerX - radiusX, centerY - radiusY, radiusX * 2, radiusY * 2);
+        } else {
+            g.fillOval(centerX - radiusX, centerY - radiusY, radiusX * 2, radiusY * 2);
+        }
+        markDirty(g, centerX - radiusX, centerY - radiusY, radiusX * 2, radiusY * 2, 0);
+    }
+
+    /**
+     * Draws an ellipse, centered at (centerX, centerY), with the color packed
+     * into one number. See {@link #packColor}.
+     */
+    public static void drawEllipse(Graphics2D g, int argb, int centerX, int centerY, int radiusX, int radiusY) {
+        drawEllipse(g, GraphicsState.getColor(argb), centerX, centerY, radiusX, radiusY);
     }
 
     /**
@@ -158,16 +350,59 @@ public class GraphicsExample {
      * You can set the outline's color and thickness.
      */
     public static void drawEllipseOutline(Graphics2D g, Color color, int thickness, Point center, int radiusX, int radiusY) {
-        g.setColor(color);
-        g.setStroke(new BasicStroke(thickness));
-        g.drawOval(center.x - radiusX, center.y - radiusY, radiusX * 2 - 1, radiusY * 2 - 1); // This function draws an oval that is one pixel too wide for some reason. I don't know why!
+        drawEllipseOutline(g, color, thickness, center.x, center.y, radiusX, radiusY);
+    }
+
+    /**
+     * Draws the outline of an ellipse, centered at (centerX, centerY), with an x radius and a y radius.
+     */
+    public static void drawEllipseOutline(Graphics2D g, Color color, int thickness, int centerX, int centerY, int radiusX, int radiusY) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.drawOval(color, thickness, centerX - radiusX, centerY - radiusY, radiusX * 2 - 1, radiusY * 2 - 1);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        GraphicsState.applyStroke(g, thickness);
+        // drawOval draws an oval that is one pixel too wide for some reason. I don't know why!
+        if (canvas != null && canvas.shapeCache != null) {
+            canvas.shapeCache.drawOval(g, thickness, centerX - radiusX, centerY - radiusY, radiusX * 2 - 1, radiusY * 2 - 1);
+        } else {
+            g.drawOval(centerX - radiusX, centerY - radiusY, radiusX * 2 - 1, radiusY * 2 - 1);
+        }
+        markDirty(g, centerX - radiusX, centerY - radiusY, radiusX * 2, radiusY * 2, thickness);
+    }
+
+    /**
+     * Draws the outline of an ellipse, centered at (centerX, centerY), with the
+     * color packed into one number. See {@link #packColor}.
+     */
+    public static void drawEllipseOutline(Graphics2D g, int argb, int thickness, int centerX, int centerY, int radiusX, int radiusY) {
+        drawEllipseOutline(g, GraphicsState.getColor(argb), thickness, centerX, centerY, radiusX, radiusY);
     }
 
     /**
      * Draws a circle, centered at a point, with a given radius. You can set the circle's color.
      */
     public static void drawCircle(Graphics2D g, Color color, Point center, int radius) {
-        drawEllipse(g, color, center, radius, radius);
+        drawEllipse(g, color, center.x, center.y, radius, radius);
+    }
+
+    /**
+     * Draws a circle, centered at (centerX, centerY), with a given radius.
+     */
+    public static void drawCircle(Graphics2D g, Color color, int centerX, int centerY, int radius) {
+        drawEllipse(g, color, centerX, centerY, radius, radius);
+    }
+
+    /**
+     * Draws a circle, centered at (centerX, centerY), with the color packed
+     * into one number. See {@link #packColor}.
+     */
+    public static void drawCircle(Graphics2D g, int argb, int centerX, int centerY, int radius) {
+        drawEllipse(g, GraphicsState.getColor(argb), centerX, centerY, radius, radius);
     }
 
     /**
@@ -175,7 +410,22 @@ public class GraphicsExample {
      * You can set the outline's color and thickness.
      */
     public static void drawCircleOutline(Graphics2D g, Color color, int thickness, Point center, int radius) {
-        drawEllipseOutline(g, color, thickness, center, radius, radius);
+        drawEllipseOutline(g, color, thickness, center.x, center.y, radius, radius);
+    }
+
+    /**
+     * Draws the outline of a circle, centered at (centerX, centerY), with a given radius.
+     */
+    public static void drawCircleOutline(Graphics2D g, Color color, int thickness, int centerX, int centerY, int radius) {
+        drawEllipseOutline(g, color, thickness, centerX, centerY, radius, radius);
+    }
+
+    /**
+     * Draws the outline of a circle, centered at (centerX, centerY), with the
+     * color packed into one number. See {@link #packColor}.
+     */
+    public static void drawCircleOutline(Graphics2D g, int argb, int thickness, int centerX, int centerY, int radius) {
+        drawEllipseOutline(g, GraphicsState.getColor(argb), thickness, centerX, centerY, radius, radius);
     }
 
     /**
@@ -183,10 +433,42 @@ public class GraphicsExample {
      * (See the {@link Rectangle} class.)
      */
     public static void drawRectangle(Graphics2D g, Color color, Rectangle rect) {
-        Rectangle normalizedRect = Rectangle.normalize(rect);
+        drawRectangle(g, color, rect.x, rect.y, rect.width, rect.height);
+    }
 
-        g.setColor(color);
-        g.fillRect(normalizedRect.x, normalizedRect.y, normalizedRect.width, normalizedRect.height);
+    /**
+     * Draws a rectangle with its top left at (x, y). Like a {@link Rectangle},
+     * the width and height can be negative.
+     */
+    public static void drawRectangle(Graphics2D g, Color color, int x, int y, int width, int height) {
+        // The same thing Rectangle.normalize does, without making a new Rectangle.
+        if (width < 0) {
+            x += width;
+            width = -width;
+        }
+        if (height < 0) {
+            y += height;
+            height = -height;
+        }
+
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.fillRect(color, x, y, width, height);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        g.fillRect(x, y, width, height);
+        markDirty(g, x, y, width, height, 0);
+    }
+
+    /**
+     * Draws a rectangle with its top left at (x, y), with the color packed
+     * into one number. See {@link #packColor}.
+     */
+    public static void drawRectangle(Graphics2D g, int argb, int x, int y, int width, int height) {
+        drawRectangle(g, GraphicsState.getColor(argb), x, y, width, height);
     }
 
     /**
@@ -195,19 +477,112 @@ public class GraphicsExample {
      * (See the {@link Rectangle} class.)
      */
     public static void drawRectangleOutline(Graphics2D g, Color color, int thickness, Rectangle rect) {
-        Rectangle normalizedRect = Rectangle.normalize(rect);
+        drawRectangleOutline(g, color, thickness, rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Draws the outline of a rectangle with its top left at (x, y). Like a
+     * {@link Rectangle}, the width and height can be negative.
+     */
+    public static void drawRectangleOutline(Graphics2D g, Color color, int thickness, int x, int y, int width, int height) {
+        if (width < 0) {
+            x += width;
+            width = -width;
+        }
+        if (height < 0) {
+            y += height;
+            height = -height;
+        }
+
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.drawRect(color, thickness, x, y, width, height);
+            return;
+        }
         
-        g.setColor(color);
-        g.setStroke(new BasicStroke(thickness));
-        g.drawRect(normalizedRect.x, normalizedRect.y, normalizedRect.width, normalizedRect.height);
+        GraphicsState.applyColor(g, color);
+        GraphicsState.applyStroke(g, thickness);
+        if (canvas != null && canvas.shapeCache != null) {
+            canvas.shapeCache.drawRect(g, thickness, x, y, width, height);
+        } else {
+            g.drawRect(x, y, width, height);
+        }
+        markDirty(g, x, y, width, height, thickness);
+    }
+
+    /**
+     * Draws the outline of a rectangle with its top left at (x, y), with the
+     * color packed into one number. See {@link #packColor}.
+     */
+    public static void drawRectangleOutline(Graphics2D g, int argb, int thickness, int x, int y, int width, int height) {
+        drawRectangleOutline(g, GraphicsState.getColor(argb), thickness, x, y, width, height);
+    }
+
+    /**
+     * Draws a sprite with its top left corner at the given point.
+     * (See the {@link Sprite} and {@link SpriteCache} classes.)
+     */
+    public static void drawSprite(Graphics2D g, Sprite sprite, Point position) {
+        drawSprite(g, sprite, position.x, position.y);
+    }
+
+    /**
+     * Draws a sprite with its top left corner at (x, y).
+     */
+    public static void drawSprite(Graphics2D g, Sprite sprite, int x, int y) {
+        Image image = sprite.getImage(); // loads the sprite if it isn't loaded yet
+        int sourceX = sprite.getImageX();
+        int sourceY = sprite.getImageY();
+        int width = sprite.getWidth();
+        int height = sprite.getHeight();
+
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.drawImage(image, sourceX, sourceY, width, height, x, y);
+            return;
+        }
+
+        g.drawImage(image, x, y, x + width, y + height,
+            sourceX, sourceY, sourceX + width, sourceY + height, null);
+        markDirty(g, x, y, width, height, 0);
     }
 
     /**
      * Draws a triangle with the three given corner points. You can set the triangle's color.
      */
     public static void drawTriangle(Graphics2D g, Color color, Point p1, Point p2, Point p3) {
-        g.setColor(color);
-        g.fillPolygon(new int[]{p1.x, p2.x, p3.x}, new int[]{p1.y, p2.y, p3.y}, 3);
+        drawTriangle(g, color, p1.x, p1.y, p2.x, p2.y, p3.x, p3.y);
+    }
+
+    /**
+     * Draws a triangle with corners at (x1, y1), (x2, y2), and (x3, y3).
+     */
+    public static void drawTriangle(Graphics2D g, Color color, int x1, int y1, int x2, int y2, int x3, int y3) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.fillTriangle(color, x1, y1, x2, y2, x3, y3);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        if (canvas != null && canvas.shapeCache != null) {
+            canvas.shapeCache.fillTriangle(g, x1, y1, x2, y2, x3, y3);
+        } else {
+            Scratch corners = setTriangle(x1, y1, x2, y2, x3, y3);
+            g.fillPolygon(corners.triangleXs, corners.triangleYs, 3);
+        }
+        markTriangleDirty(g, x1, y1, x2, y2, x3, y3, 0);
+    }
+
+    /**
+     * Draws a triangle with corners at (x1, y1), (x2, y2), and (x3, y3), with
+     * the color packed into one number. See {@link #packColor}.
+     */
+    public static void drawTriangle(Graphics2D g, int argb, int x1, int y1, int x2, int y2, int x3, int y3) {
+        drawTriangle(g, GraphicsState.getColor(argb), x1, y1, x2, y2, x3, y3);
     }
 
     /**
@@ -215,9 +590,52 @@ public class GraphicsExample {
      * You can set the outline's color and thickness.
      */
     public static void drawTriangleOutline(Graphics2D g, Color color, int thickness, Point p1, Point p2, Point p3) {
-        g.setColor(color);
-        g.setStroke(new BasicStroke(thickness));
-        g.drawPolygon(new int[]{p1.x, p2.x, p3.x}, new int[]{p1.y, p2.y, p3.y}, 3);
+        drawTriangleOutline(g, color, thickness, p1.x, p1.y, p2.x, p2.y, p3.x, p3.y);
+    }
+
+    /**
+     * Draws the outline of a triangle with corners at (x1, y1), (x2, y2), and (x3, y3).
+     */
+    public static void drawTriangleOutline(Graphics2D g, Color color, int thickness, int x1, int y1, int x2, int y2, int x3, int y3) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            recording.drawTriangle(color, thickness, x1, y1, x2, y2, x3, y3);
+            return;
+        }
+
+        GraphicsState.applyColor(g, color);
+        GraphicsState.applyStroke(g, thickness);
+        if (canvas != null && canvas.shapeCache != null) {
+            canvas.shapeCache.drawTriangle(g, thickness, x1, y1, x2, y2, x3, y3);
+        } else {
+            Scratch corners = setTriangle(x1, y1, x2, y2, x3, y3);
+            g.drawPolygon(corners.triangleXs, corners.triangleYs, 3);
+        }
+        markTriangleDirty(g, x1, y1, x2, y2, x3, y3, thickness);
+    }
+
+    /**
+     * Draws the outline of a triangle with corners at (x1, y1), (x2, y2), and
+     * (x3, y3), with the color packed into one number. See {@link #packColor}.
+     */
+    public static void drawTriangleOutline(Graphics2D g, int argb, int thickness, int x1, int y1, int x2, int y2, int x3, int y3) {
+        drawTriangleOutline(g, GraphicsState.getColor(argb), thickness, x1, y1, x2, y2, x3, y3);
+    }
+
+    /**
+     * Puts the corners of a triangle into this thread's scratch arrays, ready
+     * for fillPolygon or drawPolygon.
+     */
+    static Scratch setTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+        Scratch corners = scratch.get();
+        corners.triangleXs[0] = x1;
+        corners.triangleYs[0] = y1;
+        corners.triangleXs[1] = x2;
+        corners.triangleYs[1] = y2;
+        corners.triangleXs[2] = x3;
+        corners.triangleYs[2] = y3;
+        return corners;
     }
 
     /**
@@ -225,53 +643,113 @@ public class GraphicsExample {
      * The bottom left of the text will be at the given point.
      */
     public static void drawText(Graphics2D g, String text, Color color, Font font, Point bottomLeft) {
-        g.setColor(color);
-        g.setFont(font);
-        g.drawString(text, bottomLeft.x, bottomLeft.y);
+        drawText(g, text, color, font, bottomLeft.x, bottomLeft.y);
+    }
+
+    /**
+     * Draws text with its bottom left at (x, y). The text can be a String or
+     * anything else with letters in it, like a {@link StringBuilder}, so you
+     * can build up text like "Score: 10" without making a new String every
+     * frame:
+     *
+     * <pre>
+     * scoreText.setLength(0);
+     * scoreText.append("Score: ").append(score);
+     * drawText(g, scoreText, Color.BLACK, font, 20, 20);
+     * </pre>
+     */
+    public static void drawText(Graphics2D g, CharSequence text, Color color, Font font, int x, int y) {
+        GraphicsCanvas canvas = GraphicsCanvas.findHooked(g);
+        DisplayList recording = canvas == null ? null : canvas.recordingFor(g);
+        if (recording != null) {
+            // The recording has to keep the text, so it needs its own copy.
+            recording.drawText(color, font, g.getFontMetrics(font), text.toString(), x, y);
+            return;
+        }
+
+        if (canvas != null && canvas.textCache != null) {
+            canvas.textCache.drawText(g, text, color, font, x, y);
+        } else {
+            GraphicsState.applyColor(g, color);
+            GraphicsState.applyFont(g, font);
+            if (text instanceof String) {
+                g.drawString((String) text, x, y);
+            } else {
+                g.drawChars(getChars(text), 0, text.length(), x, y);
+            }
+        }
+
+        if (canvas != null && canvas.isDirtyTracking()) {
+            FontMetrics metrics = g.getFontMetrics(font);
+            int ascent = metrics.getMaxAscent();
+            int width = text instanceof String
+                ? metrics.stringWidth((String) text)
+                : metrics.charsWidth(getChars(text), 0, text.length());
+            markDirty(g, x, y - ascent, width, ascent + metrics.getMaxDescent(), 0);
+        }
+    }
+
+    /**
+     * Draws text with its bottom left at (x, y), with the color packed into
+     * one number. See {@link #packColor}.
+     */
+    public static void drawText(Graphics2D g, CharSequence text, int argb, Font font, int x, int y) {
+        drawText(g, text, GraphicsState.getColor(argb), font, x, y);
+    }
+
+    /**
+     * Copies the letters of some text into this thread's scratch array, making
+     * it bigger if needed.
+     */
+    static char[] getChars(CharSequence text) {
+        Scratch letters = scratch.get();
+        int length = text.length();
+        if (length > letters.textChars.length) {
+            letters.textChars = new char[Math.max(length, letters.textChars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            letters.textChars[i] = text.charAt(i);
+        }
+        return letters.textChars;
     }
 
     /**
      * Draws the mouse position next to the mouse cursor to help you figure out what numbers you want.
      */
     public static void drawMousePosition(Graphics2D g, MouseHelper mouse) {
-        String text = "X: " + mouse.getX() + ", Y: " + mouse.getY();
-        drawText(g, text, Color.BLACK, defaultFont, mouse.getXY());
+        // Reused so it doesn't make a new String every frame.
+        StringBuilder mousePositionText = scratch.get().mousePositionText;
+        mousePositionText.setLength(0);
+        mousePositionText.append("X: ").append(mouse.getX()).append(", Y: ").append(mouse.getY());
+        drawText(g, mousePositionText, Color.BLACK, defaultFont, mouse.getX(), mouse.getY());
     }
 
     /**
      * Draws a rectangular button and returns true if the button was clicked.
      * 
      * <pre>
-     * if (button(g, mouse, Color.BLUE, 300, 300, 100, 25)) {
+     * if (doButton(g, mouse, Color.BLUE, 300, 300, 100, 25)) {
      *     System.out.println("The button was clicked!");
      * }
      * </pre>
      */
     public static boolean doButton(Graphics2D g, MouseHelper mouse, Color color, Rectangle rect) {
-        boolean mouseOver = mouse.isInRectangle(rect);
+        return doButton(g, mouse, color, rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Draws a button with its top left at (x, y) and returns true if the
+     * button was clicked.
+     */
+    public static boolean doButton(Graphics2D g, MouseHelper mouse, Color color, int x, int y, int width, int height) {
+        boolean mouseOver = mouse.isInRectangle(x, y, width, height);
         
         Color desiredColor = color;
         if (mouseOver) {
-            Color lighter = new Color(
-                Math.min(color.getRed() + 50, 255),
-                Math.min(color.getGreen() + 50, 255),
-                Math.min(color.getBlue() + 50, 255),
-                color.getAlpha()
-            );
-            desiredColor = lighter;
-
-            if (mouse.isPrimaryButtonDown()) {
-                Color darker = new Color(
-                    Math.max(color.getRed() - 30, 0),
-                    Math.max(color.getGreen() - 30, 0),
-                    Math.max(color.getBlue() - 30, 0),
-                    color.getAlpha()
-                );
-                desiredColor = darker;
-            }
+            desiredColor = mouse.isPrimaryButtonDown() ? darkerButtonColor(color) : lighterButtonColor(color);
         }
         
-        drawRectangle(g, desiredColor, rect);
+        drawRectangle(g, desiredColor, x, y, width, height);
 
         if (mouseOver && mouse.isPrimaryButtonUpThisFrame()) {
             return true;
@@ -280,6 +758,68 @@ public class GraphicsExample {
         }
     }
 
+    /**
+     * Draws a button with its top left at (x, y), with the color packed into
+     * one number, and returns true if the button was clicked. See {@link #packColor}.
+     */
+    public static boolean doButton(Graphics2D g, MouseHelper mouse, int argb, int x, int y, int width, int height) {
+        return doButton(g, mouse, GraphicsState.getColor(argb), x, y, width, height);
+    }
+
+    /**
+     * Gets the color a button turns when the mouse is over it. It comes from
+     * {@link GraphicsState#getColor(int)}, so buttons of any color can light
+     * up without making a new Color every frame.
+     */
+    static Color lighterButtonColor(Color color) {
+        return GraphicsState.getColor(packColor(
+            Math.min(color.getRed() + 50, 255),
+            Math.min(color.getGreen() + 50, 255),
+            Math.min(color.getBlue() + 50, 255),
+            color.getAlpha()
+        ));
+    }
+
+    /**
+     * Gets the color a button turns when it's being pressed.
+     */
+    static Color darkerButtonColor(Color color) {
+        return GraphicsState.getColor(packColor(
+            Math.max(color.getRed() - 30, 0),
+            Math.max(color.getGreen() - 30, 0),
+            Math.max(color.getBlue() - 30, 0),
+            color.getAlpha()
+        ));
+    }
+
+    /**
+     * Tells the canvas (if it's tracking dirty rectangles) that we drew in the given
+     * area. The area grows a little to account for thick lines and antialiasing.
+     */
+    static void markDirty(Graphics2D g, int x, int y, int width, int height, int thickness) {
+        int padding = thickness / 2 + 2;
+        GraphicsCanvas.markDirty(g, x - padding, y - padding, width + padding * 2, height + padding * 2);
+    }
+
+    static void markTriangleDirty(Graphics2D g, int x1, int y1, int x2, int y2, int x3, int y3, int thickness) {
+        int minX = Math.min(x1, Math.min(x2, x3));
+        int minY = Math.min(y1, Math.min(y2, y3));
+        int maxX = Math.max(x1, Math.max(x2, x3));
+        int maxY = Math.max(y1, Math.max(y2, y3));
+        // Thick outlines can poke out past sharp corners (up to 5 times the
+        // thickness with BasicStroke's default miter limit), so be generous.
+        markDirty(g, minX, minY, maxX - minX, maxY - minY, thickness * 10);
+    }
+
+    /**
+     * Packs a color's red, green, blue, and alpha (each from 0 to 255) into one
+     * int, the same way {@link Color#getRGB} does. The drawing functions that
+     * take an int color use this, and it doesn't make a new object.
+     */
+    public static int packColor(int red, int green, int blue, int alpha) {
+        return ((alpha & 0xFF) << 24) | ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+    }
+
     /**
      * Gets a {@link Rectangle} that fits around an ellipse with the given center and radii.
      * Especially useful when used with {@link MouseHelper#isInRectangle}.
@@ -0,0 +1,213 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * GraphicsState helps avoid changing a Graphics2D's color, stroke, or font
+ * when it's already set to the right thing. Every change makes Java throw
+ * away some of its drawing setup, which adds up once you draw thousands of
+ * shapes, so skipping changes that don't do anything saves a lot of time.
+ *
+ * The static apply functions work on any Graphics2D and are what the drawing
+ * functions in {@link GraphicsExample} use. Making a GraphicsState object
+ * does the same thing but also counts how many changes were made and skipped.
+ *
+ * This always checks what the Graphics2D is actually set to, so it still does
+ * the right thing if you change the color yourself in between.
+ */
+public class GraphicsState {
+    // Strokes for the common whole-number thicknesses, made once and shared.
+    static final BasicStroke[] strokes = new BasicStroke[65];
+    static {
+        for (int i = 0; i < strokes.length; i++) {
+            strokes[i] = new BasicStroke(i);
+        }
+    }
+
+    // Colors made from packed numbers, so the same number gives back the same
+    // Color without making a new one. Each thread that draws gets its own
+    // table, so threads never step on each other's colors.
+    static final ThreadLocal<ColorTable> colors = ThreadLocal.withInitial(ColorTable::new);
+
+    /**
+     * A table of colors by their packed number. A number looks at the next
+     * spot over when its own spot is taken, so colors never push each other
+     * out. A program that keeps making brand new colors would fill it up
+     * forever, so once it's half full it starts over empty.
+     */
+    static class ColorTable {
+        static final int SIZE = 4096; // has to be a power of two
+        static final int MAX_COLORS = SIZE / 2;
+
+        int[] numbers = new int[SIZE];
+        Color[] colors = new Color[SIZE];
+        int count = 0;
+
+        Color get(int argb) {
+            // Mix the bits up so colors that are only a little different
+            // don't all start looking in the same spot.
+            int index = (argb * 0x9E3779B1) >>> (32 - 12);
+            while (colors[index] != null) {
+                if (numbers[index] == argb) {
+                    return colors[index];
+                }
+                index = (index + 1) & (SIZE - 1);
+            }
+
+            if (count == MAX_COLORS) {
+                Arrays.fill(colors, null);
+                count = 0;
+                return get(argb);
+            }
+            Color color = new Color(argb, true);
+            numbers[index] = argb;
+            colors[index] = color;
+            count++;
+            return color;
+        }
+    }
+
+    Graphics2D g;
+    long changes = 0;
+    long skippedChanges = 0;
+
+    /**
+     * Constructs a {@link GraphicsState} that keeps track of changes to the given graphics object.
+     */
+    public GraphicsState(Graphics2D g) {
+        this.g = g;
+    }
+
+    /**
+     * Gets the graphics object this is keeping track of.
+     */
+    public Graphics2D getGraphics() {
+        return g;
+    }
+
+    /**
+     * Sets the color, unless it's already set, and counts whether it changed.
+     */
+    public void setColor(Color color) {
+        count(applyColor(g, color));
+    }
+
+    /**
+     * Sets the line thickness, unless it's already set, and counts whether it changed.
+     */
+    public void setStroke(float thickness) {
+        count(applyStroke(g, thickness));
+    }
+
+    /**
+     * Sets the font, unless it's already set, and counts whether it changed.
+     */
+    public void setFont(Font font) {
+        count(applyFont(g, font));
+    }
+
+    void count(boolean changed) {
+        if (changed) {
+            changes++;
+        } else {
+            skippedChanges++;
+        }
+    }
+
+    /**
+     * Gets how many times the color, stroke, or font actually had to change.
+     */
+    public long getChanges() {
+        return changes;
+    }
+
+    /**
+     * Gets how many changes were skipped because nothing would have changed.
+     */
+    public long getSkippedChanges() {
+        return skippedChanges;
+    }
+
+    /**
+     * Starts counting changes and skipped changes from zero again.
+     */
+    public void resetStats() {
+        changes = 0;
+        skippedChanges = 0;
+    }
+
+    /**
+     * Sets the color, unless it's already set. Returns true if it had to change.
+     *
+     * If something else (like a GradientPaint) is being used to fill shapes,
+     * the color still has to be set, since the Graphics2D keeps its old color
+     * around while it paints with the other thing.
+     */
+    public static boolean applyColor(Graphics2D g, Color color) {
+        Color current = g.getColor();
+        if (g.getPaint() == current && (current == color || color.equals(current))) {
+            return false;
+        }
+        g.setColor(color);
+        return true;
+    }
+
+    /**
+     * Sets the color from a packed number like 0xFF0000FF (alpha, red, green,
+     * blue), unless it's already set. Returns true if it had to change.
+     */
+    public static boolean applyColor(Graphics2D g, int argb) {
+        Color current = g.getColor();
+        if (current != null && g.getPaint() == current && current.getRGB() == argb) {
+            return false;
+        }
+        g.setColor(getColor(argb));
+        return true;
+    }
+
+    /**
+     * Sets the line thickness, unless it's already set. Returns true if it had to change.
+     */
+    public static boolean applyStroke(Graphics2D g, float thickness) {
+        BasicStroke stroke = getStroke(thickness);
+        Stroke current = g.getStroke();
+        if (current == stroke || stroke.equals(current)) {
+            return false;
+        }
+        g.setStroke(stroke);
+        return true;
+    }
+
+    /**
+     * Sets the font, unless it's already set. Returns true if it had to change.
+     */
+    public static boolean applyFont(Graphics2D g, Font font) {
+        Font current = g.getFont();
+        if (current == font || font.equals(current)) {
+            return false;
+        }
+        g.setFont(font);
+        return true;
+    }
+
+    /**
+     * Gets a plain {@link BasicStroke} with the given thickness. Whole-number
+     * thicknesses up to 64 are shared instead of making a new one every time.
+     */
+    public static BasicStroke getStroke(float thickness) {
+        int whole = (int) thickness;
+        if (whole == thickness && whole >= 0 && whole < strokes.length) {
+            return strokes[whole];
+        }
+        return new BasicStroke(thickness);
+    }
+
+    /**
+     * Gets a {@link Color} from a packed number like 0xFF0000FF (alpha, red,
+     * green, blue). Colors you use over and over are shared instead of making
+     * a new one every time. Each thread has its own colors, so it's fine to
+     * call this from more than one thread.
+     */
+    public static Color getColor(int argb) {
+        return colors.get().get(argb);
+    }
+}
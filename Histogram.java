@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * A Histogram counts how many times each value came up, so you can ask
+ * questions like "what was the slowest 1% of frames?" without keeping every
+ * value around.
+ *
+ * Values are sorted into buckets that get wider as the values get bigger:
+ * each power of two (1, 2-3, 4-7, 8-15, ...) is split into 32 equal buckets.
+ * That means any answer is within about 3% of the real value, whether the
+ * values are tiny or huge, and the whole thing fits in a couple thousand
+ * numbers. Recording a value never allocates.
+ */
+public class Histogram {
+    // Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    long count = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    double sum = 0;
+
+    /**
+     * Adds a value. Negative values are counted as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketFor(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value; // small values get a bucket each
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // which power of two
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the biggest value that would land in the given bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Gets the value that the given percent of values are at or below. For
+     * example, getPercentile(99) is a value only 1% of values went over.
+     * Returns 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percent, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets the number of values recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the smallest value recorded, or 0 if nothing has been recorded.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Gets the biggest value recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the average of all the values recorded, or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+    }
+}
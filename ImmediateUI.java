@@ -0,0 +1,463 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An ImmediateUI draws buttons, labels, toggles, sliders, and text fields the
+ * same way {@link GraphicsExample#doButton} does: you call a function for
+ * each widget every frame, and it tells you what the user did with it.
+ *
+ * <pre>
+ * ImmediateUI ui = new ImmediateUI(width, height, mouse, keyboard);
+ * while (true) {
+ *     if (ui.button("save", "Save", saveRect)) {
+ *         save();
+ *     }
+ *     volume = ui.slider("volume", volumeRect, volume, 0, 100);
+ *     ui.draw(g);
+ *     mouse.resetForNextFrame();
+ *     keyboard.resetForNextFrame();
+ * }
+ * </pre>
+ *
+ * Each widget needs an id that stays the same from frame to frame. The UI
+ * remembers things about each id (whether the mouse is over it, whether it's
+ * being pressed, its colors, where its text goes), so it can tell when a
+ * widget looks different than it did last frame.
+ *
+ * Widgets are drawn onto an image of their own, and only the widgets that
+ * changed get drawn again. {@link #draw} then puts that whole image on the
+ * canvas in one go, so hundreds of widgets that aren't changing cost about
+ * the same as one picture.
+ *
+ * Widgets shouldn't overlap, since drawing one again doesn't draw the ones
+ * under it again. Because the image changes from frame to frame, don't use
+ * an ImmediateUI with a {@link RenderThread}.
+ */
+public class ImmediateUI {
+    static final int LABEL = 0, BUTTON = 1, TOGGLE = 2, SLIDER = 3, TEXT_FIELD = 4;
+
+    // Bits for the things about a widget that change how it looks.
+    static final int HOVERED = 1, PRESSED = 2, FOCUSED = 4, ON = 8;
+
+    /**
+     * What the UI remembers about one widget.
+     */
+    static class Widget {
+        String id;
+        int kind;
+        int x, y, width, height;
+        long lastFrame;
+
+        // How it looked the last time it was drawn. If any of these are
+        // different, it needs to be drawn again.
+        boolean drawn;
+        int drawnFlags;
+        int drawnKnob;
+        String drawnText;
+        Color drawnColor, drawnTextColor;
+        Font drawnFont;
+
+        // Colors made from the UI's color, kept so they're only made once.
+        Color lighter, darker;
+
+        // Where the text goes, worked out when the widget is drawn.
+        int textX, textY;
+    }
+
+    HashMap<String, Widget> widgetsById = new HashMap<>();
+    ArrayList<Widget> widgets = new ArrayList<>();
+
+    MouseHelper mouse;
+    KeyboardHelper keyboard;
+
+    BufferedImage layer;
+    Graphics2D layerGraphics;
+
+    // The widget the mouse was pressed down on, and the one that gets typing.
+    String activeId;
+    String focusedId;
+
+    long frame = 0;
+    int version = 0; // goes up every time the image changes
+    long redrawnWidgets = 0;
+
+    /**
+     * The color of buttons, toggles, sliders, and text fields.
+     */
+    public Color color = new Color(70, 90, 140);
+
+    /**
+     * The color of text.
+     */
+    public Color textColor = Color.WHITE;
+
+    /**
+     * The font text is drawn with.
+     */
+    public Font font = GraphicsExample.defaultFont;
+
+    /**
+     * Constructs an {@link ImmediateUI} for a canvas of the given size. The
+     * keyboard can be null if you don't use text fields.
+     */
+    public ImmediateUI(int width, int height, MouseHelper mouse, KeyboardHelper keyboard) {
+        this.mouse = mouse;
+        this.keyboard = keyboard;
+        layer = SpriteCache.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        layerGraphics = layer.createGraphics();
+        layerGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        layerGraphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+
+    /**
+     * Draws some text. The text is centered up and down in the rectangle.
+     */
+    public void label(String id, String text, Rectangle rect) {
+        Widget widget = find(id, LABEL, rect);
+        update(widget, 0, 0, text);
+    }
+
+    /**
+     * Draws a button. Returns true on the frame it gets clicked.
+     */
+    public boolean button(String id, String text, Rectangle rect) {
+        Widget widget = find(id, BUTTON, rect);
+        boolean clicked = press(widget);
+        update(widget, flags(widget), 0, text);
+        return clicked;
+    }
+
+    /**
+     * Draws a box that can be checked or unchecked, with some text next to
+     * it. Returns whether it's checked now, which is the opposite of on if
+     * it was just clicked.
+     */
+    public boolean toggle(String id, String text, Rectangle rect, boolean on) {
+        Widget widget = find(id, TOGGLE, rect);
+        if (press(widget)) {
+            on = !on;
+        }
+        update(widget, flags(widget) | (on ? ON : 0), 0, text);
+        return on;
+    }
+
+    /**
+     * Draws a slider for picking a number between min and max. Returns the
+     * new value, which is the same as value unless the slider is being dragged.
+     */
+    public float slider(String id, Rectangle rect, float value, float min, float max) {
+        Widget widget = find(id, SLIDER, rect);
+        press(widget);
+        if (id.equals(activeId) && widget.width > 0) {
+            float amount = (float) (mouse.getX() - widget.x) / widget.width;
+            value = min + Math.max(0, Math.min(1, amount)) * (max - min);
+        }
+
+        float amount = max == min ? 0 : (value - min) / (max - min);
+        int knob = Math.round(Math.max(0, Math.min(1, amount)) * widget.width);
+        update(widget, flags(widget), knob, null);
+        return value;
+    }
+
+    /**
+     * Draws a box you can type text into. Click it to start typing, and press
+     * enter or click somewhere else to stop. Returns the new text, which is
+     * the same object as text unless something was typed.
+     */
+    public String textField(String id, Rectangle rect, String text) {
+        Widget widget = find(id, TEXT_FIELD, rect);
+        boolean hovered = isHovered(widget);
+        if (press(widget)) {
+            focusedId = id;
+        } else if (id.equals(focusedId) && mouse.isPrimaryButtonDownThisFrame() && !hovered) {
+            focusedId = null;
+        }
+
+        if (id.equals(focusedId) && keyboard != null) {
+            CharSequence typed = keyboard.getTypedTextThisFrame();
+            if (typed.length() > 0) {
+                text = type(text, typed);
+            }
+        }
+
+        update(widget, flags(widget), 0, text);
+        return text;
+    }
+
+    String type(String text, CharSequence typed) {
+        StringBuilder edited = new StringBuilder(text);
+        for (int i = 0; i < typed.length(); i++) {
+            char c = typed.charAt(i);
+            if (c == '\b') {
+                if (edited.length() > 0) {
+                    edited.setLength(edited.length() - 1);
+                }
+            } else if (c == '\n' || c == '\r' || c == 27) { // 27 is escape
+                focusedId = null;
+                break;
+            } else if (c >= ' ' && c != 127) { // 127 is delete
+                edited.append(c);
+            }
+        }
+        return edited.toString();
+    }
+
+    /**
+     * Returns true if the widget with the given id is getting typing.
+     */
+    public boolean hasFocus(String id) {
+        return id.equals(focusedId);
+    }
+
+    /**
+     * Finds (or makes) the widget with the given id and moves it to rect.
+     */
+    Widget find(String id, int kind, Rectangle rect) {
+        Widget widget = widgetsById.get(id);
+        if (widget == null) {
+            widget = new Widget();
+            widget.id = id;
+            widgetsById.put(id, widget);
+            widgets.add(widget);
+        } else if (widget.lastFrame == frame) {
+            throw new IllegalArgumentException("Two widgets have the id \"" + id + "\" this frame. Each widget needs its own id!");
+        }
+        widget.kind = kind;
+        widget.lastFrame = frame;
+
+        // Rectangles can have a negative width or height, like in drawRectangle.
+        int x = Math.min(rect.x, rect.x + rect.width);
+        int y = Math.min(rect.y, rect.y + rect.height);
+        int width = Math.abs(rect.width);
+        int height = Math.abs(rect.height);
+        if (x != widget.x || y != widget.y || width != widget.width || height != widget.height) {
+            erase(widget);
+            widget.x = x;
+            widget.y = y;
+            widget.width = width;
+            widget.height = height;
+        }
+        return widget;
+    }
+
+    boolean isHovered(Widget widget) {
+        return mouse.isInRectangle(widget.x, widget.y, widget.width, widget.height);
+    }
+
+    /**
+     * Keeps track of the mouse being pressed and let go on a widget. Returns
+     * true if it was let go over the widget it was pressed on (a click).
+     */
+    boolean press(Widget widget) {
+        boolean hovered = isHovered(widget);
+        if (hovered && activeId == null && mouse.isPrimaryButtonDownThisFrame()) {
+            activeId = widget.id;
+        }
+        if (widget.id.equals(activeId) && (mouse.isPrimaryButtonUpThisFrame() || !mouse.isPrimaryButtonDown())) {
+            activeId = null;
+            return hovered;
+        }
+        return false;
+    }
+
+    int flags(Widget widget) {
+        int flags = 0;
+        if (isHovered(widget) && (activeId == null || widget.id.equals(activeId))) {
+            flags |= HOVERED;
+        }
+        if (widget.id.equals(activeId)) {
+            flags |= PRESSED;
+        }
+        if (widget.id.equals(focusedId)) {
+            flags |= FOCUSED;
+        }
+        return flags;
+    }
+
+    /**
+     * Draws the widget onto the UI's image again, but only if it would look
+     * any different than it did last time.
+     */
+    void update(Widget widget, int flags, int knob, String text) {
+        if (widget.drawn
+            && widget.drawnFlags == flags
+            && widget.drawnKnob == knob
+            && widget.drawnColor == color
+            && widget.drawnTextColor == textColor
+            && widget.drawnFont == font
+            && (widget.drawnText == text || (text != null && text.equals(widget.drawnText)))) {
+            return;
+        }
+
+        if (widget.drawnColor != color || widget.lighter == null) {
+            widget.lighter = GraphicsExample.lighterButtonColor(color);
+            widget.darker = GraphicsExample.darkerButtonColor(color);
+        }
+        if (widget.drawnFont != font || widget.drawnText != text || !widget.drawn) {
+            layOutText(widget, text);
+        }
+
+        widget.drawn = true;
+        widget.drawnFlags = flags;
+        widget.drawnKnob = knob;
+        widget.drawnText = text;
+        widget.drawnColor = color;
+        widget.drawnTextColor = textColor;
+        widget.drawnFont = font;
+        paint(widget);
+        redrawnWidgets++;
+        version++;
+    }
+
+    void layOutText(Widget widget, String text) {
+        if (text == null) {
+            return;
+        }
+        FontMetrics metrics = layerGraphics.getFontMetrics(font);
+        int textWidth = metrics.stringWidth(text);
+        widget.textY = widget.y + (widget.height + metrics.getAscent() - metrics.getDescent()) / 2;
+        if (widget.kind == BUTTON) {
+            widget.textX = widget.x + (widget.width - textWidth) / 2;
+        } else if (widget.kind == TOGGLE) {
+            widget.textX = widget.x + widget.height + 6; // past the box
+        } else if (widget.kind == TEXT_FIELD) {
+            widget.textX = widget.x + 4;
+        } else {
+            widget.textX = widget.x;
+        }
+    }
+
+    void paint(Widget widget) {
+        Graphics2D g = layerGraphics;
+        clearArea(widget.x, widget.y, widget.width + 1, widget.height + 1);
+        g.setClip(widget.x, widget.y, widget.width + 1, widget.height + 1);
+
+        int flags = widget.drawnFlags;
+        Color background = color;
+        if ((flags & PRESSED) != 0) {
+            background = widget.darker;
+        } else if ((flags & HOVERED) != 0) {
+            background = widget.lighter;
+        }
+
+        if (widget.kind == BUTTON) {
+            GraphicsExample.drawRectangle(g, background, widget.x, widget.y, widget.width, widget.height);
+        } else if (widget.kind == TOGGLE) {
+            GraphicsExample.drawRectangle(g, background, widget.x, widget.y, widget.height, widget.height);
+            if ((flags & ON) != 0) {
+                int inset = widget.height / 4;
+                GraphicsExample.drawRectangle(g, textColor,
+                    widget.x + inset, widget.y + inset, widget.height - 2 * inset, widget.height - 2 * inset);
+            }
+        } else if (widget.kind == SLIDER) {
+            int trackHeight = Math.max(2, widget.height / 4);
+            int trackY = widget.y + (widget.height - trackHeight) / 2;
+            GraphicsExample.drawRectangle(g, widget.darker, widget.x, trackY, widget.width, trackHeight);
+            GraphicsExample.drawRectangle(g, widget.lighter, widget.x, trackY, widget.drawnKnob, trackHeight);
+            int knobWidth = Math.max(4, widget.height / 2);
+            GraphicsExample.drawRectangle(g, (flags & (HOVERED | PRESSED)) != 0 ? textColor : widget.lighter,
+                widget.x + widget.drawnKnob - knobWidth / 2, widget.y, knobWidth, widget.height);
+        } else if (widget.kind == TEXT_FIELD) {
+            GraphicsExample.drawRectangle(g, widget.darker, widget.x, widget.y, widget.width, widget.height);
+            GraphicsExample.drawRectangleOutline(g, (flags & FOCUSED) != 0 ? textColor : background, 1,
+                widget.x, widget.y, widget.width, widget.height);
+        }
+
+        String text = widget.drawnText;
+        if (text != null) {
+            GraphicsExample.drawText(g, text, textColor, font, widget.textX, widget.textY);
+            if ((flags & FOCUSED) != 0) {
+                // The caret goes right after the last letter.
+                int caretX = widget.textX + g.getFontMetrics(font).stringWidth(text) + 1;
+                GraphicsExample.drawRectangle(g, textColor, caretX, widget.y + 4, 1, widget.height - 8);
+            }
+        }
+        g.setClip(null);
+    }
+
+    /**
+     * Erases a widget from the UI's image, for when it moves or goes away.
+     */
+    void erase(Widget widget) {
+        if (widget.drawn) {
+            clearArea(widget.x, widget.y, widget.width + 1, widget.height + 1);
+            widget.drawn = false;
+            version++;
+        }
+    }
+
+    void clearArea(int x, int y, int width, int height) {
+        Composite composite = layerGraphics.getComposite();
+        layerGraphics.setComposite(AlphaComposite.Clear);
+        layerGraphics.fillRect(x, y, width, height);
+        layerGraphics.setComposite(composite);
+    }
+
+    /**
+     * Call this once a frame, after all of your widgets, to put them on the
+     * canvas. Widgets that weren't called for this frame go away.
+     */
+    public void draw(Graphics2D g) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = widgets.size() - 1; i >= 0; i--) {
+            Widget widget = widgets.get(i);
+            if (widget.lastFrame != frame) {
+                erase(widget);
+                widgetsById.remove(widget.id);
+                widgets.set(i, widgets.get(widgets.size() - 1));
+                widgets.remove(widgets.size() - 1);
+                if (widget.id.equals(activeId)) {
+                    activeId = null;
+                }
+                if (widget.id.equals(focusedId)) {
+                    focusedId = null;
+                }
+                continue;
+            }
+            minX = Math.min(minX, widget.x);
+            minY = Math.min(minY, widget.y);
+            maxX = Math.max(maxX, widget.x + widget.width + 1);
+            maxY = Math.max(maxY, widget.y + widget.height + 1);
+        }
+        frame++;
+
+        // Only the part of the image that has widgets on it.
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, layer.getWidth());
+        maxY = Math.min(maxY, layer.getHeight());
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        int width = maxX - minX;
+        int height = maxY - minY;
+
+        DisplayList recording = GraphicsCanvas.getRecording(g);
+        if (recording != null) {
+            recording.drawImage(layer, minX, minY, width, height, minX, minY, version);
+            return;
+        }
+
+        g.drawImage(layer, minX, minY, maxX, maxY, minX, minY, maxX, maxY, null);
+        GraphicsExample.markDirty(g, minX, minY, width, height, 0);
+    }
+
+    /**
+     * Gets the number of widgets there are right now.
+     */
+    public int getWidgetCount() {
+        return widgets.size();
+    }
+
+    /**
+     * Gets the number of times a widget has been drawn again because it
+     * changed. If this goes up every frame for widgets nobody is touching,
+     * something (like a label's text) is changing every frame.
+     */
+    public long getRedrawnWidgets() {
+        return redrawnWidgets;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * An InputEventQueue passes input events from AWT's event thread to your
+ * program's main loop without any locks and without creating any objects.
+ *
+ * Exactly one thread may add events (AWT's event thread) and exactly one
+ * thread may read them (your main loop). Events are stored in a fixed-size
+ * ring of plain arrays; if the main loop falls so far behind that the ring
+ * fills up, new events are dropped and counted.
+ *
+ * To read events:
+ *
+ * <pre>
+ * long end = queue.beginRead();
+ * for (long i = queue.getReadIndex(); i &lt; end; i++) {
+ *     int type = queue.getType(i);
+ *     // and so on
+ * }
+ * queue.endRead(end);
+ * </pre>
+ */
+public class InputEventQueue {
+    public static final int KEY_DOWN = 1;
+    public static final int KEY_UP = 2;
+    public static final int MOUSE_DOWN = 3;
+    public static final int MOUSE_UP = 4;
+    public static final int KEY_TYPED = 5;
+
+    final int[] types;
+    final int[] codes;
+    final long[] times;
+    final int mask;
+
+    // The next event to read and the next free slot. These only ever go up;
+    // the slot is the index with the high bits masked off. The reader only
+    // writes head and the writer only writes tail.
+    volatile long head = 0;
+    volatile long tail = 0;
+
+    volatile long droppedEvents = 0;
+
+    /**
+     * Constructs an {@link InputEventQueue} that holds the given number of
+     * events, rounded up to a power of two.
+     */
+    public InputEventQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, but was " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size *= 2;
+        }
+        types = new int[size];
+        codes = new int[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event. Only call this from one thread. Returns false (and drops
+     * the event) if the queue is full.
+     *
+     * @param when The time of the event, like {@link java.awt.event.InputEvent#getWhen}.
+     */
+    public boolean offer(int type, int code, long when) {
+        long t = tail;
+        if (t - head >= types.length) {
+            droppedEvents++; // only the writer touches this
+            return false;
+        }
+        int slot = (int) (t & mask);
+        types[slot] = type;
+        codes[slot] = code;
+        times[slot] = when;
+        tail = t + 1; // publishes the event to the reader
+        return true;
+    }
+
+    /**
+     * Gets the index of the first event that hasn't been read yet.
+     */
+    public long getReadIndex() {
+        return head;
+    }
+
+    /**
+     * Returns the index just past the last event that is ready to read.
+     */
+    public long beginRead() {
+        return tail;
+    }
+
+    public int getType(long index) {
+        return types[(int) (index & mask)];
+    }
+
+    public int getCode(long index) {
+        return codes[(int) (index & mask)];
+    }
+
+    public long getTime(long index) {
+        return times[(int) (index & mask)];
+    }
+
+    /**
+     * Marks everything before end as read, so the writer can reuse the space.
+     */
+    public void endRead(long end) {
+        head = end;
+    }
+
+    /**
+     * Gets the number of events dropped because the queue was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An InputRecorder saves everything the mouse and keyboard did, frame by
+ * frame, along with how much time went by between frames. An
+ * {@link InputReplayer} can then play it all back later, so you can watch the
+ * same session again or time how fast your program gets through it.
+ *
+ * <pre>
+ * InputRecorder recorder = new InputRecorder(Paths.get("session.bin"), mouse, keyboard);
+ * while (true) {
+ *     int updates = scheduler.beginFrame();
+ *     // update and draw things
+ *     mouse.resetForNextFrame();
+ *     keyboard.resetForNextFrame();
+ *     recorder.endFrame(scheduler);
+ *     scheduler.endFrame();
+ * }
+ * // when you're done:
+ * recorder.close();
+ * </pre>
+ *
+ * It records what the helpers actually used each frame in
+ * {@link MouseHelper#resetForNextFrame} and
+ * {@link KeyboardHelper#resetForNextFrame}, not the raw events from AWT, so a
+ * replay sees exactly the same thing no matter how the events were timed.
+ *
+ * The file starts with {@link #MAGIC}, a version number, and where the mouse
+ * and wheel were when the recording started (two ints and a double),
+ * followed by one record per frame, all in little-endian order:
+ *
+ * <pre>
+ * long   nanoseconds since the last frame (see FrameScheduler.beginFrame)
+ * byte   flags: 1 if the mouse moved, 2 if the wheel turned
+ * int    mouse x, int mouse y       (only if the mouse moved)
+ * double total wheel rotation       (only if the wheel turned)
+ * short  number of events
+ * then for each event:
+ * byte   MOUSE or KEYBOARD, times 16, plus the InputEventQueue type
+ * int    button bit, key code, or typed letter
+ * </pre>
+ *
+ * A frame where nothing happened takes 11 bytes.
+ */
+public class InputRecorder implements Closeable {
+    /**
+     * The first four bytes of every input recording, followed by the version
+     * as an int.
+     */
+    public static final int MAGIC = 0x4C494347; // "GCIL" when read little-endian
+    static final int VERSION = 1;
+
+    static final int MOUSE = 1;
+    static final int KEYBOARD = 2;
+
+    static final int MOUSE_MOVED = 1;
+    static final int WHEEL_TURNED = 2;
+
+    static final int FRAME_HEADER_BYTES = 8 + 1 + 8 + 8 + 2;
+    static final int EVENT_BYTES = 1 + 4;
+
+    FileChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    MouseHelper mouse;
+    KeyboardHelper keyboard;
+
+    // What the helpers used since the last endFrame.
+    IntList events = new IntList(); // kind, code, kind, code, ...
+    int mouseX, mouseY;
+    double wheelRotation;
+    int lastMouseX, lastMouseY;
+    double lastWheelRotation;
+
+    long frames = 0;
+    long bytesWritten = 0;
+
+    /**
+     * Starts recording the given mouse and keyboard into a new file,
+     * replacing any file that's already there.
+     */
+    public InputRecorder(Path path, MouseHelper mouse, KeyboardHelper keyboard) throws IOException {
+        if (mouse.recorder != null || keyboard.recorder != null) {
+            throw new IllegalStateException("The mouse or keyboard is already being recorded!");
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        this.mouse = mouse;
+        this.keyboard = keyboard;
+        mouse.recorder = this;
+        keyboard.recorder = this;
+
+        // Start from wherever the mouse is now, so the replay can too.
+        mouseX = lastMouseX = mouse.frameX;
+        mouseY = lastMouseY = mouse.frameY;
+        wheelRotation = lastWheelRotation = mouse.lastTotalWheelRotation;
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(mouseX).putInt(mouseY).putDouble(wheelRotation);
+    }
+
+    // Called by the helpers while they apply their events.
+
+    void addEvent(int source, int type, int code) {
+        events.add(source * 16 + type);
+        events.add(code);
+    }
+
+    void setMouse(int x, int y, double totalWheelRotation) {
+        mouseX = x;
+        mouseY = y;
+        wheelRotation = totalWheelRotation;
+    }
+
+    /**
+     * Writes down everything from this frame. Call it after
+     * {@link MouseHelper#resetForNextFrame} and
+     * {@link KeyboardHelper#resetForNextFrame}, and before
+     * {@link FrameScheduler#endFrame}. Does nothing once the recorder has
+     * been closed.
+     */
+    public synchronized void endFrame(FrameScheduler scheduler) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        int eventCount = events.size() / 2;
+        if (eventCount > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many input events in one frame to record (" + eventCount + ")");
+        }
+        makeRoom(FRAME_HEADER_BYTES + eventCount * EVENT_BYTES);
+
+        buffer.putLong(scheduler.getLastElapsedNanos());
+        int flags = 0;
+        if (mouseX != lastMouseX || mouseY != lastMouseY) {
+            flags |= MOUSE_MOVED;
+        }
+        if (wheelRotation != lastWheelRotation) {
+            flags |= WHEEL_TURNED;
+        }
+        buffer.put((byte) flags);
+        if ((flags & MOUSE_MOVED) != 0) {
+            buffer.putInt(mouseX).putInt(mouseY);
+            lastMouseX = mouseX;
+            lastMouseY = mouseY;
+        }
+        if ((flags & WHEEL_TURNED) != 0) {
+            buffer.putDouble(wheelRotation);
+            lastWheelRotation = wheelRotation;
+        }
+        buffer.putShort((short) eventCount);
+        for (int i = 0; i < events.size(); i += 2) {
+            buffer.put((byte) events.get(i));
+            buffer.putInt(events.get(i + 1));
+        }
+        events.clear();
+        frames++;
+    }
+
+    /**
+     * Writes out the buffer if there isn't room for the given number of bytes.
+     */
+    void makeRoom(int bytes) throws IOException {
+        // This always fits after a flush, since the helpers' event queues
+        // can't hold anywhere near a buffer's worth of events.
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Gets the number of frames recorded so far.
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Gets the size of the recording so far, in bytes.
+     */
+    public long getBytes() {
+        return bytesWritten + buffer.position();
+    }
+
+    /**
+     * Writes out anything that's left, stops recording, and closes the file.
+     * It's safe to call from a shutdown hook while the main loop is still
+     * running.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        flush();
+        channel.force(false);
+        channel.close();
+        channel = null;
+        mouse.recorder = null;
+        keyboard.recorder = null;
+    }
+}
@@ -0,0 +1,233 @@
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An InputReplayer plays back a recording made by {@link InputRecorder},
+ * feeding the same mouse and keyboard input through the same
+ * {@link MouseHelper} and {@link KeyboardHelper} on the same frames, and
+ * telling the {@link FrameScheduler} the same times between frames. As long
+ * as your program only depends on its input and the scheduler (and not on
+ * things like the clock or random numbers), it does exactly the same thing
+ * as it did when it was recorded.
+ *
+ * It doesn't need a window, and if you turn off
+ * {@link FrameScheduler#waitForNextFrame} it runs as fast as the computer
+ * can go, which makes it a good way to measure how fast your program really
+ * is:
+ *
+ * <pre>
+ * InputReplayer replayer = new InputReplayer(Paths.get("session.bin"), mouse, keyboard);
+ * scheduler.waitForNextFrame = false;
+ * while (replayer.nextFrame()) {
+ *     int updates = scheduler.beginFrame(replayer.getElapsedNanos());
+ *     // update and draw things
+ *     replayer.applyInput();
+ *     mouse.resetForNextFrame();
+ *     keyboard.resetForNextFrame();
+ *     scheduler.endFrame();
+ * }
+ * System.out.println(replayer.getFramesPerSecond() + " frames per second");
+ * System.out.println("checksum " + InputReplayer.checksum(canvas.getBufferedImage()));
+ * replayer.close();
+ * </pre>
+ *
+ * If two replays of the same recording end with different checksums,
+ * something in your program isn't deterministic.
+ */
+public class InputReplayer implements Closeable {
+    static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+
+    FileChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    boolean endOfFile = false;
+    MouseHelper mouse;
+    KeyboardHelper keyboard;
+
+    // The frame we're on.
+    long elapsedNanos;
+    int mouseX, mouseY;
+    double wheelRotation;
+    IntList events = new IntList(); // kind, code, kind, code, ...
+
+    long frames = 0;
+    long startTime = -1;
+    long endTime = -1;
+
+    /**
+     * Opens a recording to play back through the given mouse and keyboard.
+     * The mouse starts wherever it was when the recording started.
+     */
+    public InputReplayer(Path path, MouseHelper mouse, KeyboardHelper keyboard) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.mouse = mouse;
+        this.keyboard = keyboard;
+
+        buffer.limit(0); // nothing read yet
+        if (!fill(HEADER_BYTES) || buffer.getInt() != InputRecorder.MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not an input recording");
+        }
+        int version = buffer.getInt();
+        if (version != InputRecorder.VERSION) {
+            channel.close();
+            throw new IOException(path + " is version " + version + " of the input recording format, but we can only read version " + InputRecorder.VERSION);
+        }
+        mouseX = buffer.getInt();
+        mouseY = buffer.getInt();
+        wheelRotation = buffer.getDouble();
+
+        mouse.setLatestPosition(mouseX, mouseY);
+        mouse.totalWheelRotation = wheelRotation;
+        mouse.lastTotalWheelRotation = wheelRotation;
+        mouse.takeSnapshot();
+    }
+
+    /**
+     * Makes sure at least the given number of bytes are ready in the buffer,
+     * reading more of the file if needed. Returns false if the file ends first.
+     */
+    boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Reads the next frame of the recording. Returns false once there are no
+     * frames left.
+     */
+    public boolean nextFrame() throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Can't read a frame after the replayer has been closed!");
+        }
+        if (startTime < 0) {
+            startTime = System.nanoTime();
+        }
+        if (!fill(8 + 1)) {
+            if (buffer.hasRemaining()) {
+                throw new EOFException("The input recording ends in the middle of a frame");
+            }
+            endTime = System.nanoTime();
+            return false;
+        }
+
+        elapsedNanos = buffer.getLong();
+        int flags = buffer.get();
+        if ((flags & InputRecorder.MOUSE_MOVED) != 0) {
+            need(8);
+            mouseX = buffer.getInt();
+            mouseY = buffer.getInt();
+        }
+        if ((flags & InputRecorder.WHEEL_TURNED) != 0) {
+            need(8);
+            wheelRotation = buffer.getDouble();
+        }
+        need(2);
+        int eventCount = buffer.getShort();
+        need(eventCount * InputRecorder.EVENT_BYTES);
+        events.clear();
+        for (int i = 0; i < eventCount; i++) {
+            events.add(buffer.get());
+            events.add(buffer.getInt());
+        }
+        frames++;
+        return true;
+    }
+
+    void need(int bytes) throws IOException {
+        if (!fill(bytes)) {
+            throw new EOFException("The input recording ends in the middle of a frame");
+        }
+    }
+
+    /**
+     * Gets how much time went by before this frame when it was recorded. Give
+     * it to {@link FrameScheduler#beginFrame(long)}.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Hands this frame's input to the mouse and keyboard. Call it right
+     * before {@link MouseHelper#resetForNextFrame} and
+     * {@link KeyboardHelper#resetForNextFrame}, the same place the recorder
+     * picked it up.
+     */
+    public void applyInput() {
+        for (int i = 0; i < events.size(); i += 2) {
+            int kind = events.get(i);
+            int code = events.get(i + 1);
+            InputEventQueue queue = kind / 16 == InputRecorder.MOUSE ? mouse.events : keyboard.events;
+            queue.offer(kind % 16, code, 0);
+        }
+        mouse.setLatestPosition(mouseX, mouseY);
+        mouse.totalWheelRotation = wheelRotation;
+    }
+
+    /**
+     * Gets the number of frames played back so far.
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Gets how many frames per second the replay ran at, from the first call
+     * to {@link #nextFrame} until the recording ran out (or until now, if it
+     * hasn't yet).
+     */
+    public double getFramesPerSecond() {
+        if (startTime < 0) {
+            return 0;
+        }
+        long end = endTime < 0 ? System.nanoTime() : endTime;
+        return end == startTime ? 0 : frames * 1_000_000_000.0 / (end - startTime);
+    }
+
+    /**
+     * Gets a checksum of an image's pixels. Two images with the same size and
+     * pixels always get the same checksum, and different ones almost never do.
+     */
+    public static long checksum(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ByteBuffer bytes = ByteBuffer.allocate(width * 4).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            crc.update(bytes);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Closes the recording.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
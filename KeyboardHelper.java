@@ -1,15 +1,35 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * A KeyboardHelper object helps keep track of which keys are pressed.
+ *
+ * Key presses are collected as they happen and then applied all at once when
+ * you call {@link #resetForNextFrame}, so the answers stay the same for your
+ * whole frame. If a key is pressed and released within one frame, both
+ * {@link #isKeyDownThisFrame} and {@link #isKeyUpThisFrame} will be true.
  */
 public class KeyboardHelper implements KeyListener {
-    Set<Integer> pressedKeys = new HashSet<>();
-    Set<Integer> pressedKeysThisFrame = new HashSet<>();
-    Set<Integer> releasedKeysThisFrame = new HashSet<>();
+    // Key codes go up to 0xFFFF, so we keep one bit per possible key.
+    static final int MAX_KEY_CODE = 1 << 16;
+
+    long[] pressedKeys = new long[MAX_KEY_CODE / 64];
+    long[] pressedKeysThisFrame = new long[MAX_KEY_CODE / 64];
+    long[] releasedKeysThisFrame = new long[MAX_KEY_CODE / 64];
+
+    // Which words of the "ThisFrame" bitsets have anything in them, so we
+    // don't have to clear all of them every frame.
+    int[] touchedWords = new int[64];
+    int touchedWordCount = 0;
+
+    InputEventQueue events = new InputEventQueue(256);
+
+    // The letters typed since the last frame. See getTypedTextThisFrame.
+    StringBuilder typedThisFrame = new StringBuilder();
+
+    // Writes down what we use each frame, if someone is recording.
+    InputRecorder recorder;
 
     /**
      * Constructs a {@link KeyboardHelper} object for the given UI component.
@@ -23,8 +43,54 @@ public class KeyboardHelper implements KeyListener {
      * do the right thing.
      */
     public void resetForNextFrame() {
-        pressedKeysThisFrame.clear();
-        releasedKeysThisFrame.clear();
+        for (int i = 0; i < touchedWordCount; i++) {
+            pressedKeysThisFrame[touchedWords[i]] = 0;
+            releasedKeysThisFrame[touchedWords[i]] = 0;
+        }
+        touchedWordCount = 0;
+        typedThisFrame.setLength(0);
+
+        long end = events.beginRead();
+        for (long i = events.getReadIndex(); i < end; i++) {
+            if (recorder != null) {
+                recorder.addEvent(InputRecorder.KEYBOARD, events.getType(i), events.getCode(i));
+            }
+            if (events.getType(i) == InputEventQueue.KEY_TYPED) {
+                typedThisFrame.append((char) events.getCode(i));
+                continue;
+            }
+            int key = events.getCode(i);
+            if (key < 0 || key >= MAX_KEY_CODE) {
+                continue;
+            }
+            int word = key >>> 6;
+            long bit = 1L << key;
+            touchWord(word);
+            if (events.getType(i) == InputEventQueue.KEY_DOWN) {
+                pressedKeys[word] |= bit;
+                pressedKeysThisFrame[word] |= bit;
+            } else {
+                pressedKeys[word] &= ~bit;
+                releasedKeysThisFrame[word] |= bit;
+            }
+        }
+        events.endRead(end);
+    }
+
+    void touchWord(int word) {
+        for (int i = 0; i < touchedWordCount; i++) {
+            if (touchedWords[i] == word) {
+                return;
+            }
+        }
+        if (touchedWordCount == touchedWords.length) {
+            touchedWords = Arrays.copyOf(touchedWords, touchedWords.length * 2);
+        }
+        touchedWords[touchedWordCount++] = word;
+    }
+
+    static boolean isSet(long[] bits, int key) {
+        return key >= 0 && key < MAX_KEY_CODE && (bits[key >>> 6] & (1L << key)) != 0;
     }
 
     /**
@@ -32,7 +98,7 @@ public class KeyboardHelper implements KeyListener {
      * @param key A key code. Usually you will do something like KeyEvent.VK_WHATEVER.
      */
     public boolean isKeyDown(int key) {
-        return pressedKeys.contains(key);
+        return isSet(pressedKeys, key);
     }
 
     /**
@@ -40,7 +106,7 @@ public class KeyboardHelper implements KeyListener {
      * @param key A key code. Usually you will do something like KeyEvent.VK_WHATEVER.
      */
     public boolean isKeyDownThisFrame(int key) {
-        return pressedKeysThisFrame.contains(key);
+        return isSet(pressedKeysThisFrame, key);
     }
 
     /**
@@ -48,21 +114,41 @@ public class KeyboardHelper implements KeyListener {
      * @param key A key code. Usually you will do something like KeyEvent.VK_WHATEVER.
      */
     public boolean isKeyUpThisFrame(int key) {
-        return releasedKeysThisFrame.contains(key);
+        return isSet(releasedKeysThisFrame, key);
+    }
+
+    /**
+     * Gets the letters typed on the current frame, in order, with shift and
+     * so on already applied. Backspace shows up as '\b' and enter as '\n'.
+     * The same object gets reused every frame, so copy it (with toString) if
+     * you want to keep it.
+     */
+    public CharSequence getTypedTextThisFrame() {
+        return typedThisFrame;
+    }
+
+    /**
+     * Gets the number of key events that were lost because the program fell
+     * too far behind to keep up with them.
+     */
+    public long getDroppedEvents() {
+        return events.getDroppedEvents();
     }
 
     @Override
-    public void keyTyped(KeyEvent e) {}
+    public void keyTyped(KeyEvent e) {
+        if (e.getKeyChar() != KeyEvent.CHAR_UNDEFINED) {
+            events.offer(InputEventQueue.KEY_TYPED, e.getKeyChar(), e.getWhen());
+        }
+    }
 
     @Override
     public void keyPressed(KeyEvent e) {
-        pressedKeys.add(e.getKeyCode());
-        pressedKeysThisFrame.add(e.getKeyCode());
+        events.offer(InputEventQueue.KEY_DOWN, e.getKeyCode(), e.getWhen());
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
-        pressedKeys.remove(e.getKeyCode());
-        releasedKeysThisFrame.add(e.getKeyCode());
+        events.offer(InputEventQueue.KEY_UP, e.getKeyCode(), e.getWhen());
     }
 }
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+/**
+ * A {@link SpatialIndex} that sorts rectangles by size as well as position.
+ * Big rectangles go in big cells near the top of the tree, and small ones go
+ * in small cells near the bottom, so a few huge rectangles don't slow down
+ * queries about lots of tiny ones.
+ *
+ * It's "loose" because each cell reaches halfway into its neighbors. That way
+ * every rectangle fits in exactly one cell (based on its center), and moving a
+ * rectangle a little usually doesn't change its cell at all.
+ *
+ * Each level of the tree is stored as a flat grid of cells, so there are no
+ * node objects to chase around.
+ */
+public class LooseQuadtree extends SpatialIndex {
+    int originX, originY;
+    double worldSize;
+    int maxDepth;
+
+    // Level d has (1 << d) by (1 << d) cells, starting at levelStart[d] in cellHeads.
+    int[] levelStart;
+    int[] levelCounts;
+    int[] cellHeads;
+
+    // For each rectangle: its level, its cell, and its neighbors in that cell's list.
+    int[] levels = new int[64];
+    int[] cells = new int[64];
+    int[] next = new int[64];
+    int[] previous = new int[64];
+
+    /**
+     * Constructs a {@link LooseQuadtree} covering the square from (x, y) to
+     * (x + size, y + size), with the given number of levels below the top.
+     * Each level down has cells half as big. Rectangles outside the square
+     * still work, but they're slower to find.
+     */
+    public LooseQuadtree(int x, int y, int size, int maxDepth) {
+        if (size < 1 || maxDepth < 0 || maxDepth > 12) {
+            throw new IllegalArgumentException("The size must be at least 1 and maxDepth must be between 0 and 12!");
+        }
+        this.originX = x;
+        this.originY = y;
+        this.worldSize = size;
+        this.maxDepth = maxDepth;
+
+        levelStart = new int[maxDepth + 2];
+        levelCounts = new int[maxDepth + 1];
+        for (int d = 0; d <= maxDepth; d++) {
+            levelStart[d + 1] = levelStart[d] + (1 << d) * (1 << d);
+        }
+        cellHeads = new int[levelStart[maxDepth + 1]];
+        Arrays.fill(cellHeads, -1);
+    }
+
+    double cellSize(int level) {
+        return worldSize / (1 << level);
+    }
+
+    int cellCoordinate(int level, double value, int origin) {
+        int n = 1 << level;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor((value - origin) / cellSize(level))));
+    }
+
+    @Override
+    void grow(int newLength) {
+        levels = Arrays.copyOf(levels, newLength);
+        cells = Arrays.copyOf(cells, newLength);
+        next = Arrays.copyOf(next, newLength);
+        previous = Arrays.copyOf(previous, newLength);
+    }
+
+    @Override
+    void added(int id) {
+        link(id, levelFor(id), cellFor(id, levelFor(id)));
+    }
+
+    @Override
+    void moved(int id) {
+        int level = levelFor(id);
+        int cell = cellFor(id, level);
+        if (level == levels[id] && cell == cells[id]) {
+            return; // still fits in the same cell
+        }
+        unlink(id);
+        link(id, level, cell);
+    }
+
+    @Override
+    void removed(int id) {
+        unlink(id);
+    }
+
+    /**
+     * Finds the deepest level whose cells are at least as big as the rectangle.
+     */
+    int levelFor(int id) {
+        int biggest = Math.max(widths[id], heights[id]);
+        int level = 0;
+        while (level < maxDepth && cellSize(level + 1) >= biggest) {
+            level++;
+        }
+        return level;
+    }
+
+    int cellFor(int id, int level) {
+        double centerX = xs[id] + widths[id] / 2.0;
+        double centerY = ys[id] + heights[id] / 2.0;
+        return levelStart[level] + cellCoordinate(level, centerY, originY) * (1 << level) + cellCoordinate(level, centerX, originX);
+    }
+
+    void link(int id, int level, int cell) {
+        levels[id] = level;
+        cells[id] = cell;
+        previous[id] = -1;
+        next[id] = cellHeads[cell];
+        if (cellHeads[cell] != -1) {
+            previous[cellHeads[cell]] = id;
+        }
+        cellHeads[cell] = id;
+        levelCounts[level]++;
+    }
+
+    void unlink(int id) {
+        if (previous[id] != -1) {
+            next[previous[id]] = next[id];
+        } else {
+            cellHeads[cells[id]] = next[id];
+        }
+        if (next[id] != -1) {
+            previous[next[id]] = previous[id];
+        }
+        levelCounts[levels[id]]--;
+    }
+
+    @Override
+    public void queryPoint(int x, int y, IntList results) {
+        forEachNearby(x, y, 0, 0, -1, results, true);
+    }
+
+    @Override
+    public void queryRegion(int x, int y, int width, int height, IntList results) {
+        forEachNearby(Math.min(x, x + width), Math.min(y, y + height), Math.abs(width), Math.abs(height), -1, results, false);
+    }
+
+    @Override
+    public void queryOverlappingPairs(IntList results) {
+        for (int id = 0; id < idCount; id++) {
+            if (alive[id]) {
+                forEachNearby(xs[id], ys[id], widths[id], heights[id], id, results, false);
+            }
+        }
+    }
+
+    /**
+     * Looks through every cell whose loose area could touch the given area.
+     * If pairsWith is an id, adds pairs of (pairsWith, other) for others with
+     * bigger ids, so each pair only gets reported once. Otherwise just adds ids.
+     */
+    void forEachNearby(int x, int y, int width, int height, int pairsWith, IntList results, boolean pointQuery) {
+        for (int level = 0; level <= maxDepth; level++) {
+            if (levelCounts[level] == 0) {
+                continue;
+            }
+
+            // A cell's loose area reaches half a cell past each of its sides.
+            double half = cellSize(level) / 2;
+            int left = cellCoordinate(level, x - half, originX);
+            int right = cellCoordinate(level, x + width + half, originX);
+            int top = cellCoordinate(level, y - half, originY);
+            int bottom = cellCoordinate(level, y + height + half, originY);
+            int n = 1 << level;
+
+            for (int r = top; r <= bottom; r++) {
+                for (int c = left; c <= right; c++) {
+                    for (int id = cellHeads[levelStart[level] + r * n + c]; id != -1; id = next[id]) {
+                        if (pointQuery) {
+                            if (contains(id, x, y)) {
+                                results.add(id);
+                            }
+                        } else if (pairsWith >= 0) {
+                            if (id > pairsWith && overlaps(pairsWith, id)) {
+                                results.add(pairsWith);
+                                results.add(id);
+                            }
+                        } else if (overlaps(id, x, y, width, height)) {
+                            results.add(id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,22 +3,43 @@ import java.awt.event.*;
 
 /**
  * A MouseHelper object helps keeps track of mouse position and mouse clicks in your UI.
+ *
+ * The mouse position and buttons only change when you call {@link #resetForNextFrame},
+ * so they stay the same for your whole frame no matter what the mouse does in
+ * the meantime. If a button is pressed and released within one frame, both the
+ * "DownThisFrame" and "UpThisFrame" functions will be true.
  */
-public class MouseHelper implements MouseListener {
+public class MouseHelper implements MouseListener, MouseMotionListener, MouseWheelListener {
     Component component;
 
-    boolean primaryButtonDown = false;
-    boolean secondaryButtonDown = false;
-    boolean middleButtonDown = false;
+    // The latest position from mouse events, with x in the high 32 bits and y
+    // in the low 32 bits so both are always updated together.
+    volatile long latestPosition;
+    // The total amount the wheel has ever been scrolled.
+    volatile double totalWheelRotation = 0;
 
-    static enum MouseAction {
-        Down,
-        Up,
-    }
+    // The snapshot for the current frame. See resetForNextFrame.
+    int frameX, frameY;
+    Point framePoint;
+    double frameWheelRotation = 0;
+    double lastTotalWheelRotation = 0;
+
+    // Button presses come in from AWT's event thread through this queue, and
+    // get applied in resetForNextFrame.
+    InputEventQueue events = new InputEventQueue(64);
+
+    // One bit per button, for the buttons that are down and the buttons that
+    // were pressed or released on the current frame.
+    static final int PRIMARY = 1;
+    static final int SECONDARY = 2;
+    static final int MIDDLE = 4;
+
+    int buttonsDown = 0;
+    int buttonsDownThisFrame = 0;
+    int buttonsUpThisFrame = 0;
 
-    MouseAction primaryButtonThisFrame = null;
-    MouseAction secondaryButtonThisFrame = null;
-    MouseAction middleButtonThisFrame = null;
+    // Writes down what we use each frame, if someone is recording.
+    InputRecorder recorder;
 
     /**
      * Constructs a {@link MouseHelper} object for the given UI component.
@@ -26,25 +47,48 @@ public class MouseHelper implements MouseListener {
     public MouseHelper(Component component) {
         this.component = component;
         component.addMouseListener(this);
+        component.addMouseMotionListener(this);
+        component.addMouseWheelListener(this);
+
+        // We won't hear about the mouse until it moves, so ask where it is now.
+        if (!GraphicsEnvironment.isHeadless() && component.isShowing()) {
+            PointerInfo pointer = MouseInfo.getPointerInfo();
+            if (pointer != null) {
+                java.awt.Point componentPosition = component.getLocationOnScreen();
+                java.awt.Point mousePosition = pointer.getLocation();
+                setLatestPosition(mousePosition.x - componentPosition.x, mousePosition.y - componentPosition.y);
+            }
+        }
+        takeSnapshot();
     }
 
+    /**
+     * Gets the mouse's x position, relative to the top left of the component.
+     */
     public int getX() {
-        int componentX = (int) component.getLocationOnScreen().getX();
-        int mouseScreenX = (int) MouseInfo.getPointerInfo().getLocation().getX();
-        return mouseScreenX - componentX;
+        return frameX;
     }
 
+    /**
+     * Gets the mouse's y position, relative to the top left of the component.
+     */
     public int getY() {
-        int componentY = (int) component.getLocationOnScreen().getY();
-        int mouseScreenY = (int) MouseInfo.getPointerInfo().getLocation().getY();
-        return mouseScreenY - componentY;
+        return frameY;
     }
 
     /**
      * Gets the mouse's position as a {@link Point}.
      */
     public Point getXY() {
-        return new Point(getX(), getY());
+        return framePoint;
+    }
+
+    /**
+     * Gets how far the mouse wheel was scrolled on the current frame. Positive
+     * numbers mean scrolling down (or toward you), and negative numbers mean up.
+     */
+    public double getWheelRotationThisFrame() {
+        return frameWheelRotation;
     }
 
     /**
@@ -52,7 +96,7 @@ public class MouseHelper implements MouseListener {
      * (The primary button is usually left click.)
      */
     public boolean isPrimaryButtonDown() {
-        return primaryButtonDown;
+        return (buttonsDown & PRIMARY) != 0;
     }
 
     /**
@@ -60,14 +104,14 @@ public class MouseHelper implements MouseListener {
      * (The secondary button is usually right click, or two-finger click on many trackpads.)
      */
     public boolean isSecondaryButtonDown() {
-        return secondaryButtonDown;
+        return (buttonsDown & SECONDARY) != 0;
     }
 
     /**
      * Returns true if the mouse's middle button is held down.
      */
     public boolean isMiddleButtonDown() {
-        return middleButtonDown;
+        return (buttonsDown & MIDDLE) != 0;
     }
 
     /**
@@ -75,7 +119,7 @@ public class MouseHelper implements MouseListener {
      * (The primary button is usually left click.)
      */
     public boolean isPrimaryButtonDownThisFrame() {
-        return primaryButtonThisFrame == MouseAction.Down;
+        return (buttonsDownThisFrame & PRIMARY) != 0;
     }
     
     /**
@@ -83,14 +127,14 @@ public class MouseHelper implements MouseListener {
      * (The secondary button is usually right click, or two-finger click on many trackpads.)
      */
     public boolean isSecondaryButtonDownThisFrame() {
-        return secondaryButtonThisFrame == MouseAction.Down;
+        return (buttonsDownThisFrame & SECONDARY) != 0;
     }
 
     /**
      * Returns true if the mouse's middle button was pressed on the current frame.
      */
     public boolean isMiddleButtonDownThisFrame() {
-        return middleButtonThisFrame == MouseAction.Down;
+        return (buttonsDownThisFrame & MIDDLE) != 0;
     }
 
     /**
@@ -98,7 +142,7 @@ public class MouseHelper implements MouseListener {
      * (The primary button is usually left click.)
      */
     public boolean isPrimaryButtonUpThisFrame() {
-        return primaryButtonThisFrame == MouseAction.Up;
+        return (buttonsUpThisFrame & PRIMARY) != 0;
     }
     
     /**
@@ -106,14 +150,14 @@ public class MouseHelper implements MouseListener {
      * (The secondary button is usually right click, or two-finger click on many trackpads.)
      */
     public boolean isSecondaryButtonUpThisFrame() {
-        return secondaryButtonThisFrame == MouseAction.Up;
+        return (buttonsUpThisFrame & SECONDARY) != 0;
     }
 
     /**
      * Returns true if the mouse's middle button was released on the current frame.
      */
     public boolean isMiddleButtonUpThisFrame() {
-        return middleButtonThisFrame == MouseAction.Up;
+        return (buttonsUpThisFrame & MIDDLE) != 0;
     }
 
     /**
@@ -121,9 +165,49 @@ public class MouseHelper implements MouseListener {
      * do the right thing.
      */
     public void resetForNextFrame() {
-        primaryButtonThisFrame = null;
-        secondaryButtonThisFrame = null;
-        middleButtonThisFrame = null;
+        buttonsDownThisFrame = 0;
+        buttonsUpThisFrame = 0;
+
+        long end = events.beginRead();
+        for (long i = events.getReadIndex(); i < end; i++) {
+            int button = events.getCode(i);
+            if (recorder != null) {
+                recorder.addEvent(InputRecorder.MOUSE, events.getType(i), button);
+            }
+            if (events.getType(i) == InputEventQueue.MOUSE_DOWN) {
+                buttonsDown |= button;
+                buttonsDownThisFrame |= button;
+            } else {
+                buttonsDown &= ~button;
+                buttonsUpThisFrame |= button;
+            }
+        }
+        events.endRead(end);
+
+        takeSnapshot();
+    }
+
+    void takeSnapshot() {
+        long position = latestPosition;
+        int x = (int) (position >> 32);
+        int y = (int) position;
+        if (framePoint == null || x != frameX || y != frameY) {
+            frameX = x;
+            frameY = y;
+            framePoint = new Point(x, y);
+        }
+
+        double total = totalWheelRotation;
+        frameWheelRotation = total - lastTotalWheelRotation;
+        lastTotalWheelRotation = total;
+
+        if (recorder != null) {
+            recorder.setMouse(x, y, total);
+        }
+    }
+
+    void setLatestPosition(int x, int y) {
+        latestPosition = ((long) x << 32) | (y & 0xFFFFFFFFL);
     }
 
     /**
@@ -131,57 +215,86 @@ public class MouseHelper implements MouseListener {
      * (See the {@link Rectangle} class.)
      */
     public boolean isInRectangle(Rectangle rect) {
-        int mouseX = getX();
-        int mouseY = getY();
+        return isInRectangle(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Returns true if the mouse position is inside the rectangle with its top
+     * left at (x, y) and the given width and height.
+     */
+    public boolean isInRectangle(int x, int y, int width, int height) {
+        int mouseX = frameX;
+        int mouseY = frameY;
 
         return (
-            rect.x <= mouseX && mouseX <= rect.x + rect.width
-            && rect.y <= mouseY && mouseY <= rect.y + rect.height
+            x <= mouseX && mouseX <= x + width
+            && y <= mouseY && mouseY <= y + height
         );
     }
 
+    /**
+     * Finds every rectangle in the index that the mouse is inside of, and adds
+     * their ids to results. Much faster than calling {@link #isInRectangle} on
+     * lots of rectangles one at a time.
+     */
+    public void findRectanglesUnderMouse(SpatialIndex index, IntList results) {
+        index.queryPoint(frameX, frameY, results);
+    }
+
     @Override
     public void mouseClicked(MouseEvent e) {}
 
     @Override
     public void mousePressed(MouseEvent e) {
-        switch (e.getButton()) {
-            case MouseEvent.BUTTON1:
-                primaryButtonDown = true;
-                primaryButtonThisFrame = MouseAction.Down;
-                break;
-            case MouseEvent.BUTTON2:
-                secondaryButtonDown = true;
-                secondaryButtonThisFrame = MouseAction.Down;
-                break;
-            case MouseEvent.BUTTON3:
-                middleButtonDown = true;
-                middleButtonThisFrame = MouseAction.Down;
-                break;
+        int button = buttonBit(e);
+        if (button != 0) {
+            events.offer(InputEventQueue.MOUSE_DOWN, button, e.getWhen());
         }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
+        int button = buttonBit(e);
+        if (button != 0) {
+            events.offer(InputEventQueue.MOUSE_UP, button, e.getWhen());
+        }
+    }
+
+    static int buttonBit(MouseEvent e) {
         switch (e.getButton()) {
             case MouseEvent.BUTTON1:
-                primaryButtonDown = false;
-                primaryButtonThisFrame = MouseAction.Up;
-                break;
+                return PRIMARY;
             case MouseEvent.BUTTON2:
-                secondaryButtonDown = false;
-                secondaryButtonThisFrame = MouseAction.Up;
-                break;
+                return SECONDARY;
             case MouseEvent.BUTTON3:
-                middleButtonDown = false;
-                middleButtonThisFrame = MouseAction.Up;
-                break;
+                return MIDDLE;
+            default:
+                return 0;
         }
     }
 
     @Override
-    public void mouseEntered(MouseEvent e) {}
+    public void mouseEntered(MouseEvent e) {
+        setLatestPosition(e.getX(), e.getY());
+    }
+
+    @Override
+    public void mouseExited(MouseEvent e) {
+        setLatestPosition(e.getX(), e.getY());
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        setLatestPosition(e.getX(), e.getY());
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        setLatestPosition(e.getX(), e.getY());
+    }
 
     @Override
-    public void mouseExited(MouseEvent e) {}
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        totalWheelRotation += e.getPreciseWheelRotation(); // only the AWT thread writes this
+    }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * A PointBuffer holds lots of points packed into plain int arrays, one array
+ * for x and one for y. That takes far less memory than lots of {@link Point}
+ * objects, and lets you work on every point at once with simple loops that
+ * Java can turn into fast vector instructions.
+ *
+ * Use {@link #add(Point)} and {@link #get} to go back and forth with regular
+ * {@link Point} objects when you need to.
+ *
+ * The bulk checks subtract coordinates from each other, so keep coordinates
+ * between about -1 billion and 1 billion.
+ */
+public class PointBuffer {
+    int[] xs;
+    int[] ys;
+    int size = 0;
+
+    public PointBuffer() {
+        this(16);
+    }
+
+    public PointBuffer(int initialCapacity) {
+        xs = new int[Math.max(initialCapacity, 1)];
+        ys = new int[Math.max(initialCapacity, 1)];
+    }
+
+    /**
+     * Makes a {@link PointBuffer} holding copies of the given points.
+     */
+    public static PointBuffer fromArray(Point[] points) {
+        PointBuffer buffer = new PointBuffer(points.length);
+        for (Point p : points) {
+            buffer.add(p);
+        }
+        return buffer;
+    }
+
+    /**
+     * Adds a point and returns its index.
+     */
+    public int add(int x, int y) {
+        if (size == xs.length) {
+            xs = Arrays.copyOf(xs, xs.length * 2);
+            ys = Arrays.copyOf(ys, ys.length * 2);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        return size++;
+    }
+
+    public int add(Point p) {
+        return add(p.x, p.y);
+    }
+
+    public void set(int i, int x, int y) {
+        checkIndex(i);
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    public int getX(int i) {
+        checkIndex(i);
+        return xs[i];
+    }
+
+    public int getY(int i) {
+        checkIndex(i);
+        return ys[i];
+    }
+
+    /**
+     * Gets point i as a {@link Point}.
+     */
+    public Point get(int i) {
+        checkIndex(i);
+        return new Point(xs[i], ys[i]);
+    }
+
+    /**
+     * Gets every point as an array of {@link Point}s.
+     */
+    public Point[] toArray() {
+        Point[] points = new Point[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = new Point(xs[i], ys[i]);
+        }
+        return points;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Moves every point by dx and dy.
+     */
+    public void translate(int dx, int dy) {
+        int[] xs = this.xs, ys = this.ys;
+        for (int i = 0; i < size; i++) {
+            xs[i] += dx;
+        }
+        for (int i = 0; i < size; i++) {
+            ys[i] += dy;
+        }
+    }
+
+    /**
+     * Gets the smallest {@link Rectangle} that contains every point, or null if
+     * there are no points.
+     */
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        int[] xs = this.xs, ys = this.ys;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * For every point, sets inside[i] to 1 if it's inside the rectangle (edges
+     * count, like {@link MouseHelper#isInRectangle}) and 0 if not. Returns how
+     * many points are inside.
+     */
+    public int checkInRectangle(Rectangle rect, int[] inside) {
+        Rectangle r = Rectangle.normalize(rect);
+        int left = r.x, top = r.y, right = r.x + r.width, bottom = r.y + r.height;
+        int[] xs = this.xs, ys = this.ys;
+        int count = 0;
+        // No ifs in here, so Java can do several points at once. Each
+        // subtraction is negative exactly when the point is on the wrong side
+        // of an edge, so the sign bits tell us if any edge check failed.
+        for (int i = 0; i < size; i++) {
+            int outside = (xs[i] - left) | (right - xs[i]) | (ys[i] - top) | (bottom - ys[i]);
+            int in = (~outside) >>> 31;
+            inside[i] = in;
+            count += in;
+        }
+        return count;
+    }
+}
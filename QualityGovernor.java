@@ -0,0 +1,428 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * A QualityGovernor trades looks for speed when frames start taking too long.
+ * It watches how long recent frames took and steps down through quality
+ * tiers (less antialiasing, faster rendering settings, and eventually drawing
+ * at a lower resolution and stretching it to fit) until frames fit in the
+ * time budget again. When there's plenty of time to spare, it steps back up.
+ *
+ * <pre>
+ * QualityGovernor quality = new QualityGovernor(60);
+ * while (true) {
+ *     scheduler.beginFrame();
+ *     Graphics2D g = quality.beginFrame(canvas);
+ *     canvas.clear();
+ *     // draw things with g
+ *     quality.endFrame(canvas);
+ *     canvas.present();
+ *     scheduler.endFrame();
+ *     quality.addFrameTime(scheduler.getLastWorkSeconds());
+ * }
+ * </pre>
+ *
+ * It only steps down after frames have been too slow for a while, and only
+ * steps up after they've been fast for much longer, so one slow frame doesn't
+ * make everything blurry and it doesn't flip back and forth between two tiers.
+ * If stepping up just makes it step down again soon after, it waits longer
+ * before trying again next time.
+ */
+public class QualityGovernor {
+    /**
+     * One level of quality: which rendering hints to use and what fraction
+     * of the full resolution to draw at. The hints are values from
+     * {@link RenderingHints}, like RenderingHints.VALUE_ANTIALIAS_ON.
+     */
+    public static class Tier {
+        public final String name;
+        public final Object antialiasing;
+        public final Object textAntialiasing;
+        public final Object rendering;
+        public final Object strokeControl;
+        public final Object interpolation;
+        public final double scale;
+
+        /**
+         * Constructs a {@link Tier}.
+         * @param antialiasing A value for RenderingHints.KEY_ANTIALIASING.
+         * @param textAntialiasing A value for RenderingHints.KEY_TEXT_ANTIALIASING.
+         * @param rendering A value for RenderingHints.KEY_RENDERING.
+         * @param strokeControl A value for RenderingHints.KEY_STROKE_CONTROL.
+         * @param interpolation How images are stretched, like RenderingHints.VALUE_INTERPOLATION_BILINEAR.
+         * @param scale What fraction of the full resolution to draw at (1 for all of it).
+         */
+        public Tier(String name, Object antialiasing, Object textAntialiasing, Object rendering,
+                Object strokeControl, Object interpolation, double scale) {
+            if (scale <= 0 || scale > 1) {
+                throw new IllegalArgumentException("A tier's scale must be more than 0 and at most 1, but was " + scale);
+            }
+            check(RenderingHints.KEY_ANTIALIASING, antialiasing);
+            check(RenderingHints.KEY_TEXT_ANTIALIASING, textAntialiasing);
+            check(RenderingHints.KEY_RENDERING, rendering);
+            check(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+            check(RenderingHints.KEY_INTERPOLATION, interpolation);
+            this.name = name;
+            this.antialiasing = antialiasing;
+            this.textAntialiasing = textAntialiasing;
+            this.rendering = rendering;
+            this.strokeControl = strokeControl;
+            this.interpolation = interpolation;
+            this.scale = scale;
+        }
+
+        static void check(RenderingHints.Key key, Object value) {
+            if (!key.isCompatibleValue(value)) {
+                throw new IllegalArgumentException(value + " can't be used for " + key);
+            }
+        }
+
+        void apply(Graphics2D g) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, textAntialiasing);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, rendering);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Gets told whenever the governor changes tiers.
+     */
+    public interface Listener {
+        /**
+         * Called when the tier changes. averageFrameMillis is the average
+         * frame time that made it change.
+         */
+        void tierChanged(Tier from, Tier to, double averageFrameMillis);
+    }
+
+    /**
+     * The tiers you get if you don't pick your own, best looking first. The
+     * best one looks the same as {@link GraphicsExample#createCanvas} sets
+     * things up (antialiasing on, everything else left how Java starts it),
+     * so the governor doesn't change anything until frames get slow. Then it
+     * turns off antialiasing, and after that draws at half resolution.
+     */
+    public static Tier[] defaultTiers() {
+        return new Tier[] {
+            new Tier("High", RenderingHints.VALUE_ANTIALIAS_ON, RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT,
+                RenderingHints.VALUE_RENDER_DEFAULT, RenderingHints.VALUE_STROKE_DEFAULT,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR, 1),
+            new Tier("Low", RenderingHints.VALUE_ANTIALIAS_OFF, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+                RenderingHints.VALUE_RENDER_SPEED, RenderingHints.VALUE_STROKE_NORMALIZE,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR, 1),
+            new Tier("Lowest", RenderingHints.VALUE_ANTIALIAS_OFF, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+                RenderingHints.VALUE_RENDER_SPEED, RenderingHints.VALUE_STROKE_NORMALIZE,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR, 0.5),
+        };
+    }
+
+    Tier[] tiers;
+    int tierIndex = 0;
+    double budgetMillis;
+
+    /**
+     * Steps down when the average frame takes more than this fraction of the budget.
+     */
+    public double downgradeAbove = 0.9;
+
+    /**
+     * Steps up when the average frame takes less than this fraction of the budget.
+     */
+    public double upgradeBelow = 0.5;
+
+    /**
+     * How many frames get averaged together. The average has to be too slow
+     * before stepping down, so this many frames in a row have to be slow-ish.
+     */
+    public int downgradeFrames = 20;
+
+    /**
+     * How many frames in a row have to be fast before stepping up.
+     */
+    public int upgradeFrames = 180;
+
+    // The most recent frame times, in a ring.
+    double[] recentMillis;
+    int recentCount = 0;
+    int recentNext = 0;
+    double recentTotal = 0;
+
+    int fastFrames = 0;
+
+    // How much longer than upgradeFrames to wait before stepping up, which
+    // doubles every time stepping up doesn't work out.
+    int upgradeBackoff = 1;
+    boolean upgradeOnTrial = false; // true until the last step up has held for a while
+    long framesSinceUpgrade = 0;
+
+    ArrayList<Listener> listeners = new ArrayList<>();
+
+    // Stats
+    long frames = 0;
+    long downgrades = 0;
+    long upgrades = 0;
+    long[] framesPerTier;
+
+    // Drawing at a lower resolution. See beginFrame.
+    BufferedImage lowResImage;
+    Graphics2D lowResGraphics;
+    Tier lowResTier;
+    Graphics2D appliedGraphics;
+    Tier appliedTier;
+
+    /**
+     * Constructs a {@link QualityGovernor} that tries to keep up with the
+     * given number of frames per second, using the default tiers.
+     */
+    public QualityGovernor(double framesPerSecond) {
+        this(framesPerSecond, defaultTiers());
+    }
+
+    /**
+     * Constructs a {@link QualityGovernor} with your own tiers, best looking first.
+     */
+    public QualityGovernor(double framesPerSecond, Tier[] tiers) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Frames per second must be greater than zero!");
+        }
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("There has to be at least one tier!");
+        }
+        this.budgetMillis = 1000.0 / framesPerSecond;
+        this.tiers = tiers.clone();
+        this.framesPerTier = new long[tiers.length];
+        this.recentMillis = new double[Math.max(1, downgradeFrames)];
+    }
+
+    /**
+     * Call this at the start of every frame, and draw with the graphics
+     * object it returns. Usually that's just the canvas's, set up for the
+     * current tier. At tiers that draw at a lower resolution, it's one for a
+     * smaller image, which {@link #endFrame} stretches onto the canvas.
+     *
+     * The drawing functions in {@link GraphicsExample} still treat the smaller
+     * image's graphics as the canvas's, so dirty tracking and the text and
+     * shape caches keep working. If the canvas is recording, though, they
+     * record instead of drawing, so recorded frames are always full size.
+     */
+    public Graphics2D beginFrame(GraphicsCanvas canvas) {
+        Tier tier = tiers[tierIndex];
+        Graphics2D g = canvas.getGraphics2D();
+        if (tier.scale >= 1) {
+            canvas.scaledGraphics = null;
+            applyTier(g, tier);
+            return g;
+        }
+
+        int width = Math.max(1, (int) Math.ceil(canvas.width * tier.scale));
+        int height = Math.max(1, (int) Math.ceil(canvas.height * tier.scale));
+        if (lowResImage == null || lowResImage.getWidth() != width || lowResImage.getHeight() != height) {
+            if (lowResGraphics != null) {
+                lowResGraphics.dispose();
+            }
+            // See-through, so layers behind the frame (see GraphicsCanvas.addLayer) still show.
+            lowResImage = SpriteCache.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+            lowResGraphics = lowResImage.createGraphics();
+            lowResGraphics.scale(tier.scale, tier.scale); // so you can draw like it's full size
+            lowResTier = null;
+        }
+        if (lowResTier != tier) {
+            tier.apply(lowResGraphics);
+            lowResTier = tier;
+        }
+        lowResGraphics.setComposite(AlphaComposite.Clear);
+        lowResGraphics.fillRect(0, 0, canvas.width, canvas.height);
+        lowResGraphics.setComposite(AlphaComposite.SrcOver);
+
+        // Let the drawing functions find the canvas from the smaller image's
+        // graphics too, so dirty tracking, the text and shape caches, and
+        // recording keep working.
+        canvas.scaledGraphics = lowResGraphics;
+        return lowResGraphics;
+    }
+
+    void applyTier(Graphics2D g, Tier tier) {
+        // Changing hints makes Java redo some setup, so only change them when we have to.
+        if (g != appliedGraphics || tier != appliedTier) {
+            tier.apply(g);
+            appliedGraphics = g;
+            appliedTier = tier;
+        }
+    }
+
+    /**
+     * Call this after drawing the frame and before presenting it. At tiers
+     * that draw at a lower resolution, this stretches the frame to fill the
+     * canvas; otherwise it does nothing.
+     */
+    public void endFrame(GraphicsCanvas canvas) {
+        Tier tier = tiers[tierIndex];
+        if (tier.scale >= 1 || lowResImage == null) {
+            return;
+        }
+        Graphics2D g = canvas.getGraphics2D();
+        applyTier(g, tier); // for the interpolation hint
+        g.drawImage(lowResImage, 0, 0, canvas.width, canvas.height,
+            0, 0, lowResImage.getWidth(), lowResImage.getHeight(), null);
+        canvas.markDirty(0, 0, canvas.width, canvas.height);
+    }
+
+    /**
+     * Tells the governor how long the last frame took to make (not counting
+     * time spent waiting for the next frame), and changes tiers if needed.
+     * {@link FrameScheduler#getLastWorkSeconds} is a good thing to pass.
+     */
+    public void addFrameTime(double seconds) {
+        double millis = seconds * 1000;
+        frames++;
+        framesPerTier[tierIndex]++;
+        framesSinceUpgrade++;
+
+        if (recentMillis.length != Math.max(1, downgradeFrames)) {
+            recentMillis = new double[Math.max(1, downgradeFrames)];
+            clearRecent();
+        }
+        if (recentCount == recentMillis.length) {
+            recentTotal -= recentMillis[recentNext];
+        } else {
+            recentCount++;
+        }
+        recentMillis[recentNext] = millis;
+        recentTotal += millis;
+        recentNext = (recentNext + 1) % recentMillis.length;
+
+        if (recentCount < recentMillis.length) {
+            return; // not enough frames since the last change to know yet
+        }
+        double average = recentTotal / recentCount;
+
+        fastFrames = average < budgetMillis * upgradeBelow ? fastFrames + 1 : 0;
+
+        if (average > budgetMillis * downgradeAbove && tierIndex < tiers.length - 1) {
+            if (upgradeOnTrial) {
+                // We only just stepped up, and it was too much. Wait longer next time.
+                upgradeBackoff = Math.min(upgradeBackoff * 2, 16);
+                upgradeOnTrial = false;
+            }
+            downgrades++;
+            changeTier(tierIndex + 1, average);
+        } else if (fastFrames >= (long) upgradeFrames * upgradeBackoff && tierIndex > 0) {
+            upgrades++;
+            upgradeOnTrial = true;
+            framesSinceUpgrade = 0;
+            changeTier(tierIndex - 1, average);
+        } else if (upgradeOnTrial && framesSinceUpgrade > upgradeFrames) {
+            // The step up held, so stop being so careful.
+            upgradeOnTrial = false;
+            upgradeBackoff = 1;
+        }
+    }
+
+    void changeTier(int index, double average) {
+        Tier from = tiers[tierIndex];
+        tierIndex = index;
+        clearRecent();
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).tierChanged(from, tiers[index], average);
+        }
+    }
+
+    void clearRecent() {
+        recentCount = 0;
+        recentNext = 0;
+        recentTotal = 0;
+        fastFrames = 0;
+    }
+
+    /**
+     * Jumps straight to the tier at the given index (0 is the best looking).
+     * Listeners hear about it like any other change.
+     */
+    public void setTier(int index) {
+        if (index < 0 || index >= tiers.length) {
+            throw new IllegalArgumentException("There is no tier " + index + "; there are only " + tiers.length);
+        }
+        if (index != tierIndex) {
+            changeTier(index, getAverageFrameMillis());
+        }
+    }
+
+    /**
+     * Adds a listener that gets told whenever the tier changes.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener}.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets the tier frames are being drawn at right now.
+     */
+    public Tier getTier() {
+        return tiers[tierIndex];
+    }
+
+    /**
+     * Gets the index of the current tier (0 is the best looking).
+     */
+    public int getTierIndex() {
+        return tierIndex;
+    }
+
+    /**
+     * Gets the average time of the recent frames, in milliseconds, or 0 if
+     * there haven't been any since the last tier change.
+     */
+    public double getAverageFrameMillis() {
+        return recentCount == 0 ? 0 : recentTotal / recentCount;
+    }
+
+    /**
+     * Gets the time each frame has, in milliseconds.
+     */
+    public double getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * Gets the number of times the governor has stepped down a tier.
+     */
+    public long getDowngrades() {
+        return downgrades;
+    }
+
+    /**
+     * Gets the number of times the governor has stepped up a tier.
+     */
+    public long getUpgrades() {
+        return upgrades;
+    }
+
+    /**
+     * Gets the number of frames drawn at the tier with the given index.
+     */
+    public long getFramesAtTier(int index) {
+        return framesPerTier[index];
+    }
+
+    /**
+     * Gets the total number of frames the governor has been told about.
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+}
@@ -0,0 +1,242 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A RawFrameFile holds a whole recording of frames in one big file, with the
+ * pixels stored just as they are in memory. That makes it much bigger than a
+ * folder of PNGs, but also much faster to write, and you can jump straight to
+ * any frame without reading the ones before it.
+ *
+ * {@link FrameRecorder} writes these. To look at one afterwards, open it with
+ * {@link #open} and use {@link #getImage} to get any frame you want.
+ *
+ * The file starts with a 32 byte header (see {@link #MAGIC}), followed by one
+ * slot per frame. Every slot is the same size: the frame's number, the time
+ * it was captured, and then its pixels, all in little-endian order. So frame
+ * i always starts at HEADER_BYTES + i * getSlotBytes().
+ */
+public class RawFrameFile implements Closeable {
+    /**
+     * The first four bytes of every raw frame file. After that come the
+     * version, width, height, image type (like BufferedImage.TYPE_INT_RGB),
+     * and number of frames, as ints, plus 8 spare bytes.
+     */
+    public static final int MAGIC = 0x52464347; // "GCFR" when read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int SLOT_HEADER_BYTES = 16;
+
+    /**
+     * About how much of the file gets mapped into memory at once. Java can't
+     * let go of a mapping until the garbage collector gets around to it, so
+     * mapping every frame separately would pile up thousands of them.
+     */
+    static final long WINDOW_BYTES = 64L * 1024 * 1024;
+
+    FileChannel channel;
+    int width, height, imageType;
+    int frameCount;
+    long slotBytes;
+    boolean writable;
+
+    // The file mapped into memory a window of slots at a time, made as
+    // they're needed. Each window also has an int view for the pixels.
+    int slotsPerWindow;
+    ArrayList<MappedByteBuffer> windows = new ArrayList<>();
+    ArrayList<IntBuffer> windowInts = new ArrayList<>();
+
+    RawFrameFile(FileChannel channel, int width, int height, int imageType, int frameCount, boolean writable) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.imageType = imageType;
+        this.frameCount = frameCount;
+        this.slotBytes = SLOT_HEADER_BYTES + 4L * width * height;
+        this.writable = writable;
+        this.slotsPerWindow = (int) Math.max(1, Math.min(WINDOW_BYTES / slotBytes, Integer.MAX_VALUE / slotBytes));
+    }
+
+    /**
+     * Makes a new, empty raw frame file, replacing any file that's already there.
+     */
+    public static RawFrameFile create(Path path, int width, int height, int imageType) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RawFrameFile file = new RawFrameFile(channel, width, height, imageType, 0, true);
+        file.writeHeader();
+        return file;
+    }
+
+    /**
+     * Opens a raw frame file to read it.
+     */
+    public static RawFrameFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a raw frame file");
+        }
+        int width = header.getInt();
+        int height = header.getInt();
+        int imageType = header.getInt();
+        int frameCount = header.getInt();
+        return new RawFrameFile(channel, width, height, imageType, frameCount, false);
+    }
+
+    void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(imageType).putInt(frameCount);
+        header.rewind();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Writes a frame into the given slot. Different slots can be written from
+     * different threads at the same time.
+     */
+    void writeFrame(int slot, long frameNumber, long time, int[] pixels) throws IOException {
+        int window = slot / slotsPerWindow;
+        int offset = (int) (slot % slotsPerWindow * slotBytes);
+        MappedByteBuffer buffer = getWindow(window);
+        // Only absolute puts, which don't move the buffer's position, so
+        // threads writing different slots don't get in each other's way.
+        buffer.putLong(offset, frameNumber);
+        buffer.putLong(offset + 8, time);
+        windowInts.get(window).put((offset + SLOT_HEADER_BYTES) / 4, pixels, 0, width * height);
+        synchronized (this) {
+            frameCount = Math.max(frameCount, slot + 1);
+        }
+    }
+
+    /**
+     * Gets the given window of slots, mapping it if it hasn't been yet. When
+     * reading, the last window stops at the end of the file.
+     */
+    synchronized MappedByteBuffer getWindow(int window) throws IOException {
+        while (windows.size() <= window) {
+            windows.add(null);
+            windowInts.add(null);
+        }
+        MappedByteBuffer buffer = windows.get(window);
+        if (buffer == null) {
+            long start = HEADER_BYTES + window * slotsPerWindow * slotBytes;
+            long length = slotsPerWindow * slotBytes;
+            if (!writable) {
+                length = Math.min(length, channel.size() - start);
+            }
+            buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            windows.set(window, buffer);
+            windowInts.set(window, buffer.asIntBuffer());
+        }
+        return buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of frames in the file.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets how many bytes each frame takes up in the file.
+     */
+    public long getSlotBytes() {
+        return slotBytes;
+    }
+
+    /**
+     * Gets where the given slot starts in its window, after checking it exists.
+     */
+    int slotOffset(int slot) {
+        if (slot < 0 || slot >= frameCount) {
+            throw new IndexOutOfBoundsException("There is no frame " + slot + " (there are " + frameCount + ")");
+        }
+        return (int) (slot % slotsPerWindow * slotBytes);
+    }
+
+    /**
+     * Gets the frame number of the given frame, counting from the first
+     * frame the recorder was asked to capture. Frames that got dropped leave
+     * gaps in the numbers.
+     */
+    public long getFrameNumber(int index) throws IOException {
+        int offset = slotOffset(index);
+        return getWindow(index / slotsPerWindow).getLong(offset);
+    }
+
+    /**
+     * Gets when the given frame was captured, from System.nanoTime.
+     */
+    public long getTime(int index) throws IOException {
+        int offset = slotOffset(index);
+        return getWindow(index / slotsPerWindow).getLong(offset + 8);
+    }
+
+    /**
+     * Reads the given frame's pixels into an image. Pass null to get a new
+     * image, or pass the image from last time to reuse it.
+     */
+    public BufferedImage getImage(int index, BufferedImage reuse) throws IOException {
+        BufferedImage image = reuse;
+        if (image == null || image.getWidth() != width || image.getHeight() != height || image.getType() != imageType) {
+            image = new BufferedImage(width, height, imageType);
+        }
+        int offset = slotOffset(index);
+        getWindow(index / slotsPerWindow);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        windowInts.get(index / slotsPerWindow).get((offset + SLOT_HEADER_BYTES) / 4, pixels, 0, width * height);
+        return image;
+    }
+
+    /**
+     * Finishes writing the file (if it was being written) and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writable) {
+            writeHeader(); // so the frame count is right
+            for (MappedByteBuffer window : windows) {
+                if (window != null) {
+                    window.force();
+                }
+            }
+            // The last window may have made the file longer than the frames
+            // in it. Some systems won't shrink a file while it's mapped, and
+            // the header says how many frames there are anyway, so it's fine
+            // if this doesn't work.
+            try {
+                channel.truncate(HEADER_BYTES + frameCount * slotBytes);
+            } catch (IOException e) {
+                // leave it longer
+            }
+            channel.force(false);
+        }
+        windows.clear();
+        windowInts.clear();
+        channel.close();
+    }
+}
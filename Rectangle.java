@@ -23,8 +23,16 @@ public class Rectangle {
      * Checks if two rectangles r1 and r2 overlap.
      */
     public static boolean checkOverlap(Rectangle r1, Rectangle r2) {
-        boolean overlapInX = (r1.x < r2.x + r2.width) && (r1.x + r1.width > r2.x);
-        boolean overlapInY = (r1.y < r2.y + r2.height) && (r1.y + r1.height > r2.y);
+        return checkOverlap(r1.x, r1.y, r1.width, r1.height, r2.x, r2.y, r2.width, r2.height);
+    }
+
+    /**
+     * Checks if two rectangles overlap, given as plain numbers instead of
+     * {@link Rectangle} objects.
+     */
+    public static boolean checkOverlap(int x1, int y1, int width1, int height1, int x2, int y2, int width2, int height2) {
+        boolean overlapInX = (x1 < x2 + width2) && (x1 + width1 > x2);
+        boolean overlapInY = (y1 < y2 + height2) && (y1 + height1 > y2);
 
         return overlapInX && overlapInY;
     }
@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * A RectangleBuffer holds lots of rectangles packed into plain int arrays,
+ * one array each for x, y, width, and height. That takes far less memory
+ * than lots of {@link Rectangle} objects, and lets you work on every
+ * rectangle at once with simple loops that Java can turn into fast vector
+ * instructions.
+ *
+ * Use {@link #add(Rectangle)} and {@link #get} to go back and forth with
+ * regular {@link Rectangle} objects when you need to.
+ *
+ * The bulk checks subtract coordinates from each other, so keep coordinates
+ * between about -1 billion and 1 billion.
+ */
+public class RectangleBuffer {
+    int[] xs;
+    int[] ys;
+    int[] widths;
+    int[] heights;
+    int size = 0;
+
+    public RectangleBuffer() {
+        this(16);
+    }
+
+    public RectangleBuffer(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+    }
+
+    /**
+     * Makes a {@link RectangleBuffer} holding copies of the given rectangles.
+     */
+    public static RectangleBuffer fromArray(Rectangle[] rects) {
+        RectangleBuffer buffer = new RectangleBuffer(rects.length);
+        for (Rectangle r : rects) {
+            buffer.add(r);
+        }
+        return buffer;
+    }
+
+    /**
+     * Adds a rectangle and returns its index.
+     */
+    public int add(int x, int y, int width, int height) {
+        if (size == xs.length) {
+            int newLength = xs.length * 2;
+            xs = Arrays.copyOf(xs, newLength);
+            ys = Arrays.copyOf(ys, newLength);
+            widths = Arrays.copyOf(widths, newLength);
+            heights = Arrays.copyOf(heights, newLength);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        widths[size] = width;
+        heights[size] = height;
+        return size++;
+    }
+
+    public int add(Rectangle r) {
+        return add(r.x, r.y, r.width, r.height);
+    }
+
+    public void set(int i, int x, int y, int width, int height) {
+        checkIndex(i);
+        xs[i] = x;
+        ys[i] = y;
+        widths[i] = width;
+        heights[i] = height;
+    }
+
+    public int getX(int i) {
+        checkIndex(i);
+        return xs[i];
+    }
+
+    public int getY(int i) {
+        checkIndex(i);
+        return ys[i];
+    }
+
+    public int getWidth(int i) {
+        checkIndex(i);
+        return widths[i];
+    }
+
+    public int getHeight(int i) {
+        checkIndex(i);
+        return heights[i];
+    }
+
+    /**
+     * Gets rectangle i as a {@link Rectangle}.
+     */
+    public Rectangle get(int i) {
+        checkIndex(i);
+        return new Rectangle(xs[i], ys[i], widths[i], heights[i]);
+    }
+
+    /**
+     * Gets every rectangle as an array of {@link Rectangle}s.
+     */
+    public Rectangle[] toArray() {
+        Rectangle[] rects = new Rectangle[size];
+        for (int i = 0; i < size; i++) {
+            rects[i] = new Rectangle(xs[i], ys[i], widths[i], heights[i]);
+        }
+        return rects;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Fixes up every rectangle with a negative width or height, just like
+     * {@link Rectangle#normalize}, but without making any new objects.
+     */
+    public void normalizeAll() {
+        normalize(xs, widths, size);
+        normalize(ys, heights, size);
+    }
+
+    static void normalize(int[] positions, int[] sizes, int size) {
+        // No ifs in here, so Java can do several rectangles at once.
+        // negative is all 1 bits when the size is negative and all 0 bits when
+        // it isn't, so this moves the position back and flips the size only
+        // when we need to.
+        for (int i = 0; i < size; i++) {
+            int s = sizes[i];
+            int negative = s >> 31;
+            positions[i] += s & negative;
+            sizes[i] = (s ^ negative) - negative;
+        }
+    }
+
+    /**
+     * Moves every rectangle by dx and dy.
+     */
+    public void translate(int dx, int dy) {
+        int[] xs = this.xs, ys = this.ys;
+        for (int i = 0; i < size; i++) {
+            xs[i] += dx;
+        }
+        for (int i = 0; i < size; i++) {
+            ys[i] += dy;
+        }
+    }
+
+    /**
+     * Gets the smallest {@link Rectangle} that contains every rectangle, or
+     * null if there are none. Call {@link #normalizeAll} first if any of them
+     * might have negative sizes.
+     */
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        int[] xs = this.xs, ys = this.ys, widths = this.widths, heights = this.heights;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i] + widths[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i] + heights[i]);
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Checks every rectangle against one other rectangle, like
+     * {@link Rectangle#checkOverlap}. Sets overlaps[i] to 1 if rectangle i
+     * overlaps and 0 if not, and returns how many overlap. Call
+     * {@link #normalizeAll} first if any of them might have negative sizes.
+     */
+    public int checkOverlap(Rectangle rect, int[] overlaps) {
+        Rectangle r = Rectangle.normalize(rect);
+        int left = r.x, top = r.y, right = r.x + r.width, bottom = r.y + r.height;
+        int[] xs = this.xs, ys = this.ys, widths = this.widths, heights = this.heights;
+        int count = 0;
+        // Each subtraction is negative exactly when that side overlaps, so the
+        // sign bit of all of them and-ed together is 1 only if every side does.
+        for (int i = 0; i < size; i++) {
+            int all = (xs[i] - right) & (left - (xs[i] + widths[i])) & (ys[i] - bottom) & (top - (ys[i] + heights[i]));
+            int overlap = all >>> 31;
+            overlaps[i] = overlap;
+            count += overlap;
+        }
+        return count;
+    }
+
+    /**
+     * Finds every rectangle that overlaps the given one, and adds their
+     * indexes to results. Uses the overlaps array as scratch space; it must be
+     * at least {@link #size} long.
+     */
+    public void findOverlapping(Rectangle rect, int[] overlaps, IntList results) {
+        if (checkOverlap(rect, overlaps) == 0) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            if (overlaps[i] != 0) {
+                results.add(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A RenderThread draws your frames on a second thread, so your program can
+ * work on the next frame while the last one is still being drawn. If
+ * updating takes 8 milliseconds and drawing takes 8 milliseconds, frames take
+ * about 8 milliseconds instead of 16.
+ *
+ * Your main loop draws with the drawing functions in {@link GraphicsExample}
+ * like usual, but instead of drawing right away, they get written down in a
+ * {@link DisplayList}. When you call {@link #endFrame}, the list is handed to
+ * the render thread, which clears the canvas, draws the list, and presents it.
+ *
+ * <pre>
+ * RenderThread renderer = new RenderThread(canvas, 2);
+ * while (true) {
+ *     Graphics2D g = renderer.beginFrame();
+ *     // move things around and draw things
+ *     renderer.endFrame();
+ * }
+ * </pre>
+ *
+ * Once the render thread starts, it's the only thing that should touch the
+ * canvas. Drawing with the Graphics2D directly (instead of the drawing
+ * functions) doesn't do anything, since there's nothing to record it.
+ */
+public class RenderThread {
+    GraphicsCanvas canvas;
+
+    // The lists frames get recorded into. Frame f always goes in lists[f % lists.length].
+    DisplayList[] lists;
+    int maxQueuedFrames;
+
+    // A tiny canvas that's always recording. The main thread draws with its
+    // graphics object, which is how the drawing functions know to record.
+    GraphicsCanvas recorder;
+
+    // How many frames the main thread has finished recording, and how many
+    // the render thread has finished drawing. Each is only ever changed by
+    // one thread, so handing off frames never needs a lock.
+    AtomicLong recordedFrames = new AtomicLong();
+    AtomicLong renderedFrames = new AtomicLong();
+
+    Thread thread;
+    volatile Thread mainThread;
+    volatile boolean running = true;
+    volatile Throwable failure;
+
+    long waitNanos = 0;
+    volatile long renderNanos = 0;
+
+    /**
+     * Constructs a {@link RenderThread} that draws onto the given canvas, and
+     * starts it. The main thread can get at most maxQueuedFrames frames ahead
+     * of what's on screen (1 or 2). More lets the two threads smooth over
+     * each other's hiccups, but makes what you see lag further behind input.
+     */
+    public RenderThread(GraphicsCanvas canvas, int maxQueuedFrames) {
+        if (maxQueuedFrames < 1 || maxQueuedFrames > 2) {
+            throw new IllegalArgumentException("maxQueuedFrames must be 1 or 2, but was " + maxQueuedFrames);
+        }
+        this.canvas = canvas;
+        this.maxQueuedFrames = maxQueuedFrames;
+
+        // One list for each frame that can be waiting, plus one to record into.
+        lists = new DisplayList[maxQueuedFrames + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new DisplayList();
+        }
+
+        recorder = new GraphicsCanvas(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+        Graphics2D canvasGraphics = canvas.getGraphics2D();
+        // Text gets measured on the recorder, so it should measure the same way.
+        recorder.getGraphics2D().setRenderingHints(canvasGraphics.getRenderingHints());
+
+        thread = new Thread(this::run, "RenderThread");
+        thread.setDaemon(true); // don't keep the program running once the main thread is done
+        thread.start();
+    }
+
+    /**
+     * Call this at the start of every frame, and draw with the graphics
+     * object it returns. If the render thread has fallen too far behind, this
+     * waits for it to catch up.
+     */
+    public Graphics2D beginFrame() {
+        long frame = recordedFrames.get();
+        if (frame - renderedFrames.get() > maxQueuedFrames) {
+            long start = System.nanoTime();
+            mainThread = Thread.currentThread();
+            while (frame - renderedFrames.get() > maxQueuedFrames && failure == null) {
+                LockSupport.parkNanos(this, 1_000_000);
+            }
+            mainThread = null;
+            waitNanos += System.nanoTime() - start;
+        }
+        checkFailure();
+
+        DisplayList list = lists[(int) (frame % lists.length)];
+        list.clear();
+        recorder.startRecording(list);
+        return recorder.getGraphics2D();
+    }
+
+    /**
+     * Call this at the end of every frame to hand it to the render thread.
+     */
+    public void endFrame() {
+        recorder.stopRecording();
+        recordedFrames.incrementAndGet(); // this is what lets the render thread see the list
+        LockSupport.unpark(thread);
+    }
+
+    void run() {
+        try {
+            while (running) {
+                long frame = renderedFrames.get();
+                if (frame == recordedFrames.get()) {
+                    LockSupport.parkNanos(this, 1_000_000);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                DisplayList list = lists[(int) (frame % lists.length)];
+                Graphics2D g = canvas.getGraphics2D();
+                canvas.clear();
+                if (canvas.rasterizer != null) {
+                    canvas.rasterizer.render(list, g);
+                } else {
+                    list.replay(g);
+                }
+                canvas.present();
+                renderNanos += System.nanoTime() - start;
+
+                renderedFrames.incrementAndGet(); // this hands the list back
+                Thread waiting = mainThread;
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            Thread waiting = mainThread;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("The render thread crashed", failure);
+        }
+    }
+
+    /**
+     * Waits until every frame handed off so far has been drawn.
+     */
+    public void finish() {
+        mainThread = Thread.currentThread();
+        while (renderedFrames.get() < recordedFrames.get() && failure == null) {
+            LockSupport.parkNanos(this, 1_000_000);
+        }
+        mainThread = null;
+        checkFailure();
+    }
+
+    /**
+     * Draws any frames still waiting, then stops the render thread. After
+     * this the canvas can be used from the main thread again.
+     */
+    public void stop() {
+        finish();
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recorder.stopRecording();
+    }
+
+    /**
+     * Gets the number of frames the render thread has drawn.
+     */
+    public long getRenderedFrames() {
+        return renderedFrames.get();
+    }
+
+    /**
+     * Gets how many seconds the main thread has spent waiting for the render
+     * thread to catch up. If this keeps going up, drawing is the slow part.
+     */
+    public double getWaitSeconds() {
+        return waitNanos / 1e9;
+    }
+
+    /**
+     * Gets how many seconds the render thread has spent drawing. If it's
+     * waiting most of the time, updating is the slow part.
+     */
+    public double getRenderSeconds() {
+        return renderNanos / 1e9;
+    }
+}
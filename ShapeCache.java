@@ -0,0 +1,499 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A ShapeCache saves the shapes the outline drawing functions make, so
+ * drawing the same outline again doesn't have to work it out from scratch.
+ *
+ * To draw an outline, Java first has to work out the shape of the outline
+ * itself (a ring, for a circle), which is called "stroking". Stroking curves
+ * is one of the slowest things Java draws. The cache does that once for each
+ * size and thickness and keeps the result. Shapes are saved relative to
+ * their top left corner, so the same circle outline drawn somewhere else
+ * still uses the saved shape.
+ *
+ * It can also save a picture of each outline (a "mask"), so drawing it is
+ * just an image copy. Turn that on with {@link #useMasks}. Filled ovals and
+ * triangles get saved too, mostly so they can use pictures. Rectangle
+ * outlines don't get saved, since Java already draws those without stroking.
+ *
+ * Shapes drawn through the cache come out exactly the same as drawing them
+ * straight onto the Graphics2D. Run {@link ShapeCacheCheck} to make sure.
+ *
+ * The cache holds on to a limited number of shapes. When it gets too full,
+ * it throws away whatever was used least recently.
+ *
+ * To use it, give it to a canvas with {@link GraphicsCanvas#setShapeCache},
+ * and the drawing functions in {@link GraphicsExample} will use it
+ * automatically. It assumes you haven't scaled or rotated the Graphics2D.
+ */
+public class ShapeCache {
+    static final int OVAL_OUTLINE = 0, TRIANGLE = 1, TRIANGLE_OUTLINE = 2, OVAL = 3;
+
+    static class Key {
+        int kind;
+        int a, b, c, d; // width and height, or the corners relative to the first one
+        float thickness;
+        boolean antialiased;
+        boolean normalized; // whether stroke control lets Java move the corners
+        int hash;
+
+        void set(int kind, int a, int b, int c, int d, float thickness, boolean antialiased, boolean normalized) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.thickness = thickness;
+            this.antialiased = antialiased;
+            this.normalized = normalized;
+            int h = kind;
+            h = h * 31 + a;
+            h = h * 31 + b;
+            h = h * 31 + c;
+            h = h * 31 + d;
+            h = h * 31 + Float.floatToIntBits(thickness);
+            hash = h * 4 + (antialiased ? 2 : 0) + (normalized ? 1 : 0);
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.set(kind, a, b, c, d, thickness, antialiased, normalized);
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                && kind == other.kind
+                && a == other.a && b == other.b && c == other.c && d == other.d
+                && thickness == other.thickness
+                && antialiased == other.antialiased
+                && normalized == other.normalized;
+        }
+    }
+
+    static class Entry {
+        Shape shape; // the area to fill, relative to the shape's top left corner
+
+        // The saved picture, if there is one, and where its top left goes
+        // relative to the shape's top left.
+        BufferedImage mask;
+        int maskX, maskY;
+        int maskArgb;
+        int usesSinceColorChange;
+    }
+
+    // Extra room around each mask so antialiased edges don't get cut off
+    static final int PADDING = 1;
+
+    // Access order, so the first entry is always the least recently used.
+    LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    Key probe = new Key();
+
+    int maxShapes;
+
+    /**
+     * Whether to save pictures of shapes too. Pictures are much faster to
+     * draw, but take more memory, and a shape drawn in lots of different
+     * colors keeps needing new ones.
+     */
+    public boolean useMasks = true;
+
+    /**
+     * How many times in a row a shape has to be drawn in the same color
+     * before it gets a picture.
+     */
+    public int usesBeforeMask = 3;
+
+    /**
+     * The most pixels of pictures to hold on to. Each pixel takes 4 bytes.
+     */
+    public long maxMaskPixels = 1 << 20;
+
+    long maskPixels = 0;
+    long hits = 0, misses = 0, maskHits = 0, evictions = 0;
+
+    /**
+     * Constructs a {@link ShapeCache} that remembers at most the given number of shapes.
+     */
+    public ShapeCache(int maxShapes) {
+        if (maxShapes < 1) {
+            throw new IllegalArgumentException("The cache has to be able to hold at least one shape!");
+        }
+        this.maxShapes = maxShapes;
+    }
+
+    /**
+     * Draws the outline of an oval the same way Graphics.drawOval does, with
+     * the color and thickness already set on g.
+     */
+    public void drawOval(Graphics2D g, float thickness, int x, int y, int width, int height) {
+        boolean antialiased = isAntialiased(g);
+        if (!isWorthCaching(antialiased)) {
+            g.drawOval(x, y, width, height);
+            return;
+        }
+        probe.set(OVAL_OUTLINE, width, height, 0, 0, thickness, antialiased, isNormalized(g));
+        draw(g, findOrStroke(thickness), x, y);
+    }
+
+    /**
+     * Fills an oval the same way Graphics.fillOval does, with the color
+     * already set on g.
+     */
+    public void fillOval(Graphics2D g, int x, int y, int width, int height) {
+        boolean antialiased = isAntialiased(g);
+        if (!isWorthCaching(antialiased)) {
+            g.fillOval(x, y, width, height);
+            return;
+        }
+        // Java only moves the corners of shapes it strokes. Antialiased
+        // fills are drawn exactly where they are, whatever the stroke control.
+        probe.set(OVAL, width, height, 0, 0, 0, antialiased, false);
+        Entry entry = entries.get(probe);
+        if (entry == null) {
+            misses++;
+            entry = new Entry();
+            entry.shape = new Ellipse2D.Float(0, 0, width, height);
+            add(entry);
+        } else {
+            hits++;
+        }
+        draw(g, entry, x, y);
+    }
+
+    /**
+     * Draws the outline of a rectangle the same way Graphics.drawRect does,
+     * with the color and thickness already set on g.
+     *
+     * This doesn't actually use the cache. Java draws rectangle outlines as
+     * four thin boxes instead of stroking them, which is already fast, and a
+     * stroked rectangle comes out a tiny bit different at the edges.
+     */
+    public void drawRect(Graphics2D g, float thickness, int x, int y, int width, int height) {
+        g.drawRect(x, y, width, height);
+    }
+
+    /**
+     * Draws the outline of a triangle, with the color and thickness already set on g.
+     */
+    public void drawTriangle(Graphics2D g, float thickness, int x1, int y1, int x2, int y2, int x3, int y3) {
+        boolean antialiased = isAntialiased(g);
+        if (!isWorthCaching(antialiased)) {
+            GraphicsExample.Scratch corners = GraphicsExample.setTriangle(x1, y1, x2, y2, x3, y3);
+            g.drawPolygon(corners.triangleXs, corners.triangleYs, 3);
+            return;
+        }
+        probe.set(TRIANGLE_OUTLINE, x2 - x1, y2 - y1, x3 - x1, y3 - y1, thickness, antialiased, isNormalized(g));
+        draw(g, findOrStroke(thickness), x1, y1);
+    }
+
+    /**
+     * Fills a triangle, with the color already set on g.
+     */
+    public void fillTriangle(Graphics2D g, int x1, int y1, int x2, int y2, int x3, int y3) {
+        // Filling doesn't need stroking, but saving the shape means no new
+        // arrays every time, and with antialiasing it can use a picture.
+        boolean antialiased = isAntialiased(g);
+        probe.set(TRIANGLE, x2 - x1, y2 - y1, x3 - x1, y3 - y1, 0, antialiased, false);
+        Entry entry = entries.get(probe);
+        if (entry == null) {
+            misses++;
+            entry = new Entry();
+            // A Polygon, so it gets filled the same way fillPolygon would.
+            entry.shape = new Polygon(new int[] {0, probe.a, probe.c}, new int[] {0, probe.b, probe.d}, 3);
+            add(entry);
+        } else {
+            hits++;
+        }
+        if (antialiased) {
+            draw(g, entry, x1, y1);
+        } else {
+            g.translate(x1, y1);
+            fill(g, entry); // no new arrays, but a picture wouldn't be any faster
+            g.translate(-x1, -y1);
+        }
+    }
+
+    /**
+     * Without antialiasing, Java has its own fast ways of drawing outlines
+     * that beat filling a saved shape or copying a picture, so only
+     * antialiased outlines are worth caching.
+     */
+    static boolean isWorthCaching(boolean antialiased) {
+        return antialiased;
+    }
+
+    /**
+     * Finds the shape for the probe key, or strokes it and saves it.
+     */
+    Entry findOrStroke(float thickness) {
+        Entry entry = entries.get(probe);
+        if (entry != null) {
+            hits++;
+            return entry;
+        }
+
+        misses++;
+        Shape outline;
+        if (probe.kind == OVAL_OUTLINE) {
+            outline = new Ellipse2D.Float(0, 0, probe.a, probe.b);
+        } else {
+            outline = triangle(0, 0, probe.a, probe.b, probe.c, probe.d);
+        }
+        if (probe.normalized) {
+            outline = normalize(outline, probe.antialiased);
+        }
+        entry = new Entry();
+        entry.shape = GraphicsState.getStroke(thickness).createStrokedShape(outline);
+        add(entry);
+        return entry;
+    }
+
+    void draw(Graphics2D g, Entry entry, int x, int y) {
+        if (drawMask(g, entry, x, y)) {
+            return;
+        }
+        g.translate(x, y);
+        fill(g, entry);
+        g.translate(-x, -y);
+    }
+
+    static void fill(Graphics2D g, Entry entry) {
+        if (entry.shape instanceof Polygon) {
+            g.fillPolygon((Polygon) entry.shape);
+            return;
+        }
+
+        // The outline is already lined up with the pixels the way Java would
+        // have done it, so make sure Java doesn't move it again.
+        Object strokeControl = g.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL);
+        if (strokeControl != RenderingHints.VALUE_STROKE_PURE) {
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        }
+        g.fill(entry.shape);
+        if (strokeControl != RenderingHints.VALUE_STROKE_PURE) {
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+        }
+    }
+
+    /**
+     * Draws the entry's mask if it has one in the right color (making one
+     * if it's time to). Returns false if the shape should be drawn normally.
+     */
+    boolean drawMask(Graphics2D g, Entry entry, int x, int y) {
+        if (!useMasks || g.getComposite() != AlphaComposite.SrcOver || !(g.getPaint() instanceof Color)) {
+            return false; // a picture only comes out the same with plain colors drawn normally
+        }
+        int argb = g.getColor().getRGB();
+        if (entry.maskArgb != argb || entry.usesSinceColorChange == 0) {
+            if (entry.mask != null) {
+                maskPixels -= (long) entry.mask.getWidth() * entry.mask.getHeight();
+                entry.mask = null;
+            }
+            entry.maskArgb = argb;
+            entry.usesSinceColorChange = 0;
+        }
+        entry.usesSinceColorChange++;
+
+        if (entry.mask == null && entry.usesSinceColorChange >= usesBeforeMask) {
+            renderMask(g, entry);
+            evictIfNeeded();
+        }
+        if (entry.mask == null) {
+            return false;
+        }
+        maskHits++;
+        g.drawImage(entry.mask, x + entry.maskX, y + entry.maskY, null);
+        return true;
+    }
+
+    void renderMask(Graphics2D g, Entry entry) {
+        java.awt.Rectangle bounds = entry.shape.getBounds();
+        entry.maskX = bounds.x - PADDING;
+        entry.maskY = bounds.y - PADDING;
+        entry.mask = new BufferedImage(bounds.width + PADDING * 2, bounds.height + PADDING * 2, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D maskGraphics = entry.mask.createGraphics();
+        maskGraphics.setRenderingHints(g.getRenderingHints());
+        maskGraphics.setColor(g.getColor());
+        maskGraphics.setStroke(g.getStroke()); // without antialiasing, even filling depends on the line thickness
+        maskGraphics.translate(-entry.maskX, -entry.maskY);
+        fill(maskGraphics, entry);
+        maskGraphics.dispose();
+        maskPixels += (long) entry.mask.getWidth() * entry.mask.getHeight();
+    }
+
+    void add(Entry entry) {
+        entries.put(probe.copy(), entry);
+        evictIfNeeded();
+    }
+
+    void evictIfNeeded() {
+        while (entries.size() > maxShapes || (maskPixels > maxMaskPixels && entries.size() > 1)) {
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            Entry oldest = it.next().getValue();
+            it.remove();
+            if (oldest.mask != null) {
+                maskPixels -= (long) oldest.mask.getWidth() * oldest.mask.getHeight();
+            }
+            evictions++;
+        }
+    }
+
+    static Path2D triangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_EVEN_ODD, 4);
+        path.moveTo(x1, y1);
+        path.lineTo(x2, y2);
+        path.lineTo(x3, y3);
+        path.closePath();
+        return path;
+    }
+
+    static boolean isAntialiased(Graphics2D g) {
+        return g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+    }
+
+    /**
+     * Checks whether Java would move the corners of a stroked shape before
+     * drawing it, which it does unless stroke control is set to "pure".
+     */
+    static boolean isNormalized(Graphics2D g) {
+        return g.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL) != RenderingHints.VALUE_STROKE_PURE;
+    }
+
+    /**
+     * Moves the points of a shape the same way Java does before stroking it
+     * (unless stroke control is set to "pure"): every corner goes to the
+     * middle of its pixel with antialiasing, or a quarter of the way in
+     * without. The control points of curves move along with their ends.
+     */
+    static Path2D normalize(Shape shape, boolean antialiased) {
+        Path2D.Float path = new Path2D.Float();
+        float[] coords = new float[6];
+        float moveAdjustX = 0, moveAdjustY = 0;
+        float lastAdjustX = 0, lastAdjustY = 0;
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+            int type = it.currentSegment(coords);
+            int last;
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    last = 0;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    last = 2;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    last = 4;
+                    break;
+                default: // SEG_CLOSE
+                    path.closePath();
+                    lastAdjustX = moveAdjustX;
+                    lastAdjustY = moveAdjustY;
+                    continue;
+            }
+
+            float adjustX = snap(coords[last], antialiased) - coords[last];
+            float adjustY = snap(coords[last + 1], antialiased) - coords[last + 1];
+            coords[last] += adjustX;
+            coords[last + 1] += adjustY;
+
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                    path.moveTo(coords[0], coords[1]);
+                    moveAdjustX = adjustX;
+                    moveAdjustY = adjustY;
+                    break;
+                case PathIterator.SEG_LINETO:
+                    path.lineTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    coords[0] += (lastAdjustX + adjustX) / 2;
+                    coords[1] += (lastAdjustY + adjustY) / 2;
+                    path.quadTo(coords[0], coords[1], coords[2], coords[3]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    coords[0] += lastAdjustX;
+                    coords[1] += lastAdjustY;
+                    coords[2] += adjustX;
+                    coords[3] += adjustY;
+                    path.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    break;
+            }
+            lastAdjustX = adjustX;
+            lastAdjustY = adjustY;
+        }
+        return path;
+    }
+
+    static float snap(float coord, boolean antialiased) {
+        if (antialiased) {
+            return (float) Math.floor(coord) + 0.5f;
+        }
+        return (float) Math.floor(coord + 0.25f) + 0.25f;
+    }
+
+    /**
+     * Throws away every saved shape and picture.
+     */
+    public void clear() {
+        entries.clear();
+        maskPixels = 0;
+    }
+
+    /**
+     * Gets how many times a shape was already saved.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets how many times a shape had to be worked out and saved.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets how many times a shape was drawn from a saved picture.
+     */
+    public long getMaskHits() {
+        return maskHits;
+    }
+
+    /**
+     * Gets how many shapes were thrown away to make room for new ones.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets how many shapes the cache is holding right now.
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets how many pixels of pictures the cache is holding right now.
+     */
+    public long getMaskPixels() {
+        return maskPixels;
+    }
+}
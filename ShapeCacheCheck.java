@@ -0,0 +1,122 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Checks that drawing through a {@link ShapeCache} comes out exactly the same
+ * as drawing without one. It draws the same shapes with the
+ * {@link GraphicsExample} functions on two canvases, one with a cache and one
+ * without, and compares every pixel. Run it like any other program:
+ *
+ * <pre>
+ * java ShapeCacheCheck
+ * </pre>
+ *
+ * Each kind of shape the cache handles is checked on its own, with
+ * antialiasing on and off, with every stroke control setting, and with and
+ * without saved pictures. Shapes get drawn over and over in the same colors
+ * (some of them see-through) so the pictures actually get used. It prints how
+ * many pixels came out different and quits with an error code if any did.
+ */
+public class ShapeCacheCheck {
+    static final int WIDTH = 400, HEIGHT = 300;
+    static final int SHAPES = 300;
+
+    interface Drawing {
+        void draw(Graphics2D g, int argb, int thickness, int x, int y, int size);
+    }
+
+    static String[] names = {"filled ovals", "oval outlines", "rectangle outlines", "filled triangles", "triangle outlines"};
+    static Drawing[] drawings = {
+        (g, argb, thickness, x, y, size) -> GraphicsExample.drawEllipse(g, argb, x, y, size, size * 2 / 3),
+        (g, argb, thickness, x, y, size) -> GraphicsExample.drawEllipseOutline(g, argb, thickness, x, y, size, size * 2 / 3),
+        (g, argb, thickness, x, y, size) -> GraphicsExample.drawRectangleOutline(g, argb, thickness, x, y, size, size * 2 / 3),
+        (g, argb, thickness, x, y, size) -> GraphicsExample.drawTriangle(g, argb, x, y, x + size, y + size / 3, x + size / 4, y + size),
+        (g, argb, thickness, x, y, size) -> GraphicsExample.drawTriangleOutline(g, argb, thickness, x, y, x + size, y + size / 3, x + size / 4, y + size),
+    };
+
+    static Object[] strokeControls = {
+        RenderingHints.VALUE_STROKE_DEFAULT, RenderingHints.VALUE_STROKE_NORMALIZE, RenderingHints.VALUE_STROKE_PURE
+    };
+    static String[] strokeControlNames = {"default", "normalize", "pure"};
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // no window needed
+
+        System.out.printf("%-20s %-5s %-10s %-9s %10s%n", "shape", "AA", "stroke", "pictures", "different");
+        boolean passed = true;
+        for (int kind = 0; kind < drawings.length; kind++) {
+            for (boolean antialiased : new boolean[] {true, false}) {
+                for (int s = 0; s < strokeControls.length; s++) {
+                    for (boolean useMasks : new boolean[] {true, false}) {
+                        int different = compare(drawings[kind], antialiased, strokeControls[s], useMasks);
+                        System.out.printf("%-20s %-5s %-10s %-9s %10d%n",
+                            names[kind], antialiased ? "on" : "off", strokeControlNames[s], useMasks ? "yes" : "no", different);
+                        passed &= different == 0;
+                    }
+                }
+            }
+        }
+
+        if (!passed) {
+            System.out.println("The cache changed what some shapes look like!");
+            System.exit(1);
+        }
+        System.out.println("Every pixel matches.");
+    }
+
+    /**
+     * Draws the same shapes with and without a cache, and returns how many
+     * pixels came out different.
+     */
+    static int compare(Drawing drawing, boolean antialiased, Object strokeControl, boolean useMasks) {
+        ShapeCache cache = new ShapeCache(64);
+        cache.useMasks = useMasks;
+        GraphicsCanvas cached = makeCanvas(antialiased, strokeControl);
+        cached.setShapeCache(cache);
+        GraphicsCanvas direct = makeCanvas(antialiased, strokeControl);
+
+        draw(cached, drawing);
+        draw(direct, drawing);
+
+        BufferedImage a = cached.getBufferedImage();
+        BufferedImage b = direct.getBufferedImage();
+        int different = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    different++;
+                }
+            }
+        }
+        return different;
+    }
+
+    static GraphicsCanvas makeCanvas(boolean antialiased, Object strokeControl) {
+        GraphicsCanvas canvas = new GraphicsCanvas(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB));
+        Graphics2D g = canvas.getGraphics2D();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            antialiased ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+
+        // A background that changes everywhere, so see-through shapes blend
+        // with something different at every pixel.
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, WIDTH, HEIGHT, Color.ORANGE));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        return canvas;
+    }
+
+    /**
+     * Draws a few sizes of the shape all over the canvas. Each size always
+     * gets the same color and thickness, so the cache gets to reuse it.
+     */
+    static void draw(GraphicsCanvas canvas, Drawing drawing) {
+        Graphics2D g = canvas.getGraphics2D();
+        int[] colors = {0xFF28C85A, 0x781E1EC8, 0xC0FFFFFF};
+        for (int i = 0; i < SHAPES; i++) {
+            int size = 10 + (i % 3) * 9;
+            int x = (i * 37) % (WIDTH - 40) + 5;
+            int y = (i * 53) % (HEIGHT - 40) + 5;
+            drawing.draw(g, colors[i % 3], 1 + i % 3, x, y, size);
+        }
+    }
+}
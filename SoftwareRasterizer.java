@@ -0,0 +1,511 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A SoftwareRasterizer draws filled rectangles, ellipses, and triangles by
+ * writing pixels straight into an image's memory, using every core of your
+ * computer at once. Java's normal drawing only ever uses one core, so scenes
+ * made of thousands of solid shapes can draw a lot faster this way.
+ *
+ * The screen is split into square tiles. Each shape gets added to the list
+ * for every tile it touches, and then the tiles are drawn at the same time on
+ * different threads. Since no two threads ever touch the same tile, they
+ * don't have to wait on each other.
+ *
+ * Anything it can't draw itself (outlines, lines, text) is drawn by Java as
+ * usual, in the right order, so everything still stacks up correctly.
+ *
+ * It follows the antialiasing and stroke control settings of the graphics
+ * object it's given. It can't move, scale, clip, or blend shapes any way
+ * other than drawing them on top, so if the graphics object is set up to do
+ * any of that, everything gets drawn by Java instead.
+ *
+ * To use it, call {@link GraphicsCanvas#setSoftwareRasterizer}. You can also
+ * get at the pixels directly with {@link #getPixels} or {@link #applyEffect}.
+ */
+public class SoftwareRasterizer {
+    /**
+     * Something that changes pixels, one tile at a time. See {@link #applyEffect}.
+     */
+    public interface TileEffect {
+        /**
+         * Changes the pixels from (left, top) up to (but not including)
+         * (right, bottom). Pixel (x, y) is at pixels[y * width + x], stored as
+         * premultiplied ARGB. This gets called from several threads at once,
+         * each with a different tile.
+         */
+        void apply(int[] pixels, int width, int left, int top, int right, int bottom);
+    }
+
+    BufferedImage image;
+    int[] pixels;
+    int width, height;
+
+    int tileSize;
+    int tilesX, tilesY;
+    // The commands to draw in each tile, in order.
+    IntList[] tileCommands;
+    // Room for each tile to add up partial pixel coverage when antialiasing.
+    float[][] tileCoverage;
+
+    ForkJoinPool pool;
+
+    /**
+     * Tiles with fewer commands than this are drawn together on one thread,
+     * since handing out tiny jobs costs more than it saves.
+     */
+    public int minCommandsPerTask = 64;
+
+    // Whether to smooth out the edges of ellipses and triangles, and where in
+    // each pixel to check whether it's inside a shape when not smoothing.
+    // Both come from the graphics object given to render.
+    boolean antialiasing = false;
+    double sampleOffset = NORMALIZED_SAMPLE_OFFSET;
+
+    // The run of commands being drawn right now. See render.
+    DisplayList list;
+    int[] commandLeft = new int[64], commandTop = new int[64], commandRight = new int[64], commandBottom = new int[64];
+
+    /**
+     * Constructs a {@link SoftwareRasterizer} with its own image of the given
+     * size, using the shared ForkJoinPool.
+     */
+    public SoftwareRasterizer(int width, int height) {
+        this(width, height, 64, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a {@link SoftwareRasterizer} with its own image of the given
+     * size, split into tiles of the given size, drawing on the given pool.
+     */
+    public SoftwareRasterizer(int width, int height, int tileSize, ForkJoinPool pool) {
+        if (width < 1 || height < 1 || tileSize < 1) {
+            throw new IllegalArgumentException("The width, height, and tile size must all be at least 1!");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.pool = pool;
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        tileCommands = new IntList[tilesX * tilesY];
+        tileCoverage = new float[tilesX * tilesY][];
+        for (int i = 0; i < tileCommands.length; i++) {
+            tileCommands[i] = new IntList();
+            tileCoverage[i] = new float[tileSize];
+        }
+    }
+
+    /**
+     * Gets the image this draws into.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Gets the image's pixels, as premultiplied ARGB. Pixel (x, y) is at
+     * pixels[y * getWidth() + x]. Changes show up in the image right away.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Runs an effect over every tile of the image, in parallel.
+     */
+    public void applyEffect(TileEffect effect) {
+        pool.invoke(new TileTask(0, tileCommands.length, effect));
+    }
+
+    /**
+     * Fills the whole image with one color, in parallel.
+     */
+    public void fill(Color color) {
+        int argb = premultiply(color.getRGB());
+        applyEffect((pixels, width, left, top, right, bottom) -> {
+            for (int y = top; y < bottom; y++) {
+                Arrays.fill(pixels, y * width + left, y * width + right, argb);
+            }
+        });
+    }
+
+    /**
+     * Draws everything in the display list. Solid shapes are drawn here in
+     * parallel; everything else is drawn with the given graphics object, which
+     * should be drawing into {@link #getImage}.
+     */
+    public void render(DisplayList list, Graphics2D g) {
+        if (!canDraw(g)) {
+            list.replay(g);
+            return;
+        }
+        antialiasing = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+        sampleOffset = g.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL) == RenderingHints.VALUE_STROKE_PURE
+            ? PURE_SAMPLE_OFFSET : NORMALIZED_SAMPLE_OFFSET;
+
+        this.list = list;
+        int start = 0;
+        while (start < list.commandCount) {
+            // Find a run of commands we can draw ourselves
+            int end = start;
+            while (end < list.commandCount && canRasterize(list, end)) {
+                end++;
+            }
+            if (end > start) {
+                rasterize(start, end);
+                for (int i = start; i < end; i++) {
+                    int b = i * 4;
+                    GraphicsCanvas.markDirty(g, list.bounds[b], list.bounds[b + 1], list.bounds[b + 2], list.bounds[b + 3]);
+                }
+                start = end;
+            } else {
+                list.replay(g, start, start + 1);
+                start++;
+            }
+        }
+        this.list = null;
+    }
+
+    /**
+     * Checks whether shapes drawn on g would come out the same if the
+     * rasterizer wrote them straight into the pixels: g can't be moved,
+     * scaled, or clipped, and has to draw things on top normally.
+     */
+    static boolean canDraw(Graphics2D g) {
+        return g.getComposite() == AlphaComposite.SrcOver
+            && g.getClip() == null
+            && g.getTransform().isIdentity();
+    }
+
+    static boolean canRasterize(DisplayList list, int i) {
+        int type = list.ints[list.intStart[i]];
+        return type == DisplayList.FILL_RECT || type == DisplayList.FILL_OVAL || type == DisplayList.FILL_TRIANGLE;
+    }
+
+    void rasterize(int start, int end) {
+        if (commandLeft.length < list.commandCount) {
+            int newLength = Math.max(list.commandCount, commandLeft.length * 2);
+            commandLeft = new int[newLength];
+            commandTop = new int[newLength];
+            commandRight = new int[newLength];
+            commandBottom = new int[newLength];
+        }
+
+        // Put each command in the list for every tile it touches
+        for (IntList commands : tileCommands) {
+            commands.clear();
+        }
+        for (int i = start; i < end; i++) {
+            int n = list.intStart[i];
+            int type = list.ints[n];
+            int left, top, right, bottom;
+            if (type == DisplayList.FILL_TRIANGLE) {
+                left = Math.min(list.ints[n + 2], Math.min(list.ints[n + 4], list.ints[n + 6]));
+                right = Math.max(list.ints[n + 2], Math.max(list.ints[n + 4], list.ints[n + 6])) + 1;
+                top = Math.min(list.ints[n + 3], Math.min(list.ints[n + 5], list.ints[n + 7]));
+                bottom = Math.max(list.ints[n + 3], Math.max(list.ints[n + 5], list.ints[n + 7])) + 1;
+            } else {
+                int x = list.ints[n + 2], y = list.ints[n + 3];
+                int w = list.ints[n + 4], h = list.ints[n + 5];
+                left = Math.min(x, x + w);
+                top = Math.min(y, y + h);
+                right = Math.max(x, x + w);
+                bottom = Math.max(y, y + h);
+            }
+            left = Math.max(left, 0);
+            top = Math.max(top, 0);
+            right = Math.min(right, width);
+            bottom = Math.min(bottom, height);
+            commandLeft[i] = left;
+            commandTop[i] = top;
+            commandRight[i] = right;
+            commandBottom[i] = bottom;
+            if (left >= right || top >= bottom) {
+                continue;
+            }
+
+            for (int ty = top / tileSize; ty <= (bottom - 1) / tileSize; ty++) {
+                for (int tx = left / tileSize; tx <= (right - 1) / tileSize; tx++) {
+                    tileCommands[ty * tilesX + tx].add(i);
+                }
+            }
+        }
+
+        pool.invoke(new TileTask(0, tileCommands.length, null));
+    }
+
+    /**
+     * Splits up the tiles until each piece has a reasonable amount of work,
+     * then draws (or applies an effect to) each piece.
+     */
+    class TileTask extends RecursiveAction {
+        final int firstTile, endTile;
+        final TileEffect effect;
+
+        TileTask(int firstTile, int endTile, TileEffect effect) {
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+            this.effect = effect;
+        }
+
+        @Override
+        protected void compute() {
+            if (endTile - firstTile > 1 && work() > minCommandsPerTask) {
+                int middle = (firstTile + endTile) >>> 1;
+                invokeAll(new TileTask(firstTile, middle, effect), new TileTask(middle, endTile, effect));
+                return;
+            }
+
+            for (int tile = firstTile; tile < endTile; tile++) {
+                int left = (tile % tilesX) * tileSize;
+                int top = (tile / tilesX) * tileSize;
+                int right = Math.min(left + tileSize, width);
+                int bottom = Math.min(top + tileSize, height);
+                if (effect != null) {
+                    effect.apply(pixels, width, left, top, right, bottom);
+                } else {
+                    drawTile(tile, left, top, right, bottom);
+                }
+            }
+        }
+
+        int work() {
+            if (effect != null) {
+                return (endTile - firstTile) * minCommandsPerTask; // every tile is real work
+            }
+            int total = 0;
+            for (int tile = firstTile; tile < endTile; tile++) {
+                total += tileCommands[tile].size();
+            }
+            return total;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    void drawTile(int tile, int tileLeft, int tileTop, int tileRight, int tileBottom) {
+        IntList commands = tileCommands[tile];
+        float[] coverage = tileCoverage[tile];
+        for (int k = 0; k < commands.size(); k++) {
+            int i = commands.get(k);
+            int n = list.intStart[i];
+            int type = list.ints[n];
+            int argb = list.ints[n + 1];
+            int left = Math.max(commandLeft[i], tileLeft);
+            int top = Math.max(commandTop[i], tileTop);
+            int right = Math.min(commandRight[i], tileRight);
+            int bottom = Math.min(commandBottom[i], tileBottom);
+
+            switch (type) {
+                case DisplayList.FILL_RECT:
+                    for (int y = top; y < bottom; y++) {
+                        fillSpan(y * width, left, right, argb);
+                    }
+                    break;
+                case DisplayList.FILL_OVAL:
+                    fillOval(n, argb, left, top, right, bottom, coverage);
+                    break;
+                case DisplayList.FILL_TRIANGLE:
+                    fillTriangle(n, argb, left, top, right, bottom, coverage);
+                    break;
+            }
+        }
+    }
+
+    void fillOval(int n, int argb, int left, int top, int right, int bottom, float[] coverage) {
+        double radiusX = list.ints[n + 4] / 2.0;
+        double radiusY = list.ints[n + 5] / 2.0;
+        double centerX = list.ints[n + 2] + radiusX;
+        double centerY = list.ints[n + 3] + radiusY;
+        if (radiusX <= 0 || radiusY <= 0) {
+            return;
+        }
+
+        for (int y = top; y < bottom; y++) {
+            if (!antialiasing) {
+                // Fill the pixels whose sample points are inside the ellipse.
+                double dy = (y + sampleOffset - centerY) / radiusY;
+                if (dy * dy >= 1) {
+                    continue;
+                }
+                double halfWidth = radiusX * Math.sqrt(1 - dy * dy);
+                int spanLeft = Math.max(left, (int) Math.ceil(centerX - halfWidth - sampleOffset));
+                int spanRight = Math.min(right, (int) Math.ceil(centerX + halfWidth - sampleOffset));
+                fillSpan(y * width, spanLeft, spanRight, argb);
+            } else {
+                Arrays.fill(coverage, 0, right - left, 0);
+                for (int s = 0; s < SUBSAMPLES; s++) {
+                    double dy = (y + (s + 0.5) / SUBSAMPLES - centerY) / radiusY;
+                    if (dy * dy < 1) {
+                        double halfWidth = radiusX * Math.sqrt(1 - dy * dy);
+                        addCoverage(coverage, left, right, centerX - halfWidth, centerX + halfWidth);
+                    }
+                }
+                blendCoverage(y * width, left, right, argb, coverage);
+            }
+        }
+    }
+
+    void fillTriangle(int n, int argb, int left, int top, int right, int bottom, float[] coverage) {
+        double x1 = list.ints[n + 2], y1 = list.ints[n + 3];
+        double x2 = list.ints[n + 4], y2 = list.ints[n + 5];
+        double x3 = list.ints[n + 6], y3 = list.ints[n + 7];
+        double[] crossing = crossingScratch.get();
+
+        for (int y = top; y < bottom; y++) {
+            if (!antialiasing) {
+                // Fill the pixels whose sample points are inside the triangle.
+                if (!crossings(x1, y1, x2, y2, x3, y3, y + sampleOffset, crossing)) {
+                    continue;
+                }
+                int spanLeft = Math.max(left, (int) Math.ceil(crossing[0] - sampleOffset));
+                int spanRight = Math.min(right, (int) Math.ceil(crossing[1] - sampleOffset));
+                fillSpan(y * width, spanLeft, spanRight, argb);
+            } else {
+                Arrays.fill(coverage, 0, right - left, 0);
+                for (int s = 0; s < SUBSAMPLES; s++) {
+                    if (crossings(x1, y1, x2, y2, x3, y3, y + (s + 0.5) / SUBSAMPLES, crossing)) {
+                        addCoverage(coverage, left, right, crossing[0], crossing[1]);
+                    }
+                }
+                blendCoverage(y * width, left, right, argb, coverage);
+            }
+        }
+    }
+
+    // Small reusable holder for crossings; one per thread since tiles run in parallel.
+    static final ThreadLocal<double[]> crossingScratch = ThreadLocal.withInitial(() -> new double[2]);
+
+    /**
+     * Finds where a horizontal line at y enters and leaves the triangle, and
+     * puts them in result. Returns false if it misses.
+     */
+    static boolean crossings(double x1, double y1, double x2, double y2, double x3, double y3, double y, double[] result) {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int edge = 0; edge < 3; edge++) {
+            double ax = edge == 0 ? x1 : edge == 1 ? x2 : x3;
+            double ay = edge == 0 ? y1 : edge == 1 ? y2 : y3;
+            double bx = edge == 0 ? x2 : edge == 1 ? x3 : x1;
+            double by = edge == 0 ? y2 : edge == 1 ? y3 : y1;
+            if ((ay <= y && y < by) || (by <= y && y < ay)) {
+                double x = ax + (y - ay) * (bx - ax) / (by - ay);
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+        }
+        if (min >= max) {
+            return false;
+        }
+        result[0] = min;
+        result[1] = max;
+        return true;
+    }
+
+    static final int SUBSAMPLES = 4;
+
+    // Java nudges shapes a quarter pixel when antialiasing is off, unless
+    // stroke control is set to "pure" (see RenderingHints.KEY_STROKE_CONTROL),
+    // so we test each pixel at the same spot to get the same edges it does.
+    static final double NORMALIZED_SAMPLE_OFFSET = 0.25;
+    static final double PURE_SAMPLE_OFFSET = 0.5;
+
+    /**
+     * Adds one sub-row's worth of coverage for a span from spanStart to
+     * spanEnd, counting partly-covered pixels at the ends by how much of them
+     * is covered.
+     */
+    static void addCoverage(float[] coverage, int left, int right, double spanStart, double spanEnd) {
+        double start = Math.max(spanStart, left);
+        double end = Math.min(spanEnd, right);
+        if (start >= end) {
+            return;
+        }
+        float weight = 1f / SUBSAMPLES;
+        int first = (int) Math.floor(start);
+        int last = (int) Math.ceil(end) - 1;
+        if (first == last) {
+            coverage[first - left] += (float) (end - start) * weight;
+            return;
+        }
+        coverage[first - left] += (float) (first + 1 - start) * weight;
+        for (int x = first + 1; x < last; x++) {
+            coverage[x - left] += weight;
+        }
+        coverage[last - left] += (float) (end - last) * weight;
+    }
+
+    void blendCoverage(int rowStart, int left, int right, int argb, float[] coverage) {
+        for (int x = left; x < right; x++) {
+            float c = coverage[x - left];
+            if (c > 0) {
+                blend(rowStart + x, argb, c);
+            }
+        }
+    }
+
+    void fillSpan(int rowStart, int left, int right, int argb) {
+        if (left >= right) {
+            return;
+        }
+        if ((argb >>> 24) == 255) {
+            Arrays.fill(pixels, rowStart + left, rowStart + right, argb);
+        } else {
+            for (int x = left; x < right; x++) {
+                blend(rowStart + x, argb, 1);
+            }
+        }
+    }
+
+    /**
+     * Blends a (non-premultiplied) color over one pixel, with the given coverage.
+     */
+    void blend(int index, int argb, float coverage) {
+        int alpha = Math.round((argb >>> 24) * coverage);
+        if (alpha >= 255) {
+            pixels[index] = argb;
+            return;
+        }
+        if (alpha <= 0) {
+            return;
+        }
+        int dst = pixels[index];
+        int inverse = 255 - alpha;
+        int a = alpha + div255((dst >>> 24) * inverse);
+        int r = div255(((argb >> 16) & 0xFF) * alpha) + div255(((dst >> 16) & 0xFF) * inverse);
+        int g = div255(((argb >> 8) & 0xFF) * alpha) + div255(((dst >> 8) & 0xFF) * inverse);
+        int b = div255((argb & 0xFF) * alpha) + div255((dst & 0xFF) * inverse);
+        pixels[index] = (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    static int div255(int value) {
+        return (value + 1 + (value >> 8)) >> 8;
+    }
+
+    static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        int r = div255(((argb >> 16) & 0xFF) * a);
+        int g = div255(((argb >> 8) & 0xFF) * a);
+        int b = div255((argb & 0xFF) * a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * A SpatialIndex keeps track of a bunch of rectangles so you can quickly find
+ * the ones near a point or area, or all the ones that overlap each other,
+ * without checking every rectangle against every other one.
+ *
+ * When you insert a rectangle you get back an id. Use that id to move or
+ * remove the rectangle later. Query results go into an {@link IntList} that
+ * you pass in, so you can reuse the same list every frame.
+ *
+ * There are two kinds: {@link UniformGrid} is simplest and fastest when your
+ * rectangles are all about the same size, and {@link LooseQuadtree} handles a
+ * mix of tiny and huge rectangles better.
+ *
+ * Overlap works like {@link Rectangle#checkOverlap} (touching edges don't
+ * count) and points work like {@link MouseHelper#isInRectangle} (edges count).
+ */
+public abstract class SpatialIndex {
+    // The rectangles, by id, with negative sizes already fixed up.
+    int[] xs = new int[64];
+    int[] ys = new int[64];
+    int[] widths = new int[64];
+    int[] heights = new int[64];
+    boolean[] alive = new boolean[64];
+
+    // Ids of removed rectangles, ready to be reused.
+    int[] freeIds = new int[16];
+    int freeCount = 0;
+    int idCount = 0;
+    int size = 0;
+
+    // Every query gets a new stamp. An id whose stamp matches the current one
+    // has already been reported, so it doesn't get reported twice.
+    int[] stamps = new int[64];
+    int currentStamp = 0;
+
+    /**
+     * Adds a rectangle and returns its id.
+     */
+    public int insert(int x, int y, int width, int height) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = idCount++;
+            if (id == xs.length) {
+                int newLength = xs.length * 2;
+                xs = Arrays.copyOf(xs, newLength);
+                ys = Arrays.copyOf(ys, newLength);
+                widths = Arrays.copyOf(widths, newLength);
+                heights = Arrays.copyOf(heights, newLength);
+                alive = Arrays.copyOf(alive, newLength);
+                stamps = Arrays.copyOf(stamps, newLength);
+                grow(newLength);
+            }
+        }
+
+        setBounds(id, x, y, width, height);
+        alive[id] = true;
+        size++;
+        added(id);
+        return id;
+    }
+
+    /**
+     * Adds a rectangle and returns its id. (See the {@link Rectangle} class.)
+     */
+    public int insert(Rectangle rect) {
+        return insert(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    /**
+     * Moves (or resizes) the rectangle with the given id.
+     */
+    public void move(int id, int x, int y, int width, int height) {
+        checkId(id);
+        setBounds(id, x, y, width, height);
+        moved(id);
+    }
+
+    /**
+     * Removes the rectangle with the given id. The id may be handed out again
+     * by a later insert.
+     */
+    public void remove(int id) {
+        checkId(id);
+        removed(id);
+        alive[id] = false;
+        size--;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Gets the number of rectangles in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the rectangle with the given id. (See the {@link Rectangle} class.)
+     */
+    public Rectangle getBounds(int id) {
+        checkId(id);
+        return new Rectangle(xs[id], ys[id], widths[id], heights[id]);
+    }
+
+    void setBounds(int id, int x, int y, int width, int height) {
+        xs[id] = Math.min(x, x + width);
+        ys[id] = Math.min(y, y + height);
+        widths[id] = Math.abs(width);
+        heights[id] = Math.abs(height);
+    }
+
+    void checkId(int id) {
+        if (id < 0 || id >= idCount || !alive[id]) {
+            throw new IllegalArgumentException("There is no rectangle with id " + id);
+        }
+    }
+
+    int nextStamp() {
+        currentStamp++;
+        if (currentStamp == 0) {
+            // We wrapped all the way around, so old stamps might look new again.
+            Arrays.fill(stamps, 0);
+            currentStamp = 1;
+        }
+        return currentStamp;
+    }
+
+    boolean overlaps(int id, int x, int y, int width, int height) {
+        return xs[id] < x + width && x < xs[id] + widths[id]
+            && ys[id] < y + height && y < ys[id] + heights[id];
+    }
+
+    boolean overlaps(int a, int b) {
+        return overlaps(a, xs[b], ys[b], widths[b], heights[b]);
+    }
+
+    boolean contains(int id, int x, int y) {
+        return xs[id] <= x && x <= xs[id] + widths[id]
+            && ys[id] <= y && y <= ys[id] + heights[id];
+    }
+
+    /**
+     * Finds every rectangle the point is inside of, and adds their ids to results.
+     */
+    public abstract void queryPoint(int x, int y, IntList results);
+
+    /**
+     * Finds every rectangle that overlaps the given area, and adds their ids to results.
+     */
+    public abstract void queryRegion(int x, int y, int width, int height, IntList results);
+
+    /**
+     * Finds every pair of rectangles that overlap each other. Each pair is added
+     * to results as two ids in a row, so results.get(0) and results.get(1) are
+     * the first pair, and so on.
+     */
+    public abstract void queryOverlappingPairs(IntList results);
+
+    /**
+     * Called when the id arrays grow, so subclasses can grow theirs too.
+     */
+    abstract void grow(int newLength);
+
+    abstract void added(int id);
+
+    abstract void moved(int id);
+
+    abstract void removed(int id);
+}
@@ -0,0 +1,91 @@
+import java.awt.*;
+import java.lang.ref.SoftReference;
+
+/**
+ * A Sprite is a picture you can draw with {@link GraphicsExample#drawSprite}.
+ * It can be a whole image file, or just a piece of one (for example, one
+ * frame of an animation in a bigger sheet of frames).
+ *
+ * Sprites come from a {@link SpriteCache}, which loads the picture the first
+ * time you draw it and may throw it away again later if it runs low on room.
+ * You don't have to worry about that; it gets loaded again if you need it.
+ */
+public class Sprite {
+    SpriteCache cache;
+    String path;   // null for a piece of another sprite
+    Sprite source; // the sprite this is a piece of, if it is one
+    int regionX, regionY;
+    int width = -1, height = -1; // -1 until loaded
+
+    // Where the picture is right now. This is only held softly, so Java can
+    // take the memory back if the cache lets go of it and memory gets tight.
+    SoftReference<SpriteCache.Entry> entry;
+    int imageX, imageY;
+
+    Sprite(SpriteCache cache, String path) {
+        this.cache = cache;
+        this.path = path;
+    }
+
+    Sprite(SpriteCache cache, Sprite source, int x, int y, int width, int height) {
+        this.cache = cache;
+        this.source = source;
+        this.regionX = x;
+        this.regionY = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Gets the sprite's width. Loads the sprite if it hasn't been loaded yet.
+     */
+    public int getWidth() {
+        if (width < 0) {
+            cache.find(this);
+        }
+        return width;
+    }
+
+    /**
+     * Gets the sprite's height. Loads the sprite if it hasn't been loaded yet.
+     */
+    public int getHeight() {
+        if (height < 0) {
+            cache.find(this);
+        }
+        return height;
+    }
+
+    /**
+     * Gets the image the sprite's pixels are in right now, loading it if
+     * needed. The sprite starts at {@link #getImageX}, {@link #getImageY} in
+     * that image, which may be shared with other sprites.
+     */
+    public Image getImage() {
+        return cache.find(this).image;
+    }
+
+    /**
+     * Gets where the sprite starts in {@link #getImage}. Only valid right
+     * after calling getImage.
+     */
+    public int getImageX() {
+        return imageX;
+    }
+
+    /**
+     * Gets where the sprite starts in {@link #getImage}. Only valid right
+     * after calling getImage.
+     */
+    public int getImageY() {
+        return imageY;
+    }
+
+    @Override
+    public String toString() {
+        if (source != null) {
+            return source + "[" + regionX + ", " + regionY + ", " + width + ", " + height + "]";
+        }
+        return path;
+    }
+}
@@ -0,0 +1,282 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * A SpriteCache loads pictures for {@link Sprite}s and keeps them in a form
+ * that's quick to draw.
+ *
+ * Images straight from {@link ImageIO} are often in a format the screen
+ * doesn't use, which makes Java convert every pixel each time they're drawn.
+ * The cache copies them into "compatible" images that match the screen, so
+ * drawing them is just a fast copy.
+ *
+ * Small sprites get packed together into big shared images called atlases,
+ * so there are fewer images to keep track of and switch between.
+ *
+ * The cache holds on to a limited number of bytes of pictures. When it gets
+ * too full it lets go of whatever was drawn least recently, but Java only
+ * actually throws those pictures away if it runs low on memory. Until then,
+ * drawing one just puts it back in the cache.
+ *
+ * Sprites aren't loaded until you first draw them (or ask for their size).
+ * A SpriteCache should only be used from one thread.
+ */
+public class SpriteCache {
+    /**
+     * One image the cache holds on to: either a single sprite's picture or
+     * an atlas full of small ones.
+     */
+    static class Entry {
+        BufferedImage image;
+        long bytes;
+        boolean inCache;
+
+        // For atlases: where the next sprite goes. Sprites are packed in
+        // rows ("shelves"), left to right, top to bottom.
+        boolean atlas;
+        int shelfX, shelfY, shelfHeight;
+    }
+
+    // Access order, so the first entry is always the least recently used.
+    LinkedHashMap<Entry, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    Entry currentAtlas;
+
+    long maxBytes;
+    long bytes = 0;
+
+    /**
+     * Sprites this many pixels wide and tall or smaller get packed into atlases.
+     */
+    public int maxAtlasSpriteSize = 64;
+
+    /**
+     * The width and height of each atlas.
+     */
+    public int atlasSize = 1024;
+
+    long hits = 0, softHits = 0, loads = 0, evictions = 0;
+
+    /**
+     * Constructs a {@link SpriteCache} that holds at most the given number of
+     * bytes of pictures. Each pixel takes 4 bytes.
+     */
+    public SpriteCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets a sprite for the image file at the given path. The file isn't read
+     * until the sprite is first drawn.
+     */
+    public Sprite load(String path) {
+        return new Sprite(this, path);
+    }
+
+    /**
+     * Gets a sprite for a piece of another sprite, starting at (x, y) in it.
+     */
+    public Sprite region(Sprite source, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 1 || height < 1) {
+            throw new IllegalArgumentException("The region must start inside the sprite and be at least 1 by 1!");
+        }
+        return new Sprite(this, source, x, y, width, height);
+    }
+
+    /**
+     * Finds the image a sprite is in, loading it if needed, and updates the
+     * sprite's imageX and imageY. Doesn't allocate anything if the sprite is
+     * already in the cache.
+     */
+    Entry find(Sprite sprite) {
+        if (sprite.source != null) {
+            Entry entry = find(sprite.source);
+            if (sprite.regionX + sprite.width > sprite.source.width || sprite.regionY + sprite.height > sprite.source.height) {
+                throw new IllegalArgumentException("The region " + sprite + " goes past the edge of its sprite!");
+            }
+            sprite.imageX = sprite.source.imageX + sprite.regionX;
+            sprite.imageY = sprite.source.imageY + sprite.regionY;
+            return entry;
+        }
+
+        Entry entry = sprite.entry == null ? null : sprite.entry.get();
+        if (entry != null) {
+            if (entry.inCache) {
+                entries.get(entry); // mark it as recently used
+                hits++;
+            } else {
+                // We let go of it, but Java hadn't thrown it away yet.
+                softHits++;
+                add(entry);
+            }
+            return entry;
+        }
+
+        loads++;
+        BufferedImage loaded = read(sprite.path);
+        sprite.width = loaded.getWidth();
+        sprite.height = loaded.getHeight();
+
+        if (sprite.width <= maxAtlasSpriteSize && sprite.height <= maxAtlasSpriteSize && maxAtlasSpriteSize < atlasSize) {
+            entry = packIntoAtlas(sprite);
+        } else {
+            entry = new Entry();
+            entry.image = createCompatibleImage(sprite.width, sprite.height, loaded.getTransparency());
+            entry.bytes = 4L * sprite.width * sprite.height;
+            sprite.imageX = 0;
+            sprite.imageY = 0;
+            add(entry);
+        }
+        copy(loaded, entry.image, sprite.imageX, sprite.imageY);
+        sprite.entry = new SoftReference<>(entry);
+        return entry;
+    }
+
+    static BufferedImage read(String path) {
+        try {
+            BufferedImage image = ImageIO.read(new File(path));
+            if (image == null) {
+                throw new IOException("it isn't an image format Java knows how to read");
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load sprite " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Finds room for the sprite in the current atlas (or a new one) and sets
+     * the sprite's imageX and imageY to where it goes.
+     */
+    Entry packIntoAtlas(Sprite sprite) {
+        Entry atlas = currentAtlas;
+        if (atlas == null || !atlas.inCache || !fits(atlas, sprite.width, sprite.height)) {
+            atlas = new Entry();
+            atlas.image = createCompatibleImage(atlasSize, atlasSize, Transparency.TRANSLUCENT);
+            atlas.bytes = 4L * atlasSize * atlasSize;
+            atlas.atlas = true;
+            currentAtlas = atlas;
+            add(atlas);
+        } else {
+            entries.get(atlas); // mark it as recently used
+        }
+
+        if (atlas.shelfX + sprite.width > atlasSize) {
+            startNewShelf(atlas);
+        }
+        sprite.imageX = atlas.shelfX;
+        sprite.imageY = atlas.shelfY;
+        // Leave a pixel of space between sprites so scaled ones don't pick up their neighbors' edges.
+        atlas.shelfX += sprite.width + 1;
+        atlas.shelfHeight = Math.max(atlas.shelfHeight, sprite.height + 1);
+        return atlas;
+    }
+
+    boolean fits(Entry atlas, int width, int height) {
+        if (atlas.shelfX + width <= atlasSize) {
+            return atlas.shelfY + height <= atlasSize;
+        }
+        return atlas.shelfY + atlas.shelfHeight + height <= atlasSize;
+    }
+
+    static void startNewShelf(Entry atlas) {
+        atlas.shelfY += atlas.shelfHeight;
+        atlas.shelfX = 0;
+        atlas.shelfHeight = 0;
+    }
+
+    /**
+     * Makes an image in whatever format the screen uses, or a plain image if
+     * there is no screen.
+     */
+    static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height,
+            transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    static void copy(BufferedImage from, BufferedImage to, int x, int y) {
+        Graphics2D g = to.createGraphics();
+        g.setComposite(AlphaComposite.Src); // replace the pixels, don't blend
+        g.drawImage(from, x, y, null);
+        g.dispose();
+    }
+
+    void add(Entry entry) {
+        entry.inCache = true;
+        entries.put(entry, entry);
+        bytes += entry.bytes;
+
+        // Let go of the least recently used images until we fit, but always
+        // keep the one we just added.
+        Iterator<Entry> oldest = entries.keySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1) {
+            Entry evicted = oldest.next();
+            oldest.remove();
+            evicted.inCache = false;
+            bytes -= evicted.bytes;
+            evictions++;
+            if (evicted == currentAtlas) {
+                currentAtlas = null;
+            }
+        }
+    }
+
+    /**
+     * Lets go of every picture. Sprites still work; they'll just be loaded
+     * again the next time they're drawn.
+     */
+    public void clear() {
+        for (Entry entry : entries.keySet()) {
+            entry.inCache = false;
+        }
+        entries.clear();
+        bytes = 0;
+        currentAtlas = null;
+    }
+
+    /**
+     * Gets the number of bytes of pictures the cache is holding on to.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of times a sprite was drawn and its picture was already in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of times a sprite's picture had been let go of, but
+     * was still around, so it didn't have to be loaded again.
+     */
+    public long getSoftHits() {
+        return softHits;
+    }
+
+    /**
+     * Gets the number of times a sprite had to be loaded from its file.
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    /**
+     * Gets the number of times a picture was let go of to make room.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,311 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A TextCache saves pictures of text so that drawing the same text again is
+ * just a quick image copy, instead of laying out and drawing every letter
+ * from scratch.
+ *
+ * Text that keeps changing (like "Button clicked 5 times") would fill the
+ * cache with pictures that never get used again, so a string only gets its
+ * own picture once it has been drawn twice. Until then it's drawn one letter
+ * at a time from a cache of single-letter pictures.
+ *
+ * The cache holds on to a limited number of pixels. When it gets too full, it
+ * throws away whatever was used least recently.
+ *
+ * To use it, give it to a canvas with {@link GraphicsCanvas#setTextCache}, and
+ * {@link GraphicsExample#drawText} will use it automatically. It assumes you
+ * haven't scaled or rotated the Graphics2D.
+ */
+public class TextCache {
+    static class Key {
+        String text; // null for a single letter
+        char letter;
+        Font font;
+        int argb;
+        boolean antialiased;
+        int hash;
+
+        void set(String text, char letter, Font font, int argb, boolean antialiased) {
+            this.text = text;
+            this.letter = letter;
+            this.font = font;
+            this.argb = argb;
+            this.antialiased = antialiased;
+            int h = text == null ? letter : text.hashCode();
+            h = h * 31 + font.hashCode();
+            h = h * 31 + argb;
+            hash = h * 2 + (antialiased ? 1 : 0);
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.text = text;
+            key.letter = letter;
+            key.font = font;
+            key.argb = argb;
+            key.antialiased = antialiased;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                && letter == other.letter
+                && argb == other.argb
+                && antialiased == other.antialiased
+                && (text == other.text || (text != null && text.equals(other.text)))
+                && (font == other.font || font.equals(other.font));
+        }
+    }
+
+    static class Entry {
+        BufferedImage image; // null until the text has been drawn enough times
+        int uses;
+        int width;   // how far the text moves the pen
+        int ascent;  // how far the text goes above the baseline
+        int descent; // how far the text goes below the baseline
+    }
+
+    // Extra room around each picture so antialiased edges don't get cut off
+    static final int PADDING = 2;
+
+    // Access order, so the first entry is always the least recently used.
+    LinkedHashMap<Key, Entry> strings = new LinkedHashMap<>(64, 0.75f, true);
+    LinkedHashMap<Key, Entry> letters = new LinkedHashMap<>(256, 0.75f, true);
+    Key probe = new Key();
+
+    long maxPixels;
+    long pixels = 0;
+
+    /**
+     * The most strings to remember, including ones that don't have their own
+     * picture yet.
+     */
+    public int maxStrings = 1024;
+
+    /**
+     * How many times a string has to be drawn before it gets its own picture.
+     */
+    public int usesBeforeCaching = 2;
+
+    long hits = 0, misses = 0, letterHits = 0, letterMisses = 0, evictions = 0;
+
+    /**
+     * Constructs a {@link TextCache} that holds at most the given number of
+     * pixels worth of pictures. Each pixel takes 4 bytes.
+     */
+    public TextCache(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Draws text with its bottom left at (x, y), using a cached picture if
+     * there is one. Text that isn't a String, like a {@link StringBuilder}
+     * that changes every frame, is always put together letter by letter, so
+     * it never makes a new String.
+     */
+    public void drawText(Graphics2D g, CharSequence text, Color color, Font font, int x, int y) {
+        Object textHint = g.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+        boolean antialiased = isTextAntialiased(g, textHint);
+        if (textHint != RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+                && textHint != RenderingHints.VALUE_TEXT_ANTIALIAS_OFF
+                && textHint != RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT) {
+            // Subpixel (LCD) text can't be drawn onto a see-through picture, so
+            // just draw it normally.
+            GraphicsState.applyColor(g, color);
+            GraphicsState.applyFont(g, font);
+            if (text instanceof String) {
+                g.drawString((String) text, x, y);
+            } else {
+                g.drawChars(GraphicsExample.getChars(text), 0, text.length(), x, y);
+            }
+            return;
+        }
+
+        if (text instanceof String) {
+            Entry entry = getEntry(g, (String) text, color, font, antialiased);
+            if (entry.image != null) {
+                g.drawImage(entry.image, x - PADDING, y - entry.ascent - PADDING, null);
+                return;
+            }
+        }
+
+        // Not worth a picture of its own yet, so put it together letter by letter.
+        for (int i = 0; i < text.length(); i++) {
+            char letter = text.charAt(i);
+            Entry glyph = getLetter(g, letter, color, font, antialiased);
+            if (glyph.image != null) {
+                g.drawImage(glyph.image, x - PADDING, y - glyph.ascent - PADDING, null);
+            }
+            x += glyph.width;
+        }
+    }
+
+    /**
+     * Gets the size of some text, using cached measurements if possible.
+     * Fills in widthAscentDescent with the width, ascent, and descent.
+     */
+    public void measureText(Graphics2D g, String text, Color color, Font font, int[] widthAscentDescent) {
+        Entry entry = getEntry(g, text, color, font, isTextAntialiased(g, g.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING)));
+        widthAscentDescent[0] = entry.width;
+        widthAscentDescent[1] = entry.ascent;
+        widthAscentDescent[2] = entry.descent;
+    }
+
+    Entry getEntry(Graphics2D g, String text, Color color, Font font, boolean antialiased) {
+        probe.set(text, '\0', font, color.getRGB(), antialiased);
+        Entry entry = strings.get(probe);
+        if (entry == null) {
+            misses++;
+            entry = new Entry();
+            FontMetrics metrics = g.getFontMetrics(font);
+            entry.width = metrics.stringWidth(text);
+            entry.ascent = metrics.getMaxAscent();
+            entry.descent = metrics.getMaxDescent();
+            strings.put(probe.copy(), entry);
+            evictIfNeeded();
+        } else if (entry.image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        entry.uses++;
+        if (entry.image == null && entry.uses >= usesBeforeCaching) {
+            entry.image = render(g, text, color, font, entry);
+            pixels += (long) entry.image.getWidth() * entry.image.getHeight();
+            evictIfNeeded();
+        }
+        return entry;
+    }
+
+    Entry getLetter(Graphics2D g, char letter, Color color, Font font, boolean antialiased) {
+        probe.set(null, letter, font, color.getRGB(), antialiased);
+        Entry entry = letters.get(probe);
+        if (entry != null) {
+            letterHits++;
+            return entry;
+        }
+
+        letterMisses++;
+        entry = new Entry();
+        FontMetrics metrics = g.getFontMetrics(font);
+        entry.width = metrics.charWidth(letter);
+        entry.ascent = metrics.getMaxAscent();
+        entry.descent = metrics.getMaxDescent();
+        if (!Character.isWhitespace(letter)) {
+            entry.image = render(g, String.valueOf(letter), color, font, entry);
+            pixels += (long) entry.image.getWidth() * entry.image.getHeight();
+        }
+        letters.put(probe.copy(), entry);
+        evictIfNeeded();
+        return entry;
+    }
+
+    BufferedImage render(Graphics2D g, String text, Color color, Font font, Entry entry) {
+        // Letters like "f" and "j" can hang past their width, so give them some room.
+        int overhang = font.getSize() / 4;
+        BufferedImage image = new BufferedImage(
+            Math.max(entry.width + overhang, 1) + PADDING * 2,
+            entry.ascent + entry.descent + PADDING * 2,
+            BufferedImage.TYPE_INT_ARGB_PRE
+        );
+        Graphics2D imageGraphics = image.createGraphics();
+        imageGraphics.setRenderingHints(g.getRenderingHints());
+        imageGraphics.setColor(color);
+        imageGraphics.setFont(font);
+        imageGraphics.drawString(text, PADDING, PADDING + entry.ascent);
+        imageGraphics.dispose();
+        return image;
+    }
+
+    void evictIfNeeded() {
+        // Throw out whatever hasn't been used in a while until we're small
+        // enough. Whole strings go first, since they're the big pictures and
+        // the letters can stand in for them.
+        while (strings.size() > maxStrings) {
+            evictOldest(strings);
+        }
+        while (pixels > maxPixels && (!strings.isEmpty() || !letters.isEmpty())) {
+            evictOldest(strings.isEmpty() ? letters : strings);
+        }
+    }
+
+    void evictOldest(LinkedHashMap<Key, Entry> from) {
+        Iterator<Map.Entry<Key, Entry>> it = from.entrySet().iterator();
+        Entry oldest = it.next().getValue();
+        it.remove();
+        if (oldest.image != null) {
+            pixels -= (long) oldest.image.getWidth() * oldest.image.getHeight();
+        }
+        evictions++;
+    }
+
+    static boolean isTextAntialiased(Graphics2D g, Object textHint) {
+        if (textHint == RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT) {
+            // "Default" text follows the regular antialiasing setting.
+            return g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+        }
+        return textHint != RenderingHints.VALUE_TEXT_ANTIALIAS_OFF;
+    }
+
+    /**
+     * Throws away everything in the cache.
+     */
+    public void clear() {
+        strings.clear();
+        letters.clear();
+        pixels = 0;
+    }
+
+    /**
+     * Gets how many times a string was drawn from its own cached picture.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets how many times a string didn't have its own cached picture.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getLetterHits() {
+        return letterHits;
+    }
+
+    public long getLetterMisses() {
+        return letterMisses;
+    }
+
+    /**
+     * Gets how many pictures were thrown away to make room for new ones.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets how many pixels of pictures the cache is holding right now.
+     */
+    public long getPixels() {
+        return pixels;
+    }
+}
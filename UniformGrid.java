@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/**
+ * A {@link SpatialIndex} that splits an area into equal square cells and
+ * remembers which cells each rectangle touches. Queries only have to look at
+ * the rectangles in nearby cells.
+ *
+ * It works best when the cells are a bit bigger than a typical rectangle.
+ * Rectangles outside the grid's area still work, but they all get lumped into
+ * the cells along the edge, so they're slower to find.
+ */
+public class UniformGrid extends SpatialIndex {
+    int originX, originY;
+    int cellSize;
+    int columns, rows;
+
+    // The first entry in each cell, or -1 if the cell is empty.
+    int[] cellHeads;
+
+    // Entries link a rectangle to a cell. Each rectangle has one entry for
+    // every cell it touches. Entries are in two lists at once: the list for
+    // their cell (next and previous) and the list for their rectangle.
+    int[] entryIds = new int[256];
+    int[] entryCells = new int[256];
+    int[] entryNext = new int[256];
+    int[] entryPrevious = new int[256];
+    int[] entryNextForId = new int[256];
+    int entryCount = 0;
+    int freeEntry = -1;
+
+    // For each rectangle: its first entry and the range of cells it touches.
+    int[] firstEntries = new int[64];
+    int[] cellLeft = new int[64];
+    int[] cellTop = new int[64];
+    int[] cellRight = new int[64];
+    int[] cellBottom = new int[64];
+
+    /**
+     * Constructs a {@link UniformGrid} covering the area from (x, y) to
+     * (x + width, y + height), split into square cells of the given size.
+     */
+    public UniformGrid(int x, int y, int width, int height, int cellSize) {
+        if (cellSize < 1 || width < 1 || height < 1) {
+            throw new IllegalArgumentException("The grid's size and cell size must be at least 1!");
+        }
+        this.originX = x;
+        this.originY = y;
+        this.cellSize = cellSize;
+        this.columns = (width + cellSize - 1) / cellSize;
+        this.rows = (height + cellSize - 1) / cellSize;
+        cellHeads = new int[columns * rows];
+        Arrays.fill(cellHeads, -1);
+    }
+
+    int column(int x) {
+        return Math.max(0, Math.min(columns - 1, Math.floorDiv(x - originX, cellSize)));
+    }
+
+    int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y - originY, cellSize)));
+    }
+
+    @Override
+    void grow(int newLength) {
+        firstEntries = Arrays.copyOf(firstEntries, newLength);
+        cellLeft = Arrays.copyOf(cellLeft, newLength);
+        cellTop = Arrays.copyOf(cellTop, newLength);
+        cellRight = Arrays.copyOf(cellRight, newLength);
+        cellBottom = Arrays.copyOf(cellBottom, newLength);
+    }
+
+    @Override
+    void added(int id) {
+        firstEntries[id] = -1;
+        link(id);
+    }
+
+    @Override
+    void moved(int id) {
+        if (column(xs[id]) == cellLeft[id] && row(ys[id]) == cellTop[id]
+                && column(xs[id] + widths[id]) == cellRight[id] && row(ys[id] + heights[id]) == cellBottom[id]) {
+            return; // still in the same cells, nothing to do
+        }
+        unlink(id);
+        link(id);
+    }
+
+    @Override
+    void removed(int id) {
+        unlink(id);
+    }
+
+    void link(int id) {
+        cellLeft[id] = column(xs[id]);
+        cellTop[id] = row(ys[id]);
+        cellRight[id] = column(xs[id] + widths[id]);
+        cellBottom[id] = row(ys[id] + heights[id]);
+
+        for (int r = cellTop[id]; r <= cellBottom[id]; r++) {
+            for (int c = cellLeft[id]; c <= cellRight[id]; c++) {
+                int cell = r * columns + c;
+                int e = newEntry();
+                entryIds[e] = id;
+                entryCells[e] = cell;
+                entryPrevious[e] = -1;
+                entryNext[e] = cellHeads[cell];
+                if (cellHeads[cell] != -1) {
+                    entryPrevious[cellHeads[cell]] = e;
+                }
+                cellHeads[cell] = e;
+                entryNextForId[e] = firstEntries[id];
+                firstEntries[id] = e;
+            }
+        }
+    }
+
+    void unlink(int id) {
+        int e = firstEntries[id];
+        while (e != -1) {
+            int nextForId = entryNextForId[e];
+            if (entryPrevious[e] != -1) {
+                entryNext[entryPrevious[e]] = entryNext[e];
+            } else {
+                cellHeads[entryCells[e]] = entryNext[e];
+            }
+            if (entryNext[e] != -1) {
+                entryPrevious[entryNext[e]] = entryPrevious[e];
+            }
+            entryNext[e] = freeEntry;
+            freeEntry = e;
+            e = nextForId;
+        }
+        firstEntries[id] = -1;
+    }
+
+    int newEntry() {
+        if (freeEntry != -1) {
+            int e = freeEntry;
+            freeEntry = entryNext[e];
+            return e;
+        }
+        if (entryCount == entryIds.length) {
+            int newLength = entryIds.length * 2;
+            entryIds = Arrays.copyOf(entryIds, newLength);
+            entryCells = Arrays.copyOf(entryCells, newLength);
+            entryNext = Arrays.copyOf(entryNext, newLength);
+            entryPrevious = Arrays.copyOf(entryPrevious, newLength);
+            entryNextForId = Arrays.copyOf(entryNextForId, newLength);
+        }
+        return entryCount++;
+    }
+
+    @Override
+    public void queryPoint(int x, int y, IntList results) {
+        // A point is only ever in one cell, so nothing can show up twice.
+        for (int e = cellHeads[row(y) * columns + column(x)]; e != -1; e = entryNext[e]) {
+            if (contains(entryIds[e], x, y)) {
+                results.add(entryIds[e]);
+            }
+        }
+    }
+
+    @Override
+    public void queryRegion(int x, int y, int width, int height, IntList results) {
+        int left = Math.min(x, x + width);
+        int top = Math.min(y, y + height);
+        width = Math.abs(width);
+        height = Math.abs(height);
+
+        int stamp = nextStamp();
+        for (int r = row(top); r <= row(top + height); r++) {
+            for (int c = column(left); c <= column(left + width); c++) {
+                for (int e = cellHeads[r * columns + c]; e != -1; e = entryNext[e]) {
+                    int id = entryIds[e];
+                    if (stamps[id] != stamp) {
+                        stamps[id] = stamp;
+                        if (overlaps(id, left, top, width, height)) {
+                            results.add(id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void queryOverlappingPairs(IntList results) {
+        for (int cell = 0; cell < cellHeads.length; cell++) {
+            for (int e1 = cellHeads[cell]; e1 != -1; e1 = entryNext[e1]) {
+                int a = entryIds[e1];
+                for (int e2 = entryNext[e1]; e2 != -1; e2 = entryNext[e2]) {
+                    int b = entryIds[e2];
+                    if (!overlaps(a, b)) {
+                        continue;
+                    }
+                    // Two big rectangles can share lots of cells. Only report
+                    // the pair from the cell where their overlap starts.
+                    int overlapCell = row(Math.max(ys[a], ys[b])) * columns + column(Math.max(xs[a], xs[b]));
+                    if (overlapCell == cell) {
+                        results.add(a);
+                        results.add(b);
+                    }
+                }
+            }
+        }
+    }
+}
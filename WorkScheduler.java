@@ -0,0 +1,395 @@
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A WorkScheduler runs slow jobs (loading pictures, laying out lots of text,
+ * rebuilding a {@link SpatialIndex}) without making frames late. It has two
+ * ways of doing that:
+ *
+ * <ul>
+ * <li>{@link #runInBackground} runs a job on another thread. When it's done,
+ * its result is handed back to your main loop in {@link #runFrame}, so you
+ * can use it without worrying about threads.</li>
+ * <li>{@link #runInSlices} is for work that has to happen on the main thread
+ * (like anything that touches the canvas). You split it into small pieces,
+ * and {@link #runFrame} runs pieces only while the frame still has time
+ * left.</li>
+ * </ul>
+ *
+ * <pre>
+ * WorkScheduler work = new WorkScheduler(2);
+ * work.runInBackground(WorkScheduler.Priority.High,
+ *     () -&gt; ImageIO.read(new File("big.png")), // on another thread
+ *     image -&gt; background = image);             // back on the main thread
+ *
+ * while (true) {
+ *     int updates = scheduler.beginFrame();
+ *     // update and draw things
+ *     canvas.present();
+ *     work.runFrame(scheduler); // use up whatever time is left
+ *     scheduler.endFrame();
+ * }
+ * </pre>
+ *
+ * Higher priority jobs always go first. Within the same priority, jobs run
+ * in the order they were added.
+ */
+public class WorkScheduler {
+    /**
+     * How soon a job should run compared to the others.
+     */
+    public static enum Priority {
+        High,
+        Normal,
+        Low,
+    }
+
+    /**
+     * One small piece of main-thread work. Each call should do a little bit
+     * (ideally well under a millisecond) and return true once everything is
+     * done, or false if there's more left for next time.
+     */
+    public interface Slice {
+        boolean run();
+    }
+
+    /**
+     * A job given to a {@link WorkScheduler}. You can use it to check on the
+     * job or cancel it.
+     */
+    public static class Task implements Runnable, Comparable<Task> {
+        WorkScheduler scheduler;
+        Priority priority;
+        long order;
+
+        // Background jobs
+        Callable<?> work;
+        Consumer<Object> onDone;
+        Consumer<Exception> onError;
+        Object result;
+        Exception error;
+
+        // Main-thread jobs
+        Slice slice;
+
+        volatile boolean cancelled = false;
+        boolean finished = false; // only the main thread touches this
+
+        Task(WorkScheduler scheduler, Priority priority) {
+            this.scheduler = scheduler;
+            this.priority = priority;
+            this.order = scheduler.nextOrder++;
+        }
+
+        /**
+         * Stops the job. If it hasn't started yet, it never will. If it's
+         * running on another thread it finishes, but its result is thrown
+         * away. Call this from the main thread.
+         */
+        public void cancel() {
+            if (finished || cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (slice != null) {
+                scheduler.slices.get(priority.ordinal()).remove(this);
+                scheduler.slicesPending--;
+            } else if (scheduler.workers.remove(this)) {
+                // It was still waiting in line, so nothing will ever hand it back.
+                scheduler.backgroundPending--;
+            } else {
+                return; // it's running, and runFrame will throw away the result
+            }
+            scheduler.cancelled++;
+            finished = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Returns true once the job has finished (and its result has been
+         * handed over), failed, or been cancelled.
+         */
+        public boolean isDone() {
+            return finished;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+            // This is on a worker thread.
+            if (!cancelled) {
+                try {
+                    result = work.call();
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            scheduler.done.add(this); // hand it back to the main thread
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    ThreadPoolExecutor workers;
+    ConcurrentLinkedQueue<Task> done = new ConcurrentLinkedQueue<>();
+
+    // Main-thread jobs, one list per priority.
+    ArrayList<ArrayList<Task>> slices = new ArrayList<>();
+
+    long nextOrder = 0;
+
+    /**
+     * How much of the frame to leave unused, in seconds, so a slice that runs
+     * a little long doesn't make the frame late.
+     */
+    public double reserveSeconds = 0.001;
+
+    // Stats
+    long completed = 0, cancelled = 0, failed = 0;
+    int backgroundPending = 0;
+    int slicesPending = 0;
+    int lastFrameSlices = 0;
+    int lastFrameResults = 0;
+    long lastFrameNanos = 0;
+    long lastFrameBudgetNanos = 0;
+    long framesWithoutTime = 0;
+    long totalSliceNanos = 0;
+
+    /**
+     * Constructs a {@link WorkScheduler} with the given number of threads for
+     * background jobs.
+     */
+    public WorkScheduler(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 thread!");
+        }
+        workers = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "WorkScheduler");
+                thread.setDaemon(true); // don't keep the program running just for background jobs
+                thread.setPriority(Thread.NORM_PRIORITY - 1); // let the main loop win when there aren't enough cores
+                return thread;
+            });
+        for (int i = 0; i < Priority.values().length; i++) {
+            slices.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Runs work on another thread, then hands its result to onDone on the main
+     * thread during {@link #runFrame}. If work throws an exception, it's
+     * thrown again from runFrame.
+     */
+    public <T> Task runInBackground(Priority priority, Callable<T> work, Consumer<T> onDone) {
+        return runInBackground(priority, work, onDone, null);
+    }
+
+    /**
+     * Like {@link #runInBackground(Priority, Callable, Consumer)}, but if work
+     * throws an exception it's handed to onError on the main thread instead.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Task runInBackground(Priority priority, Callable<T> work, Consumer<T> onDone, Consumer<Exception> onError) {
+        if (workers.isShutdown()) {
+            throw new IllegalStateException("Can't add jobs after the work scheduler has been shut down!");
+        }
+        Task task = new Task(this, priority);
+        task.work = work;
+        task.onDone = onDone == null ? null : result -> onDone.accept((T) result);
+        task.onError = onError;
+        backgroundPending++;
+        workers.execute(task);
+        return task;
+    }
+
+    /**
+     * Runs slice over and over on the main thread during {@link #runFrame},
+     * as long as the frame has time left, until it returns true.
+     */
+    public Task runInSlices(Priority priority, Slice slice) {
+        Task task = new Task(this, priority);
+        task.slice = slice;
+        slices.get(priority.ordinal()).add(task); // always last, since it's the newest
+        slicesPending++;
+        return task;
+    }
+
+    /**
+     * Hands over the results of finished background jobs, then runs slices
+     * of main-thread jobs until the frame runs out of time. Call it once per
+     * frame, after drawing and before {@link FrameScheduler#endFrame}.
+     */
+    public void runFrame(FrameScheduler scheduler) {
+        long start = System.nanoTime();
+        long budget = scheduler.getNanosLeftInFrame() - (long) (reserveSeconds * 1e9);
+        long deadline = start + budget;
+        lastFrameBudgetNanos = Math.max(budget, 0);
+        lastFrameSlices = 0;
+        lastFrameResults = 0;
+        if (budget <= 0) {
+            framesWithoutTime++;
+        }
+
+        // Results first, since their work is already paid for. Always hand
+        // over at least one so results can't get stuck behind slow frames.
+        Task task;
+        while ((lastFrameResults == 0 || System.nanoTime() < deadline) && (task = done.poll()) != null) {
+            lastFrameResults++;
+            finish(task);
+        }
+
+        long now = System.nanoTime();
+        for (int p = 0; p < slices.size() && now < deadline; p++) {
+            ArrayList<Task> list = slices.get(p);
+            while (!list.isEmpty() && now < deadline) {
+                task = list.get(0);
+                boolean finished = task.slice.run();
+                long after = System.nanoTime();
+                lastFrameSlices++;
+                totalSliceNanos += after - now;
+                now = after;
+                if (finished && !task.finished) { // it might have cancelled itself
+                    list.remove(0);
+                    slicesPending--;
+                    task.finished = true;
+                    completed++;
+                }
+            }
+        }
+        lastFrameNanos = System.nanoTime() - start;
+    }
+
+    void finish(Task task) {
+        if (task.finished) {
+            return; // already taken care of
+        }
+        task.finished = true;
+        backgroundPending--;
+        if (task.cancelled) {
+            cancelled++;
+        } else if (task.error != null) {
+            failed++;
+            if (task.onError == null) {
+                throw new IllegalStateException("A background job failed: " + task.error.getMessage(), task.error);
+            }
+            task.onError.accept(task.error);
+        } else {
+            completed++;
+            if (task.onDone != null) {
+                task.onDone.accept(task.result);
+            }
+        }
+        task.result = null; // don't hold on to it
+    }
+
+    /**
+     * Stops the background threads and cancels every job that hasn't
+     * finished. Jobs that are running right now are interrupted.
+     */
+    public void shutdown() {
+        for (Runnable waiting : workers.shutdownNow()) {
+            Task task = (Task) waiting;
+            task.cancelled = true;
+            task.finished = true;
+            cancelled++;
+            backgroundPending--;
+        }
+        for (ArrayList<Task> list : slices) {
+            for (Task task : list) {
+                task.cancelled = true;
+                task.finished = true;
+                cancelled++;
+            }
+            list.clear();
+        }
+        slicesPending = 0;
+    }
+
+    /**
+     * Gets the number of background jobs that haven't been handed back yet.
+     */
+    public int getBackgroundPending() {
+        return backgroundPending;
+    }
+
+    /**
+     * Gets the number of main-thread jobs that haven't finished yet.
+     */
+    public int getSlicesPending() {
+        return slicesPending;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets how many slices ran during the last {@link #runFrame}.
+     */
+    public int getLastFrameSlices() {
+        return lastFrameSlices;
+    }
+
+    /**
+     * Gets how many background results were handed over during the last
+     * {@link #runFrame}.
+     */
+    public int getLastFrameResults() {
+        return lastFrameResults;
+    }
+
+    /**
+     * Gets how long the last {@link #runFrame} took, in seconds.
+     */
+    public double getLastFrameSeconds() {
+        return lastFrameNanos / 1e9;
+    }
+
+    /**
+     * Gets how much time the last {@link #runFrame} was allowed to use, in
+     * seconds. If the frame was already late, this is 0.
+     */
+    public double getLastFrameBudgetSeconds() {
+        return lastFrameBudgetNanos / 1e9;
+    }
+
+    /**
+     * Gets the number of frames that had no time left over for slices. If
+     * this keeps going up, main-thread jobs aren't getting anywhere.
+     */
+    public long getFramesWithoutTime() {
+        return framesWithoutTime;
+    }
+
+    /**
+     * Gets the total time spent running slices, in seconds.
+     */
+    public double getTotalSliceSeconds() {
+        return totalSliceNanos / 1e9;
+    }
+}
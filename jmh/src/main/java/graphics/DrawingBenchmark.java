@@ -0,0 +1,169 @@
+package graphics;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The drawing benchmarks from GraphicsBenchmark, run by JMH instead. JMH
+ * takes care of warming up, running each benchmark in a fresh copy of Java,
+ * and working out how accurate the numbers are. Build and run it from the
+ * top folder with:
+ *
+ * <pre>
+ * mvn package
+ * java -jar jmh/target/benchmarks.jar DrawingBenchmark -prof gc
+ * </pre>
+ *
+ * "-prof gc" adds the bytes allocated per operation and how much garbage
+ * collection happened. One "operation" is a whole batch of shapes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DrawingBenchmark {
+    @Param({"100", "1000"})
+    int count;
+
+    @Param({"10", "100"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean antialiasing;
+
+    GraphicsCanvas canvas;
+    Graphics2D g;
+    Font font;
+    MouseHelper mouse;
+    ShapeCache shapeCache;
+    Point[] points;
+    Point[] rightCorners;
+    Point[] bottomCorners;
+    Rectangle[] rects;
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true"); // no window needed
+
+        canvas = new GraphicsCanvas(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB));
+        g = canvas.getGraphics2D();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            antialiasing ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        font = new Font("Serif", Font.PLAIN, 24);
+        mouse = new MouseHelper(new Canvas());
+        shapeCache = new ShapeCache(256);
+
+        points = GraphicsBenchmark.makePoints(count, 800 - size, 600 - size);
+        rightCorners = GraphicsBenchmark.offsetPoints(points, size, 0);
+        bottomCorners = GraphicsBenchmark.offsetPoints(points, 0, size);
+        rects = GraphicsBenchmark.makeRectangles(points, size);
+    }
+
+    @Benchmark
+    public void drawLine() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawLine(g, Color.CYAN, 2, points[i], points[(i + 1) % count]);
+        }
+    }
+
+    @Benchmark
+    public void drawEllipse() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawEllipse(g, Color.GREEN, points[i], size, size / 2);
+        }
+    }
+
+    @Benchmark
+    public void drawEllipseOutline() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawEllipseOutline(g, Color.GREEN, 3, points[i], size, size / 2);
+        }
+    }
+
+    @Benchmark
+    public void drawEllipseOutlineWithShapeCache() {
+        canvas.setShapeCache(shapeCache);
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawEllipseOutline(g, Color.GREEN, 3, points[i], size, size / 2);
+        }
+        canvas.setShapeCache(null);
+    }
+
+    @Benchmark
+    public void drawCircle() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawCircle(g, Color.RED, points[i], size / 2);
+        }
+    }
+
+    @Benchmark
+    public void drawCircleOutline() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawCircleOutline(g, Color.RED, 3, points[i], size / 2);
+        }
+    }
+
+    @Benchmark
+    public void drawRectangle() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawRectangle(g, Color.ORANGE, rects[i]);
+        }
+    }
+
+    @Benchmark
+    public void drawRectangleOutline() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawRectangleOutline(g, Color.GRAY, 3, rects[i]);
+        }
+    }
+
+    @Benchmark
+    public void drawTriangle() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawTriangle(g, Color.BLUE, points[i], rightCorners[i], bottomCorners[i]);
+        }
+    }
+
+    @Benchmark
+    public void drawTriangleOutline() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawTriangleOutline(g, Color.BLUE, 3, points[i], rightCorners[i], bottomCorners[i]);
+        }
+    }
+
+    @Benchmark
+    public void drawTriangleOutlineWithShapeCache() {
+        canvas.setShapeCache(shapeCache);
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawTriangleOutline(g, Color.BLUE, 3, points[i], rightCorners[i], bottomCorners[i]);
+        }
+        canvas.setShapeCache(null);
+    }
+
+    @Benchmark
+    public void drawText() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawText(g, "Hello, this is a graphics example!", Color.BLACK, font, points[i]);
+        }
+    }
+
+    @Benchmark
+    public void drawMousePosition() {
+        for (int i = 0; i < count; i++) {
+            GraphicsExample.drawMousePosition(g, mouse);
+        }
+    }
+
+    @Benchmark
+    public void doButton(Blackhole blackhole) {
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(GraphicsExample.doButton(g, mouse, Color.BLUE, rects[i]));
+        }
+    }
+}
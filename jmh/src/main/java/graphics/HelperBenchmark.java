@@ -0,0 +1,75 @@
+package graphics;
+
+import java.awt.Canvas;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The benchmarks from GraphicsBenchmark for helpers that don't draw
+ * anything, run by JMH. See DrawingBenchmark for how to run them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelperBenchmark {
+    /** Rectangles (some with negative sizes) for the Rectangle benchmarks. */
+    @State(Scope.Thread)
+    public static class Rectangles {
+        @Param({"100", "1000"})
+        int count;
+
+        Rectangle[] rects;
+
+        @Setup
+        public void setup() {
+            rects = GraphicsBenchmark.makeRectangles(GraphicsBenchmark.makePoints(count, 800, 600), -20);
+        }
+    }
+
+    /** A keyboard with the left arrow held down. */
+    @State(Scope.Thread)
+    public static class Keyboard {
+        KeyboardHelper keyboard;
+
+        @Setup
+        public void setup() {
+            System.setProperty("java.awt.headless", "true"); // no window needed
+
+            Canvas component = new Canvas();
+            keyboard = new KeyboardHelper(component);
+            keyboard.keyPressed(new KeyEvent(component, KeyEvent.KEY_PRESSED, 0, 0, KeyEvent.VK_LEFT, KeyEvent.CHAR_UNDEFINED));
+            keyboard.resetForNextFrame();
+        }
+    }
+
+    @Benchmark
+    public void rectangleNormalize(Rectangles state, Blackhole blackhole) {
+        for (int i = 0; i < state.count; i++) {
+            blackhole.consume(Rectangle.normalize(state.rects[i]));
+        }
+    }
+
+    @Benchmark
+    public void rectangleCheckOverlap(Rectangles state, Blackhole blackhole) {
+        Rectangle[] rects = state.rects;
+        for (int i = 0; i < state.count; i++) {
+            blackhole.consume(Rectangle.checkOverlap(rects[i], rects[(i * 7 + 1) % state.count]));
+        }
+    }
+
+    /** Looks up 4 keys in each of the 3 ways, so one operation is 12 lookups. */
+    @Benchmark
+    public void keyboardLookups(Keyboard state, Blackhole blackhole) {
+        KeyboardHelper keyboard = state.keyboard;
+        for (int key = KeyEvent.VK_LEFT; key <= KeyEvent.VK_DOWN; key++) {
+            blackhole.consume(keyboard.isKeyDown(key));
+            blackhole.consume(keyboard.isKeyDownThisFrame(key));
+            blackhole.consume(keyboard.isKeyUpThisFrame(key));
+        }
+    }
+}